@@ -0,0 +1,84 @@
+package br.ufrn.imd.fiotclient;
+
+import br.ufrn.imd.fiotclient.iot.FiwareIotClient;
+import br.ufrn.imd.fiotclient.stubs.StubConfig;
+import br.ufrn.imd.fiotclient.stubs.StubHttpServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Full HTTP round trips of the client against an in-process stub of the IoT Agent and Orion.
+ * Run with -t to measure contention on the shared transport, e.g. -t 8.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RoundTripBenchmark {
+
+    private static final String ENTITY = "{\"id\":\"SENSOR_001\",\"type\":\"thing\",\"distance\":{\"type\":\"float\",\"value\":12.5}}";
+
+    private StubHttpServer httpServer;
+    private FiwareIotClient client;
+
+    private String entityUrl;
+    private Map<String, String> noHeaders;
+    private Map<String, String> measurements;
+
+    @Setup
+    public void setup() throws IOException {
+        this.httpServer = new StubHttpServer(200, ENTITY, 8);
+        this.client = new FiwareIotClient(StubConfig.create(this.httpServer.getPort(), 0), null);
+
+        this.entityUrl = String.format("http://127.0.0.1:%d/v2/entities/SENSOR_001", this.httpServer.getPort());
+        this.noHeaders = Collections.emptyMap();
+
+        this.measurements = new LinkedHashMap<>();
+        this.measurements.put("d", "12.5");
+        this.measurements.put("t", "21.0");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        this.client.close();
+        this.httpServer.close();
+    }
+
+    @Benchmark
+    public String sendRequest() {
+        return this.client.sendRequest(this.entityUrl, "", SimpleClient.GET, this.noHeaders);
+    }
+
+    @Benchmark
+    public int execute() throws IOException {
+        return this.client.execute(this.entityUrl, "", SimpleClient.GET, this.noHeaders).getStatusCode();
+    }
+
+    @Benchmark
+    public int executeAsync() {
+        return this.client.executeAsync(this.entityUrl, "", SimpleClient.GET, this.noHeaders).join().getStatusCode();
+    }
+
+    @Benchmark
+    public String sendObservationHttp() {
+        return this.client.sendObservation("SENSOR_001", this.measurements, "HTTP");
+    }
+
+}
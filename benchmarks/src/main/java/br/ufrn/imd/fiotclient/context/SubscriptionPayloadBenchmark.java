@@ -0,0 +1,48 @@
+package br.ufrn.imd.fiotclient.context;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Cost of building the NGSI payload of subscribeAttributesChange
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class SubscriptionPayloadBenchmark {
+
+    @Param({"1", "8"})
+    public int attributes;
+
+    private List<String> attributeNames;
+
+    @Setup
+    public void setup() {
+        this.attributeNames = new ArrayList<>();
+        for (int i = 0; i < this.attributes; i++) {
+            this.attributeNames.add("attribute" + i);
+        }
+    }
+
+    @Benchmark
+    public String subscriptionPayload() {
+        return FiwareContextClient.createSubscriptionPayload("SENSOR_001", this.attributeNames, "http://127.0.0.1:5050/notify");
+    }
+
+}
@@ -0,0 +1,81 @@
+package br.ufrn.imd.fiotclient.iot;
+
+import br.ufrn.imd.fiotclient.stubs.StubConfig;
+import br.ufrn.imd.fiotclient.stubs.StubMqttBroker;
+import br.ufrn.imd.fiotclient.utils.FiwareConfig;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * MQTT publications of observations through the persistent session of the client, against an in-process broker.
+ * With QoS 1 each publication waits for the acknowledgement of the broker.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MqttRoundTripBenchmark {
+
+    @Param({"0", "1"})
+    public int qos;
+
+    private StubMqttBroker broker;
+    private FiwareIotClient client;
+
+    private Map<String, String> measurements;
+    private String topic;
+    private byte[] payload;
+
+    @Setup
+    public void setup() throws IOException {
+        this.broker = new StubMqttBroker();
+
+        Properties properties = StubConfig.properties(0, this.broker.getPort());
+        properties.setProperty("mosquitto.qos", String.valueOf(this.qos));
+        this.client = new FiwareIotClient(FiwareConfig.fromProperties(properties), null);
+
+        this.measurements = new LinkedHashMap<>();
+        this.measurements.put("d", "12.5");
+        this.measurements.put("t", "21.0");
+
+        this.topic = String.format("/%s/SENSOR_001/attrs", this.client.getApiKey());
+        this.payload = "d|12.5|t|21.0".getBytes(StandardCharsets.UTF_8);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        this.client.close();
+        this.broker.close();
+    }
+
+    @Benchmark
+    public String sendObservation() {
+        return this.client.sendObservation("SENSOR_001", this.measurements, "MQTT");
+    }
+
+    @Benchmark
+    public void publish() throws MqttException {
+        this.client.getMqttSession().publish(this.topic, this.payload);
+    }
+
+}
@@ -0,0 +1,93 @@
+package br.ufrn.imd.fiotclient.iot;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Cost of building the payloads sent by devices and to devices: UL observations and NGSI commands
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class PayloadBenchmark {
+
+    @Param({"1", "10"})
+    public int groups;
+
+    @Param({"4"})
+    public int attributes;
+
+    private List<Map<String, String>> measurementGroups;
+    private String[] objectIds;
+    private double[] values;
+    private ULEncoder encoder;
+
+    private List<String> commandParams;
+
+    @Setup
+    public void setup() {
+        this.objectIds = new String[this.attributes];
+        this.values = new double[this.attributes];
+        for (int i = 0; i < this.attributes; i++) {
+            this.objectIds[i] = "a" + i;
+            this.values[i] = 20.5 + i * 0.25;
+        }
+
+        this.measurementGroups = new ArrayList<>();
+        for (int g = 0; g < this.groups; g++) {
+            Map<String, String> group = new LinkedHashMap<>();
+            for (int i = 0; i < this.attributes; i++) {
+                group.put(this.objectIds[i], String.valueOf(this.values[i] + g));
+            }
+            this.measurementGroups.add(group);
+        }
+
+        this.encoder = new ULEncoder();
+        this.commandParams = Arrays.asList("on", "50", "fast");
+    }
+
+    @Benchmark
+    public String ulPayloadFromMeasurementGroupList() {
+        return FiwareIotClient.createULPayloadFromMeasurementGroupList(this.measurementGroups);
+    }
+
+    @Benchmark
+    public int ulEncoder() {
+        ULEncoder encoder = this.encoder;
+        encoder.measurement("SENSOR_001");
+        for (int g = 0; g < this.groups; g++) {
+            if (g > 0) {
+                encoder.group();
+            }
+            for (int i = 0; i < this.attributes; i++) {
+                encoder.put(this.objectIds[i], this.values[i] + g);
+            }
+        }
+        return encoder.length();
+    }
+
+    @Benchmark
+    public String commandPayload() {
+        return FiwareIotClient.createCommandPayload("SENSOR_001", "setLed", this.commandParams);
+    }
+
+}
@@ -0,0 +1,71 @@
+package br.ufrn.imd.fiotclient.iot;
+
+import br.ufrn.imd.fiotclient.utils.JsonTemplate;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Cost of substituting the placeholders of a device template, as done by registerDevice.
+ * replaceChain reproduces the previous implementation, based on chained String.replace calls.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class TemplateBenchmark {
+
+    private static final String DEVICE_SCHEMA =
+            "{" +
+                "\"devices\":[" +
+                    "{" +
+                        "\"device_id\":\"[DEVICE_ID]\"," +
+                        "\"entity_name\":\"[ENTITY_ID]\"," +
+                        "\"entity_type\":\"thing\"," +
+                        "\"timezone\":\"America/Fortaleza\"," +
+                        "\"endpoint\":\"http://[DEVICE_IP]:[PORT]\"," +
+                        "\"transport\":\"MQTT\"," +
+                        "\"attributes\":[{\"object_id\":\"d\",\"name\":\"distance\",\"type\":\"float\"}]," +
+                        "\"static_attributes\":[{\"name\":\"id\",\"type\":\"string\",\"value\":\"[DEVICE_ID]\"}]" +
+                    "}" +
+                "]" +
+            "}";
+
+    private JsonTemplate template;
+
+    @Setup
+    public void setup() {
+        this.template = JsonTemplate.compile(DEVICE_SCHEMA);
+    }
+
+    @Benchmark
+    public String renderCompiled() {
+        return FiwareIotClient.createDevicePayload(this.template, "SENSOR_001", "SENSOR_001", "10.0.0.1:8080");
+    }
+
+    @Benchmark
+    public String compileAndRender() {
+        return FiwareIotClient.createDevicePayload(JsonTemplate.compile(DEVICE_SCHEMA), "SENSOR_001", "SENSOR_001", "10.0.0.1:8080");
+    }
+
+    @Benchmark
+    public String replaceChain() {
+        String[] endpoint = "10.0.0.1:8080".split(":");
+        return DEVICE_SCHEMA.replace("[DEVICE_ID]", "SENSOR_001")
+                            .replace("[ENTITY_ID]", "SENSOR_001")
+                            .replace("[DEVICE_IP]", endpoint[0])
+                            .replace("[PORT]", endpoint[1]);
+    }
+
+}
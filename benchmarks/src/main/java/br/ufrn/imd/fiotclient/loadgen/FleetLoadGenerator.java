@@ -0,0 +1,357 @@
+package br.ufrn.imd.fiotclient.loadgen;
+
+import br.ufrn.imd.fiotclient.iot.DeviceRegistration;
+import br.ufrn.imd.fiotclient.iot.FiwareIotClient;
+import br.ufrn.imd.fiotclient.iot.ULEncoder;
+import br.ufrn.imd.fiotclient.stubs.StubConfig;
+import br.ufrn.imd.fiotclient.stubs.StubHttpServer;
+import br.ufrn.imd.fiotclient.stubs.StubMqttBroker;
+import br.ufrn.imd.fiotclient.transport.HttpTransport;
+import br.ufrn.imd.fiotclient.utils.FiwareConfig;
+import br.ufrn.imd.fiotclient.utils.JsonTemplate;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Load generator that simulates a fleet of virtual devices sending observations through FiwareIotClient.
+ *
+ * Devices are registered from a device template and each one sends an observation with the attributes of the template
+ * at a fixed rate, over MQTT or UL-HTTP. Latency is measured from the time each observation was due, so a stalled
+ * broker or IoT Agent shows up in the percentiles instead of silently lowering the offered load.
+ * Without a configuration file, the fleet runs against an in-process stand-in broker and IoT Agent.
+ *
+ * Usage:
+ *   java -cp benchmarks.jar br.ufrn.imd.fiotclient.loadgen.FleetLoadGenerator --devices 5000 --rate 0.2 --protocol MQTT
+ *
+ * Options:
+ *   --devices N       Number of virtual devices (default 1000)
+ *   --rate R          Observations per second sent by each device (default 1)
+ *   --duration S      Duration of the run, in seconds (default 60)
+ *   --warmup S        Seconds sent before the run and left out of the summary, while the JVM warms up (default 0)
+ *   --protocol P      MQTT or HTTP (default MQTT)
+ *   --template FILE   Device template used to register the devices and to choose their attributes (default DISTANCE_SENSOR.json)
+ *   --no-register     Skips the registration of the devices
+ *   --config FILE     Configuration file of a real FIWARE deployment. If absent, local stand-ins are used
+ *   --clients C       Number of clients, each with its own MQTT connection, sharing one HTTP transport (default 1)
+ *   --threads T       Number of sender threads (default 16)
+ *   --qos Q           MQTT QoS, when running against local stand-ins (default 0)
+ */
+public class FleetLoadGenerator {
+
+    private static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.MINUTES.toMicros(10);
+
+    private final int devices;
+    private final double rate;
+    private final int durationSeconds;
+    private final int warmupSeconds;
+    private final String protocol;
+    private final String templateFile;
+    private final boolean register;
+    private final String configFile;
+    private final int clients;
+    private final int threads;
+    private final int qos;
+
+    private final Recorder recorder = new Recorder(HIGHEST_TRACKABLE_MICROS, 3);
+    private final Histogram total = new Histogram(HIGHEST_TRACKABLE_MICROS, 3);
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder queued = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final Map<String, LongAdder> errorMessages = new ConcurrentHashMap<>();
+
+    private final PrintStream report;
+
+    private FleetLoadGenerator(Map<String, String> options, PrintStream report) {
+        this.devices = Integer.parseInt(options.getOrDefault("devices", "1000"));
+        this.rate = Double.parseDouble(options.getOrDefault("rate", "1"));
+        this.durationSeconds = Integer.parseInt(options.getOrDefault("duration", "60"));
+        this.warmupSeconds = Integer.parseInt(options.getOrDefault("warmup", "0"));
+        this.protocol = options.getOrDefault("protocol", "MQTT").toUpperCase();
+        this.templateFile = options.getOrDefault("template", "DISTANCE_SENSOR.json");
+        this.register = !options.containsKey("no-register");
+        this.configFile = options.get("config");
+        this.clients = Integer.parseInt(options.getOrDefault("clients", "1"));
+        this.threads = Integer.parseInt(options.getOrDefault("threads", "16"));
+        this.qos = Integer.parseInt(options.getOrDefault("qos", "0"));
+        this.report = report;
+
+        if (!this.protocol.equals("MQTT") && !this.protocol.equals("HTTP")) {
+            throw new IllegalArgumentException("Protocol must be MQTT or HTTP");
+        }
+        if (this.devices < 1 || this.rate <= 0 || this.clients < 1 || this.threads < 1) {
+            throw new IllegalArgumentException("Devices, rate, clients and threads must be positive");
+        }
+        if (this.durationSeconds < 1 || this.warmupSeconds < 0) {
+            throw new IllegalArgumentException("Duration must be positive and warmup cannot be negative");
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        new FleetLoadGenerator(parseOptions(args), System.out).run();
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException(String.format("Unexpected argument '%s'", args[i]));
+            }
+            String name = args[i].substring(2);
+            if (name.equals("no-register")) {
+                options.put(name, "true");
+            } else if (i + 1 < args.length) {
+                options.put(name, args[++i]);
+            } else {
+                throw new IllegalArgumentException(String.format("Missing value of option '%s'", args[i]));
+            }
+        }
+        return options;
+    }
+
+    private void run() throws Exception {
+        StubHttpServer agent = null;
+        StubMqttBroker broker = null;
+
+        FiwareConfig config;
+        if (this.configFile != null) {
+            config = FiwareConfig.fromFile(this.configFile);
+        } else {
+            agent = new StubHttpServer(200, "{}", Math.max(8, this.threads));
+            broker = new StubMqttBroker();
+            Properties properties = StubConfig.properties(agent.getPort(), broker.getPort());
+            properties.setProperty("mosquitto.qos", String.valueOf(this.qos));
+            config = FiwareConfig.fromProperties(properties);
+            this.report.printf("Running against local stand-ins: IoT Agent on port %d, MQTT broker on port %d%n",
+                               agent.getPort(), broker.getPort());
+        }
+
+        JsonTemplate template = JsonTemplate.fromFile(this.templateFile);
+        String[] objectIds = attributeObjectIds(template);
+
+        List<DeviceRegistration> registrations = new ArrayList<>(this.devices);
+        for (int i = 0; i < this.devices; i++) {
+            String deviceId = String.format("LOAD_DEVICE_%06d", i);
+            registrations.add(new DeviceRegistration(deviceId, deviceId, ""));
+        }
+
+        HttpTransport transport = config.createTransport();
+        List<FiwareIotClient> fleetClients = new ArrayList<>();
+        ScheduledExecutorService senders = Executors.newScheduledThreadPool(this.threads, r -> {
+            Thread thread = new Thread(r, "fleet-sender");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        try {
+            for (int i = 0; i < this.clients; i++) {
+                fleetClients.add(new FiwareIotClient(config, transport));
+            }
+
+            if (this.register) {
+                this.registerDevices(fleetClients.get(0), template, registrations);
+            }
+
+            long periodNanos = (long) (TimeUnit.SECONDS.toNanos(1) / this.rate);
+            long start = System.nanoTime();
+            for (int i = 0; i < this.devices; i++) {
+                VirtualDevice device = new VirtualDevice(registrations.get(i).getDeviceId(), fleetClients.get(i % this.clients),
+                                                         objectIds, start, periodNanos);
+                senders.scheduleAtFixedRate(device::send, device.initialDelayNanos, periodNanos, TimeUnit.NANOSECONDS);
+            }
+
+            this.report.printf("Sending %.1f observations/s from %d devices over %s for %d s%n",
+                               this.devices * this.rate, this.devices, this.protocol, this.durationSeconds);
+            this.report.println("   time   sent/s  queued  errors      p50 ms      p99 ms    p99.9 ms      max ms");
+
+            Histogram interval = null;
+            long measurementStart = start;
+            long[] warmupCounts = new long[3];
+            for (int second = 1; second <= this.warmupSeconds + this.durationSeconds; second++) {
+                long sleepNanos = start + TimeUnit.SECONDS.toNanos(second) - System.nanoTime();
+                if (sleepNanos > 0) {
+                    TimeUnit.NANOSECONDS.sleep(sleepNanos);
+                }
+                interval = this.recorder.getIntervalHistogram(interval);
+                boolean warmup = second <= this.warmupSeconds;
+                if (!warmup) {
+                    this.total.add(interval);
+                }
+                this.report.printf("%6ds %8d %7d %7d %s%s%n", second, interval.getTotalCount(), this.queued.sum(),
+                                   this.errors.sum(), percentiles(interval), warmup ? "  (warmup)" : "");
+
+                if (second == this.warmupSeconds) {
+                    measurementStart = System.nanoTime();
+                    warmupCounts = new long[]{this.sent.sum(), this.queued.sum(), this.errors.sum()};
+                }
+            }
+
+            // Cancels the next observations and waits for the ones being sent
+            senders.shutdown();
+            senders.awaitTermination(30, TimeUnit.SECONDS);
+            this.total.add(this.recorder.getIntervalHistogram());
+            this.printSummary(System.nanoTime() - measurementStart, warmupCounts, broker, agent);
+        } finally {
+            senders.shutdownNow();
+            for (FiwareIotClient client : fleetClients) {
+                client.close();
+            }
+            transport.close();
+            if (broker != null) {
+                broker.close();
+            }
+            if (agent != null) {
+                agent.close();
+            }
+        }
+    }
+
+    private void registerDevices(FiwareIotClient client, JsonTemplate template, List<DeviceRegistration> registrations) {
+        long start = System.nanoTime();
+        Map<String, String> results = client.registerDevices(template, registrations, "IoTA-UL", 100, 8);
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        long failed = results.values().stream()
+                .map(JSONObject::new)
+                .filter(result -> result.optInt("status_code") < 200 || result.optInt("status_code") >= 300)
+                .count();
+        this.report.printf("Registered %d devices in %d ms, %d failed%n", registrations.size() - failed, elapsedMillis, failed);
+    }
+
+    /*
+     * @return  The object ids of the active attributes of the template, used as the measurements of each observation
+     */
+    private static String[] attributeObjectIds(JsonTemplate template) {
+        List<String> objectIds = new ArrayList<>();
+        JSONArray templateDevices = new JSONObject(template.getSource()).optJSONArray("devices");
+        if (templateDevices != null && templateDevices.length() > 0) {
+            JSONArray attributes = templateDevices.getJSONObject(0).optJSONArray("attributes");
+            for (int i = 0; attributes != null && i < attributes.length(); i++) {
+                objectIds.add(attributes.getJSONObject(i).optString("object_id", attributes.getJSONObject(i).optString("name")));
+            }
+        }
+        if (objectIds.isEmpty()) {
+            objectIds.add("d");
+        }
+        return objectIds.toArray(new String[0]);
+    }
+
+    /*
+     * @param elapsedNanos  The time since the end of the warmup
+     * @param warmupCounts  The number of sent, queued and failed observations during the warmup, left out of the summary
+     */
+    private void printSummary(long elapsedNanos, long[] warmupCounts, StubMqttBroker broker, StubHttpServer agent) {
+        double seconds = elapsedNanos / 1e9;
+        long count = this.sent.sum() - warmupCounts[0];
+
+        this.report.println();
+        this.report.printf("Observations: %d sent, %d queued on the journal, %d errors%n",
+                           count, this.queued.sum() - warmupCounts[1], this.errors.sum() - warmupCounts[2]);
+        this.report.printf("Throughput:   %.1f observations/s (offered %.1f)%n", count / seconds, this.devices * this.rate);
+        this.report.println("Latency (ms, from the time each observation was due):");
+        for (double percentile : new double[]{50, 90, 99, 99.9, 99.99, 100}) {
+            this.report.printf("  %-7s %10.3f%n", percentile == 100 ? "max" : "p" + percentile,
+                               this.total.getValueAtPercentile(percentile) / 1000.0);
+        }
+
+        if (!this.errorMessages.isEmpty()) {
+            this.report.println("Errors, including the warmup:");
+            this.errorMessages.forEach((message, occurrences) -> this.report.printf("  %8d  %s%n", occurrences.sum(), message));
+        }
+
+        if (broker != null) {
+            this.report.printf("Stand-in broker received %d messages, stand-in IoT Agent received %d requests%n",
+                               broker.getPublicationCount(), agent.getRequestCount());
+        }
+    }
+
+    private static String percentiles(Histogram histogram) {
+        return String.format("%11.3f %11.3f %11.3f %11.3f",
+                             histogram.getValueAtPercentile(50) / 1000.0,
+                             histogram.getValueAtPercentile(99) / 1000.0,
+                             histogram.getValueAtPercentile(99.9) / 1000.0,
+                             histogram.getMaxValue() / 1000.0);
+    }
+
+    private void recordResult(String result, long latencyNanos) {
+        this.recorder.recordValue(Math.min(TimeUnit.NANOSECONDS.toMicros(latencyNanos), HIGHEST_TRACKABLE_MICROS));
+
+        JSONObject resultJSON = new JSONObject(result);
+        String status = resultJSON.optString("result");
+        if ("OK".equals(status)) {
+            this.sent.increment();
+        } else if ("QUEUED".equals(status)) {
+            this.queued.increment();
+        } else {
+            this.errors.increment();
+            String message = resultJSON.optString("error", "Unknown error");
+            // Keeps a bounded number of distinct messages, as they may contain ids
+            if (this.errorMessages.size() < 20 || this.errorMessages.containsKey(message)) {
+                this.errorMessages.computeIfAbsent(message, m -> new LongAdder()).increment();
+            }
+        }
+    }
+
+    private static final ThreadLocal<ULEncoder> ENCODERS = ThreadLocal.withInitial(ULEncoder::new);
+
+    /*
+     * A device sending observations at a fixed rate. Runs are never concurrent, as they are scheduled at fixed rate.
+     */
+    private class VirtualDevice {
+        private final String deviceId;
+        private final FiwareIotClient client;
+        private final String[] objectIds;
+        private final long periodNanos;
+        private final long initialDelayNanos;
+
+        private long dueNanos;
+
+        private VirtualDevice(String deviceId, FiwareIotClient client, String[] objectIds, long startNanos, long periodNanos) {
+            this.deviceId = deviceId;
+            this.client = client;
+            this.objectIds = objectIds;
+            this.periodNanos = periodNanos;
+            // Spreads the devices over the period, so they do not send in bursts
+            this.initialDelayNanos = ThreadLocalRandom.current().nextLong(periodNanos);
+            this.dueNanos = startNanos + this.initialDelayNanos;
+        }
+
+        private void send() {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            ULEncoder encoder = ENCODERS.get();
+            encoder.measurement(this.deviceId);
+            for (String objectId : this.objectIds) {
+                encoder.put(objectId, random.nextDouble(0, 100));
+            }
+
+            String result;
+            try {
+                result = this.client.sendObservation(encoder, protocol);
+            } catch (RuntimeException e) {
+                JSONObject error = new JSONObject();
+                error.put("error", String.valueOf(e.getMessage()));
+                result = error.toString();
+            }
+
+            long end = System.nanoTime();
+            recordResult(result, end - this.dueNanos);
+            this.dueNanos += this.periodNanos;
+        }
+    }
+
+}
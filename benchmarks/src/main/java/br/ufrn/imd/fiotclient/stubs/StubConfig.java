@@ -0,0 +1,48 @@
+package br.ufrn.imd.fiotclient.stubs;
+
+import br.ufrn.imd.fiotclient.utils.FiwareConfig;
+
+import java.util.Properties;
+
+/*
+ * Builds client configurations that point every FIWARE service to the in-process stubs
+ */
+public class StubConfig {
+
+    /*
+     * @param httpPort  The port of the stub HTTP server, used for Orion, IoT Agent, STH, Cygnus and Perseo
+     * @param mqttPort  The port of the stub MQTT broker
+     * @return          The configuration properties, which can be changed before creating the configuration
+     */
+    public static Properties properties(int httpPort, int mqttPort) {
+        String host = "127.0.0.1";
+        String port = String.valueOf(httpPort);
+
+        Properties properties = new Properties();
+        properties.setProperty("service.fiware-service", "benchmark");
+        properties.setProperty("service.fiware-service-path", "/benchmark");
+        properties.setProperty("contextbroker.host", host);
+        properties.setProperty("contextbroker.port", port);
+        properties.setProperty("idas.OAuth", "no");
+        properties.setProperty("idas.host", host);
+        properties.setProperty("idas.adminport", port);
+        properties.setProperty("idas.ul20port", port);
+        properties.setProperty("idas.apikey", "benchmarkkey");
+        properties.setProperty("mosquitto.host", host);
+        properties.setProperty("mosquitto.port", String.valueOf(mqttPort));
+        properties.setProperty("sthcomet.host", host);
+        properties.setProperty("sthcomet.port", port);
+        properties.setProperty("cygnus.host", host);
+        properties.setProperty("cygnus.notification_host", host);
+        properties.setProperty("cygnus.port", port);
+        properties.setProperty("perseo.host", host);
+        properties.setProperty("perseo.port", port);
+        properties.setProperty("local.host_id", "benchmark");
+        return properties;
+    }
+
+    public static FiwareConfig create(int httpPort, int mqttPort) {
+        return FiwareConfig.fromProperties(properties(httpPort, mqttPort));
+    }
+
+}
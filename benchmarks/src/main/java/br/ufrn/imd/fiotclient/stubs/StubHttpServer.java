@@ -0,0 +1,99 @@
+package br.ufrn.imd.fiotclient.stubs;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * In-process stand-in for Orion, the IoT Agent, STH and Perseo. Every request is answered with the same
+ * status code and body, so measurements reflect the cost of the client and not of a real FIWARE deployment.
+ */
+public class StubHttpServer implements Closeable {
+
+    static {
+        // Responses are written as headers and body; without this, Nagle's algorithm delays each response by tens of milliseconds
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong bytesReceived = new AtomicLong();
+
+    private volatile int statusCode;
+    private volatile byte[] responseBody;
+
+    /*
+     * Starts the server on a free port of the loopback interface
+     *
+     * @param statusCode    The status code of every response
+     * @param responseBody  The body of every response
+     * @param threads       The number of threads handling requests
+     */
+    public StubHttpServer(int statusCode, String responseBody, int threads) throws IOException {
+        this.statusCode = statusCode;
+        this.responseBody = responseBody.getBytes(StandardCharsets.UTF_8);
+
+        this.executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "stub-http-server");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1024);
+        this.server.setExecutor(this.executor);
+        this.server.createContext("/", exchange -> {
+            long received = 0;
+            byte[] buffer = new byte[8192];
+            try (InputStream body = exchange.getRequestBody()) {
+                int read;
+                while ((read = body.read(buffer)) != -1) {
+                    received += read;
+                }
+            }
+            this.requests.incrementAndGet();
+            this.bytesReceived.addAndGet(received);
+
+            byte[] response = this.responseBody;
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(this.statusCode, response.length == 0 ? -1 : response.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(response);
+            }
+        });
+        this.server.start();
+    }
+
+    public void setResponse(int statusCode, String responseBody) {
+        this.statusCode = statusCode;
+        this.responseBody = responseBody.getBytes(StandardCharsets.UTF_8);
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived.get();
+    }
+
+    @Override
+    public void close() {
+        this.server.stop(0);
+        this.executor.shutdownNow();
+    }
+
+}
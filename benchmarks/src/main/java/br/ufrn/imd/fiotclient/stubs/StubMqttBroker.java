@@ -0,0 +1,328 @@
+package br.ufrn.imd.fiotclient.stubs;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+/*
+ * Minimal in-process MQTT 3.1.1 broker, enough for the client MQTT session, device command subscribers and load tests.
+ *
+ * Publications of any QoS are acknowledged as the protocol requires and forwarded with QoS 0 to the subscribers of
+ * matching topic filters, including the + and # wildcards. There is no retained message, will or session state.
+ */
+public class StubMqttBroker implements Closeable {
+
+    private static final int CONNECT = 1;
+    private static final int PUBLISH = 3;
+    private static final int PUBACK = 4;
+    private static final int PUBREC = 5;
+    private static final int PUBREL = 6;
+    private static final int PUBCOMP = 7;
+    private static final int SUBSCRIBE = 8;
+    private static final int UNSUBSCRIBE = 10;
+    private static final int PINGREQ = 12;
+    private static final int DISCONNECT = 14;
+
+    private final ServerSocket serverSocket;
+    private final Thread acceptor;
+    private final List<Connection> connections = new CopyOnWriteArrayList<>();
+
+    private final AtomicLong publications = new AtomicLong();
+    private final AtomicLong bytesReceived = new AtomicLong();
+    private volatile BiConsumer<String, byte[]> publishListener;
+
+    private volatile boolean closed;
+
+    /*
+     * Starts the broker on a free port of the loopback interface
+     */
+    public StubMqttBroker() throws IOException {
+        this.serverSocket = new ServerSocket(0, 1024, InetAddress.getLoopbackAddress());
+        this.acceptor = new Thread(this::accept, "stub-mqtt-acceptor");
+        this.acceptor.setDaemon(true);
+        this.acceptor.start();
+    }
+
+    private void accept() {
+        while (!this.closed) {
+            try {
+                Socket socket = this.serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                Connection connection = new Connection(socket);
+                this.connections.add(connection);
+
+                Thread reader = new Thread(connection::run, "stub-mqtt-connection");
+                reader.setDaemon(true);
+                reader.start();
+            } catch (IOException e) {
+                if (!this.closed) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /*
+     * Publishes a message with QoS 0 to the subscribers of the topic, as if it were sent by another client
+     *
+     * @param topic    The topic of the message
+     * @param payload  The payload of the message
+     */
+    public void publish(String topic, byte[] payload) {
+        byte[] packet = publishPacket(topic, payload);
+        for (Connection connection : this.connections) {
+            if (connection.isSubscribed(topic)) {
+                connection.write(packet);
+            }
+        }
+    }
+
+    /*
+     * @param listener  A function called with the topic and payload of every message received by the broker
+     */
+    public void setPublishListener(BiConsumer<String, byte[]> listener) {
+        this.publishListener = listener;
+    }
+
+    public String getServerUri() {
+        return String.format("tcp://%s:%d", this.serverSocket.getInetAddress().getHostAddress(), this.getPort());
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /*
+     * @return  The number of messages received from clients
+     */
+    public long getPublicationCount() {
+        return publications.get();
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.closed = true;
+        this.serverSocket.close();
+        for (Connection connection : this.connections) {
+            connection.close();
+        }
+    }
+
+    private static byte[] publishPacket(String topic, byte[] payload) {
+        byte[] topicBytes = topic.getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream variable = new ByteArrayOutputStream(2 + topicBytes.length + payload.length);
+        variable.write(topicBytes.length >>> 8);
+        variable.write(topicBytes.length & 0xFF);
+        variable.write(topicBytes, 0, topicBytes.length);
+        variable.write(payload, 0, payload.length);
+        return packet(PUBLISH << 4, variable.toByteArray());
+    }
+
+    private static byte[] packet(int header, byte[] body) {
+        ByteArrayOutputStream packet = new ByteArrayOutputStream(body.length + 5);
+        packet.write(header);
+        int length = body.length;
+        do {
+            int digit = length % 128;
+            length /= 128;
+            packet.write(length > 0 ? digit | 0x80 : digit);
+        } while (length > 0);
+        packet.write(body, 0, body.length);
+        return packet.toByteArray();
+    }
+
+    private static byte[] acknowledgement(int type, int packetId) {
+        return new byte[]{(byte) (type << 4 | (type == PUBREL ? 0x02 : 0)), 0x02, (byte) (packetId >>> 8), (byte) packetId};
+    }
+
+    /*
+     * @return  True if the topic matches the filter, which may contain the + and # wildcards
+     */
+    static boolean matches(String filter, String topic) {
+        String[] filterLevels = filter.split("/", -1);
+        String[] topicLevels = topic.split("/", -1);
+
+        for (int i = 0; i < filterLevels.length; i++) {
+            if (filterLevels[i].equals("#")) {
+                return true;
+            }
+            if (i >= topicLevels.length) {
+                return false;
+            }
+            if (!filterLevels[i].equals("+") && !filterLevels[i].equals(topicLevels[i])) {
+                return false;
+            }
+        }
+        return filterLevels.length == topicLevels.length;
+    }
+
+    /*
+     * A client connection, read by its own thread
+     */
+    private class Connection {
+        private final Socket socket;
+        private final OutputStream output;
+        private final Map<String, Boolean> subscriptions = new ConcurrentHashMap<>();
+
+        private Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            this.output = socket.getOutputStream();
+        }
+
+        private void run() {
+            try (DataInputStream input = new DataInputStream(new BufferedInputStream(this.socket.getInputStream()))) {
+                while (true) {
+                    int header = input.read();
+                    if (header < 0) {
+                        return;
+                    }
+                    byte[] body = new byte[readRemainingLength(input)];
+                    input.readFully(body);
+
+                    if (!this.handle(header >>> 4, header & 0x0F, body)) {
+                        return;
+                    }
+                }
+            } catch (IOException e) {
+                // Connection closed by the client or by the broker
+            } finally {
+                connections.remove(this);
+                this.close();
+            }
+        }
+
+        private boolean handle(int type, int flags, byte[] body) {
+            switch (type) {
+                case CONNECT:
+                    this.write(new byte[]{0x20, 0x02, 0x00, 0x00});
+                    return true;
+
+                case PUBLISH:
+                    int qos = (flags >>> 1) & 0x03;
+                    int topicLength = unsignedShort(body, 0);
+                    String topic = new String(body, 2, topicLength, StandardCharsets.UTF_8);
+                    int offset = 2 + topicLength;
+                    if (qos > 0) {
+                        int packetId = unsignedShort(body, offset);
+                        offset += 2;
+                        this.write(acknowledgement(qos == 1 ? PUBACK : PUBREC, packetId));
+                    }
+
+                    byte[] payload = new byte[body.length - offset];
+                    System.arraycopy(body, offset, payload, 0, payload.length);
+                    publications.incrementAndGet();
+                    bytesReceived.addAndGet(payload.length);
+
+                    BiConsumer<String, byte[]> listener = publishListener;
+                    if (listener != null) {
+                        listener.accept(topic, payload);
+                    }
+                    publish(topic, payload);
+                    return true;
+
+                case PUBREL:
+                    this.write(acknowledgement(PUBCOMP, unsignedShort(body, 0)));
+                    return true;
+
+                case SUBSCRIBE:
+                case UNSUBSCRIBE:
+                    int packetId = unsignedShort(body, 0);
+                    ByteArrayOutputStream granted = new ByteArrayOutputStream();
+                    granted.write(packetId >>> 8);
+                    granted.write(packetId & 0xFF);
+
+                    int position = 2;
+                    while (position < body.length) {
+                        int length = unsignedShort(body, position);
+                        String filter = new String(body, position + 2, length, StandardCharsets.UTF_8);
+                        position += 2 + length;
+                        if (type == SUBSCRIBE) {
+                            // Messages are always forwarded with QoS 0
+                            position++;
+                            this.subscriptions.put(filter, Boolean.TRUE);
+                            granted.write(0);
+                        } else {
+                            this.subscriptions.remove(filter);
+                        }
+                    }
+                    this.write(packet(type == SUBSCRIBE ? 0x90 : 0xB0, granted.toByteArray()));
+                    return true;
+
+                case PINGREQ:
+                    this.write(new byte[]{(byte) 0xD0, 0x00});
+                    return true;
+
+                case DISCONNECT:
+                    return false;
+
+                default:
+                    // PUBACK, PUBREC and PUBCOMP are not expected, messages are only forwarded with QoS 0
+                    return true;
+            }
+        }
+
+        private boolean isSubscribed(String topic) {
+            for (String filter : this.subscriptions.keySet()) {
+                if (matches(filter, topic)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private synchronized void write(byte[] packet) {
+            try {
+                this.output.write(packet);
+                this.output.flush();
+            } catch (IOException e) {
+                this.close();
+            }
+        }
+
+        private void close() {
+            try {
+                this.socket.close();
+            } catch (IOException e) {
+                // Already closed
+            }
+        }
+    }
+
+    private static int readRemainingLength(DataInputStream input) throws IOException {
+        int value = 0;
+        int multiplier = 1;
+        int digit;
+        do {
+            digit = input.read();
+            if (digit < 0) {
+                throw new EOFException();
+            }
+            value += (digit & 0x7F) * multiplier;
+            multiplier *= 128;
+        } while ((digit & 0x80) != 0);
+        return value;
+    }
+
+    private static int unsignedShort(byte[] bytes, int offset) {
+        return ((bytes[offset] & 0xFF) << 8) | (bytes[offset + 1] & 0xFF);
+    }
+
+}
@@ -0,0 +1,33 @@
+package br.ufrn.imd.fiotclient;
+
+import java.io.IOException;
+
+/*
+ * Signals that a FIWARE API answered a request with a non successful status code
+ */
+public class FiwareRequestException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int statusCode;
+    private final String responseBody;
+
+    /*
+     * @param statusCode    The HTTP status code of the response
+     * @param responseBody  The body of the response, usually describing the error
+     */
+    public FiwareRequestException(int statusCode, String responseBody) {
+        super(String.format("Request failed with status code %s: %s", statusCode, responseBody));
+        this.statusCode = statusCode;
+        this.responseBody = responseBody;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    public String getResponseBody() {
+        return responseBody;
+    }
+
+}
@@ -0,0 +1,137 @@
+package br.ufrn.imd.fiotclient;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.entity.ContentType;
+import org.apache.http.util.EntityUtils;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/*
+ * Response of a request to FIWARE APIs, holding the status code, the headers and the raw body
+ * as received, so callers can read it as text or parse it as JSON without intermediate copies
+ */
+public class FiwareResponse {
+
+    private static final byte[] EMPTY_BODY = new byte[0];
+
+    private final int statusCode;
+    private final Map<String, List<String>> headers;
+    private final byte[] body;
+    private final Charset charset;
+
+    /*
+     * @param statusCode  The HTTP status code of the response
+     * @param headers     The response headers, by name
+     * @param body        The raw response body
+     * @param charset     The charset of the body
+     */
+    public FiwareResponse(int statusCode, Map<String, List<String>> headers, byte[] body, Charset charset) {
+        this.statusCode = statusCode;
+        this.headers = headers;
+        this.body = body;
+        this.charset = charset;
+    }
+
+    /*
+     * Creates a response reading the whole entity of an HTTP response
+     *
+     * @param response  The HTTP response to be read
+     * @return          The response with the entity fully read
+     */
+    public static FiwareResponse from(HttpResponse response) throws IOException {
+        HttpEntity entity = response.getEntity();
+        byte[] body = entity != null ? EntityUtils.toByteArray(entity) : EMPTY_BODY;
+
+        return new FiwareResponse(response.getStatusLine().getStatusCode(), readHeaders(response), body, charsetOf(entity));
+    }
+
+    /*
+     * Auxiliary method to collect the headers of an HTTP response in a case insensitive map
+     *
+     * @param response  The HTTP response
+     * @return          The headers of the response, by name
+     */
+    static Map<String, List<String>> readHeaders(HttpResponse response) {
+        Map<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (Header header : response.getAllHeaders()) {
+            headers.computeIfAbsent(header.getName(), name -> new ArrayList<>()).add(header.getValue());
+        }
+        return Collections.unmodifiableMap(headers);
+    }
+
+    /*
+     * Auxiliary method to get the charset of an entity, using UTF-8 when it is not declared
+     *
+     * @param entity  The HTTP entity
+     * @return        The charset of the entity
+     */
+    static Charset charsetOf(HttpEntity entity) {
+        ContentType contentType = entity != null ? ContentType.get(entity) : null;
+        Charset charset = contentType != null ? contentType.getCharset() : null;
+        return charset != null ? charset : StandardCharsets.UTF_8;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /*
+     * @return  True if the status code is on the 2xx range
+     */
+    public boolean isSuccess() {
+        return statusCode >= 200 && statusCode < 300;
+    }
+
+    public Map<String, List<String>> getHeaders() {
+        return headers;
+    }
+
+    /*
+     * @param name  The name of the header, case insensitive
+     * @return      The first value of the header or null if it is not present
+     */
+    public String getHeader(String name) {
+        List<String> values = headers.get(name);
+        return values == null || values.isEmpty() ? null : values.get(0);
+    }
+
+    public byte[] getBody() {
+        return body;
+    }
+
+    public String getBodyAsString() {
+        return new String(body, charset);
+    }
+
+    /*
+     * Parses the body as JSON directly from its bytes
+     *
+     * @return  The parsed JSONObject, JSONArray or primitive value
+     */
+    public Object getBodyAsJSON() {
+        return new JSONTokener(new InputStreamReader(new ByteArrayInputStream(body), charset)).nextValue();
+    }
+
+    public JSONObject getBodyAsJSONObject() {
+        return (JSONObject) getBodyAsJSON();
+    }
+
+    public JSONArray getBodyAsJSONArray() {
+        return (JSONArray) getBodyAsJSON();
+    }
+
+}
@@ -2,6 +2,8 @@ package br.ufrn.imd.fiotclient;
 
 import br.ufrn.imd.fiotclient.context.FiwareContextClient;
 import br.ufrn.imd.fiotclient.iot.FiwareIotClient;
+import br.ufrn.imd.fiotclient.transport.HttpTransport;
+import br.ufrn.imd.fiotclient.utils.FiwareConfig;
 
 import java.io.IOException;
 import java.util.Arrays;
@@ -10,8 +12,10 @@ import java.util.HashMap;
 public class MainTest {
 
     public static void main(String[] args) throws IOException {
-        FiwareContextClient fiwareContextClient = new FiwareContextClient("config.ini");
-        FiwareIotClient fiwareIotClient = new FiwareIotClient("config.ini");
+        FiwareConfig config = FiwareConfig.fromFile("config.ini");
+        HttpTransport transport = config.createTransport();
+        FiwareContextClient fiwareContextClient = new FiwareContextClient(config, transport);
+        FiwareIotClient fiwareIotClient = new FiwareIotClient(config, transport);
 
         fiwareIotClient.listDevices();
         System.out.println();
@@ -75,6 +79,9 @@ public class MainTest {
 
         fiwareContextClient.getEntities();
         System.out.println();
+
+        fiwareIotClient.close();
+        transport.close();
     }
 
 }
@@ -1,30 +1,48 @@
 package br.ufrn.imd.fiotclient;
 
-import br.ufrn.imd.fiotclient.utils.ConfigParser;
+import br.ufrn.imd.fiotclient.logging.Log;
+import br.ufrn.imd.fiotclient.metrics.ClientMetrics;
+import br.ufrn.imd.fiotclient.transport.CircuitBreaker;
+import br.ufrn.imd.fiotclient.transport.CircuitOpenException;
+import br.ufrn.imd.fiotclient.transport.Deadline;
+import br.ufrn.imd.fiotclient.transport.DeadlineExceededException;
+import br.ufrn.imd.fiotclient.transport.HttpTransport;
+import br.ufrn.imd.fiotclient.transport.RequestCoalescer;
+import br.ufrn.imd.fiotclient.transport.RetryPolicy;
+import br.ufrn.imd.fiotclient.transport.Timeouts;
+import br.ufrn.imd.fiotclient.utils.FiwareConfig;
+import org.apache.http.HttpEntity;
+import org.apache.http.Header;
+import org.apache.http.HttpEntityEnclosingRequest;
 import org.apache.http.HttpResponse;
-import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.*;
 import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.util.EntityUtils;
 import org.ini4j.InvalidFileFormatException;
 import org.json.JSONObject;
 
-import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.UnsupportedEncodingException;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
 
 /*
  * Default client for making requests to FIWARE APIs
  * 
  */
-public class SimpleClient {
+public class SimpleClient implements Closeable {
 
-    private String fiwareService;
-    private String fiwareServicePath;
+    private static final Log LOG = Log.getLog(SimpleClient.class);
+
+    // Service and service path are replaced together, so a request never mixes the values of two services
+    private volatile ServiceContext serviceContext;
+    private final boolean serviceView;
 
     private String cbHost;
     private String cbPort;
@@ -35,6 +53,18 @@ public class SimpleClient {
 
     private String hostId;
 
+    private final FiwareConfig config;
+    private final HttpTransport transport;
+    private final boolean ownsTransport;
+
+    private volatile RetryPolicy retryPolicy;
+    private volatile Timeouts timeouts;
+    private volatile ClientMetrics metrics = ClientMetrics.NONE;
+    private volatile RequestCoalescer<FiwareResponse> coalescer;
+
+    // The client whose retry policy, timeouts, metrics and coalescing are used by this view, or null if this is not a view
+    private final SimpleClient root;
+
     public static final String GET    = "GET";
     public static final String POST   = "POST";
     public static final String PUT    = "PUT";
@@ -46,20 +76,80 @@ public class SimpleClient {
      * @param configFile  The file in which load the default configuration
      */
     public SimpleClient(String configFile) throws InvalidFileFormatException, IOException {
-        Map<String, String> configMap = ConfigParser.readConfigFile(configFile);
+        this(configFile, null);
+    }
 
-        this.fiwareService = configMap.get("fiware_service");
-        this.fiwareServicePath = configMap.get("fiware_service_path");
+    /*
+     * @param configFile  The file in which load the default configuration
+     * @param transport   The HTTP transport shared with other clients. If null, a new transport owned by this client is created
+     */
+    public SimpleClient(String configFile, HttpTransport transport) throws InvalidFileFormatException, IOException {
+        this(FiwareConfig.fromFile(configFile), transport);
+    }
 
-        this.cbHost = configMap.get("cb_host");
-        this.cbPort = configMap.get("cb_port");
+    /*
+     * @param config     The configuration shared with other clients
+     * @param transport  The HTTP transport shared with other clients. If null, a new transport owned by this client is created
+     */
+    public SimpleClient(FiwareConfig config, HttpTransport transport) {
+        this.config = config;
+
+        this.serviceContext = new ServiceContext(config.getFiwareService(), config.getFiwareServicePath());
+        this.serviceView = false;
+        this.root = null;
+
+        this.cbHost = config.getCbHost();
+        this.cbPort = config.getCbPort();
 
-        this.idasAAA = configMap.get("idas_aaa");
+        this.idasAAA = config.getIdasAAA();
 
-        this.token = configMap.get("token");
+        this.token = config.getToken();
         this.expiresAt = ""; //TODO Change
 
-        this.hostId = configMap.get("host_id");
+        this.hostId = config.getHostId();
+
+        this.retryPolicy = config.getRetryPolicy();
+        this.timeouts = config.getTimeouts();
+
+        if (config.isHttpCoalesce()) {
+            this.enableRequestCoalescing();
+        }
+
+        if (transport == null) {
+            this.transport = config.createTransport();
+            this.ownsTransport = true;
+        } else {
+            this.transport = transport;
+            this.ownsTransport = false;
+        }
+    }
+
+    /*
+     * Creates a view of a client bound to another service context, sharing the transport of the client
+     *
+     * @param base               The client whose settings are copied, and whose policies are shared by the view
+     * @param fiwareService      The name of the service to be used by the view
+     * @param fiwareServicePath  The service path of the service to be used by the view
+     */
+    protected SimpleClient(SimpleClient base, String fiwareService, String fiwareServicePath) {
+        this.config = base.config;
+
+        this.serviceContext = new ServiceContext(fiwareService, fiwareServicePath);
+        this.serviceView = true;
+        this.root = base.root != null ? base.root : base;
+
+        this.cbHost = base.cbHost;
+        this.cbPort = base.cbPort;
+
+        this.idasAAA = base.idasAAA;
+
+        this.token = base.token;
+        this.expiresAt = base.expiresAt;
+
+        this.hostId = base.hostId;
+
+        this.transport = base.transport;
+        this.ownsTransport = false;
     }
 
     /*
@@ -75,96 +165,655 @@ public class SimpleClient {
         if (SUPPORTED_HTTP_METHODS.contains(method)) {
             JSONObject resultJSON = new JSONObject();
             try {
-                System.out.print("Asking to: ");
-                System.out.println(url);
-
-                HttpClient client = HttpClientBuilder.create().build();
-                HttpUriRequest request;
-
-                System.out.print("Method: ");
-                switch (method) {
-                    case SimpleClient.POST:
-                        System.out.println("POST");
-                        request = new HttpPost(url);
-                        ((HttpPost) request).setEntity(new StringEntity(payload));
-                        break;
-                    case SimpleClient.PUT:
-                        System.out.println("PUT");
-                        request = new HttpPut(url);
-                        ((HttpPut) request).setEntity(new StringEntity(payload));
-                        break;
-                    case SimpleClient.DELETE:
-                        System.out.println("DELETE");
-                        request = new HttpDelete(url);
-                        break;
-                    default: //case SimpleClient.GET:
-                        System.out.println("GET");
-                        request = new HttpGet(url);
-                        break;
+                LOG.debug(() -> String.format("Asking to %s %s", method, url));
+                if(!payload.equals("")) {
+                    LOG.trace(() -> "Sending payload: " + Log.truncate(payload));
                 }
 
-                if(!payload.equals("")) {
-                    System.out.print("Sending payload:");
-                    System.out.println(payload);
+                FiwareResponse response = this.execute(url, payload, method, additionalHeaders);
+                LOG.debug(() -> String.format("Status code of %s %s: %d", method, url, response.getStatusCode()));
+
+                String strResponse = response.getBodyAsString();
+                LOG.trace(() -> "Response: " + Log.truncate(strResponse));
+
+                resultJSON.put("status_code", response.getStatusCode());
+                resultJSON.put("response", strResponse);
+            } catch (UnsupportedOperationException | IOException e) {
+                LOG.debug(() -> String.format("Request %s %s failed: %s", method, url, e));
+                resultJSON.put("error", String.valueOf(e.getMessage()));
+            } finally {
+                return resultJSON.toString();
+            }
+        } else {
+            LOG.warn(String.format("Unsupported method '%s'", method));
+            return unsupportedMethodResult(method);
+        }
+    }
+
+    /*
+     * Auxiliary method to configure and execute a request to FIWARE APIs without additional headers
+     *
+     * @param url                The url to be called on the request
+     * @param payload            The payload to be sent on the request
+     * @param method             The method to be used on the request
+     * @return                   The response from the request execution
+     */
+    public String sendRequest(String url, String payload, String method) {
+        return this.sendRequest(url, payload, method, new HashMap<String, String>());
+    }
+
+    /*
+     * Asynchronous counterpart of sendRequest. The request is executed by the non-blocking engine of the transport,
+     * so no thread is held while waiting for the response. The future is completed on the transport I/O threads.
+     *
+     * @param url                The url to be called on the request
+     * @param payload            The payload to be sent on the request
+     * @param method             The method to be used on the request
+     * @param additionalHeaders  Additional http headers to be used in the request
+     * @return                   A future completed with the response from the request execution
+     */
+    public CompletableFuture<String> sendRequestAsync(String url, String payload, String method, Map<String, String> additionalHeaders) {
+        if (!SUPPORTED_HTTP_METHODS.contains(method)) {
+            return CompletableFuture.completedFuture(unsupportedMethodResult(method));
+        }
+
+        return this.executeAsync(url, payload, method, additionalHeaders).handle((response, error) -> {
+            JSONObject resultJSON = new JSONObject();
+            if (error != null) {
+                LOG.debug(() -> String.format("Request %s %s failed: %s", method, url, error));
+                resultJSON.put("error", String.valueOf(error.getMessage()));
+            } else {
+                resultJSON.put("status_code", response.getStatusCode());
+                resultJSON.put("response", response.getBodyAsString());
+            }
+            return resultJSON.toString();
+        });
+    }
+
+    /*
+     * Asynchronous counterpart of sendRequest without additional headers
+     *
+     * @param url                The url to be called on the request
+     * @param payload            The payload to be sent on the request
+     * @param method             The method to be used on the request
+     * @return                   A future completed with the response from the request execution
+     */
+    public CompletableFuture<String> sendRequestAsync(String url, String payload, String method) {
+        return this.sendRequestAsync(url, payload, method, new HashMap<String, String>());
+    }
+
+    /*
+     * Executes a request to FIWARE APIs and returns its typed response, with the body kept as received.
+     * The timeouts of the client and the deadline of the current thread, if any, are applied.
+     *
+     * @param url                The url to be called on the request
+     * @param payload            The payload to be sent on the request
+     * @param method             The method to be used on the request
+     * @param additionalHeaders  Additional http headers to be used in the request
+     * @return                   The response with status code, headers and body
+     */
+    public FiwareResponse execute(String url, String payload, String method, Map<String, String> additionalHeaders) throws IOException {
+        return this.execute(url, payload, method, additionalHeaders, this.getTimeouts(), Deadline.current());
+    }
+
+    /*
+     * Executes a request to FIWARE APIs with specific timeouts and deadline
+     *
+     * @param url                The url to be called on the request
+     * @param payload            The payload to be sent on the request
+     * @param method             The method to be used on the request
+     * @param additionalHeaders  Additional http headers to be used in the request
+     * @param timeouts           The timeouts of each attempt of the request
+     * @param deadline           The deadline of the request, including retries, or null if there is none
+     * @return                   The response with status code, headers and body
+     * @throws DeadlineExceededException if the deadline expires before the request completes
+     */
+    public FiwareResponse execute(String url, String payload, String method, Map<String, String> additionalHeaders,
+                                  Timeouts timeouts, Deadline deadline) throws IOException {
+        HttpUriRequest request = this.buildRequest(url, payload, method, additionalHeaders);
+        RequestCoalescer<FiwareResponse> coalescer = this.getRequestCoalescer();
+        if (coalescer != null && GET.equals(method)) {
+            return coalescer.execute(coalescingKey(request), () -> this.executeRequest(request, method, timeouts, deadline), deadline);
+        }
+        return this.executeRequest(request, method, timeouts, deadline);
+    }
+
+    /*
+     * Auxiliary method to execute a request, retrying it as allowed by the retry policy and the deadline
+     *
+     * @param request   The request to be executed
+     * @param method    The method of the request
+     * @param timeouts  The timeouts of each attempt of the request
+     * @param deadline  The deadline of the request, including retries, or null if there is none
+     * @return          The response with status code, headers and body
+     */
+    private FiwareResponse executeRequest(HttpUriRequest request, String method, Timeouts timeouts, Deadline deadline) throws IOException {
+        CircuitBreaker breaker = this.transport.getCircuitBreaker(request.getURI());
+        ClientMetrics metrics = this.getMetrics();
+        long bytesSent = contentLength(request);
+
+        int attempt = 0;
+        while (true) {
+            attempt++;
+            if (deadline != null) {
+                deadline.check();
+            }
+            if (!breaker.allowRequest()) {
+                throw new CircuitOpenException(breaker.getTarget());
+            }
+
+            FiwareResponse response;
+            boolean recorded = false;
+            try {
+                applyTimeouts(request, timeouts, deadline);
+
+                metrics.requestStarted(method, request.getURI());
+                long start = System.nanoTime();
+                try (CloseableHttpResponse httpResponse = this.transport.execute(request)) {
+                    // Fully consumes the entity so the connection can be reused by the pool
+                    response = FiwareResponse.from(httpResponse);
+                } catch (IOException e) {
+                    breaker.recordFailure();
+                    recorded = true;
+                    metrics.requestFailed(method, request.getURI(), System.nanoTime() - start, bytesSent, e);
+                    long delay = this.getRetryPolicy().delayMillis(attempt);
+                    if (!this.canRetry(RetryPolicy.isIdempotent(method), attempt, delay, deadline)) {
+                        if (deadline != null && deadline.isExpired()) {
+                            throw new DeadlineExceededException();
+                        }
+                        throw e;
+                    }
+                    sleepBeforeRetry(delay);
+                    continue;
                 }
 
-                request.addHeader("X-Auth-Token", this.getToken());
-                request.addHeader("Fiware-Service", this.getFiwareService());
-                request.addHeader("Fiware-ServicePath", this.getFiwareServicePath());
+                recordOutcome(breaker, response.getStatusCode());
+                recorded = true;
+                metrics.requestCompleted(method, request.getURI(), response.getStatusCode(), System.nanoTime() - start,
+                                         bytesSent, response.getBody().length);
+            } finally {
+                // An allowed request must always be recorded, or a trial of a half-open circuit would keep it half-open
+                if (!recorded) {
+                    breaker.recordFailure();
+                }
+            }
 
-                if(additionalHeaders.size() > 0) {
-                    additionalHeaders.forEach(request::addHeader);
+            if (this.getRetryPolicy().isRetryableStatus(response.getStatusCode())) {
+                long delay = this.getRetryPolicy().delayMillis(attempt);
+                if (this.canRetry(RetryPolicy.isIdempotent(method), attempt, delay, deadline)) {
+                    sleepBeforeRetry(delay);
+                    continue;
                 }
+            }
+
+            return response;
+        }
+    }
+
+    /*
+     * Executes a request to FIWARE APIs and returns its response without reading the body, which can then be
+     * consumed as a stream. The returned response must be closed to release the connection.
+     *
+     * @param url                The url to be called on the request
+     * @param payload            The payload to be sent on the request
+     * @param method             The method to be used on the request
+     * @param additionalHeaders  Additional http headers to be used in the request
+     * @return                   The response with status code, headers and a streaming body
+     */
+    public StreamingResponse executeStreaming(String url, String payload, String method, Map<String, String> additionalHeaders) throws IOException {
+        HttpUriRequest request = this.buildRequest(url, payload, method, additionalHeaders);
+        Deadline deadline = Deadline.current();
+        if (deadline != null) {
+            deadline.check();
+        }
+
+        CircuitBreaker breaker = this.transport.getCircuitBreaker(request.getURI());
+        if (!breaker.allowRequest()) {
+            throw new CircuitOpenException(breaker.getTarget());
+        }
+
+        boolean recorded = false;
+        try {
+            applyTimeouts(request, this.getTimeouts(), deadline);
+
+            ClientMetrics metrics = this.getMetrics();
+            long bytesSent = contentLength(request);
+            metrics.requestStarted(method, request.getURI());
+            long start = System.nanoTime();
+            CloseableHttpResponse response;
+            try {
+                response = this.transport.execute(request);
+            } catch (IOException e) {
+                breaker.recordFailure();
+                recorded = true;
+                metrics.requestFailed(method, request.getURI(), System.nanoTime() - start, bytesSent, e);
+                throw e;
+            }
+
+            recordOutcome(breaker, response.getStatusLine().getStatusCode());
+            recorded = true;
+            // The body is still to be read by the caller, so the latency is the time to the response headers
+            HttpEntity entity = response.getEntity();
+            metrics.requestCompleted(method, request.getURI(), response.getStatusLine().getStatusCode(), System.nanoTime() - start,
+                                     bytesSent, entity != null ? entity.getContentLength() : 0);
+            return new StreamingResponse(response);
+        } finally {
+            if (!recorded) {
+                breaker.recordFailure();
+            }
+        }
+    }
+
+    /*
+     * Asynchronous counterpart of execute. The future is completed on the transport I/O threads.
+     * The deadline of the calling thread, if any, is captured when the request is made.
+     *
+     * @param url                The url to be called on the request
+     * @param payload            The payload to be sent on the request
+     * @param method             The method to be used on the request
+     * @param additionalHeaders  Additional http headers to be used in the request
+     * @return                   A future completed with the response with status code, headers and body
+     */
+    public CompletableFuture<FiwareResponse> executeAsync(String url, String payload, String method, Map<String, String> additionalHeaders) {
+        return this.executeAsync(url, payload, method, additionalHeaders, this.getTimeouts(), Deadline.current());
+    }
+
+    /*
+     * Asynchronous counterpart of execute with specific timeouts and deadline. When the deadline expires the future
+     * fails with DeadlineExceededException, even if the request is still waiting for a slot on the transport.
+     *
+     * @param url                The url to be called on the request
+     * @param payload            The payload to be sent on the request
+     * @param method             The method to be used on the request
+     * @param additionalHeaders  Additional http headers to be used in the request
+     * @param timeouts           The timeouts of each attempt of the request
+     * @param deadline           The deadline of the request, including retries, or null if there is none
+     * @return                   A future completed with the response with status code, headers and body
+     */
+    public CompletableFuture<FiwareResponse> executeAsync(String url, String payload, String method, Map<String, String> additionalHeaders,
+                                                          Timeouts timeouts, Deadline deadline) {
+        return this.executeAsync(url, payload, method, additionalHeaders, timeouts, deadline, RetryPolicy.isIdempotent(method));
+    }
+
+    /*
+     * Asynchronous counterpart of execute for a request that can be repeated whatever its method, as a query sent as
+     * POST, so the retry policy is applied to it as to a GET
+     *
+     * @param url                The url to be called on the request
+     * @param payload            The payload to be sent on the request
+     * @param method             The method to be used on the request
+     * @param additionalHeaders  Additional http headers to be used in the request
+     * @param idempotent         If the request can be retried even when the retry policy does not retry its method
+     * @return                   A future completed with the response with status code, headers and body
+     */
+    protected CompletableFuture<FiwareResponse> executeAsync(String url, String payload, String method, Map<String, String> additionalHeaders,
+                                                             boolean idempotent) {
+        return this.executeAsync(url, payload, method, additionalHeaders, this.getTimeouts(), Deadline.current(), idempotent);
+    }
 
-                System.out.print("Headers: ");
-                System.out.println(request.getAllHeaders().toString());
+    /*
+     * Auxiliary method to execute an asynchronous request, retried according to its idempotency instead of its method
+     */
+    private CompletableFuture<FiwareResponse> executeAsync(String url, String payload, String method, Map<String, String> additionalHeaders,
+                                                           Timeouts timeouts, Deadline deadline, boolean idempotent) {
+        CompletableFuture<FiwareResponse> result = new CompletableFuture<>();
+
+        HttpUriRequest request;
+        try {
+            request = this.buildRequest(url, payload, method, additionalHeaders);
+        } catch (IOException | IllegalArgumentException e) {
+            result.completeExceptionally(e);
+            return result;
+        }
 
-                //TODO Adds timeout or verifications of servers on calls to APIs
+        this.expireOnDeadline(result, deadline);
+
+        RequestCoalescer<FiwareResponse> coalescer = this.getRequestCoalescer();
+        if (coalescer != null && GET.equals(method)) {
+            coalescer.executeAsync(coalescingKey(request), () -> {
+                CompletableFuture<FiwareResponse> shared = new CompletableFuture<>();
+                this.expireOnDeadline(shared, deadline);
+                this.executeAsyncAttempt(request, method, idempotent, timeouts, deadline, 1, shared);
+                return shared;
+            }, deadline).whenComplete((response, error) -> {
+                if (error != null) {
+                    result.completeExceptionally(error);
+                } else {
+                    result.complete(response);
+                }
+            });
+        } else {
+            this.executeAsyncAttempt(request, method, idempotent, timeouts, deadline, 1, result);
+        }
+        return result;
+    }
 
-                HttpResponse response = client.execute(request);
+    /*
+     * Fails the future with DeadlineExceededException when the deadline expires, if it is not completed before
+     */
+    private void expireOnDeadline(CompletableFuture<FiwareResponse> future, Deadline deadline) {
+        if (deadline != null) {
+            ScheduledFuture<?> expiration = this.transport.schedule(
+                    () -> future.completeExceptionally(new DeadlineExceededException()), Math.max(0, deadline.remainingMillis()));
+            future.whenComplete((response, error) -> expiration.cancel(false));
+        }
+    }
 
-                int statusCode = response.getStatusLine().getStatusCode();
-                System.out.println(String.format("Status Code: %s", statusCode));
+    /*
+     * @return  The identity of the request for coalescing, made of its url and all its headers, so requests
+     *          of different services or tokens are never shared
+     */
+    private static String coalescingKey(HttpUriRequest request) {
+        StringBuilder key = new StringBuilder(request.getURI().toString());
+        Header[] headers = request.getAllHeaders();
+        String[] lines = new String[headers.length];
+        for (int i = 0; i < headers.length; i++) {
+            lines[i] = headers[i].getName().toLowerCase() + ": " + headers[i].getValue();
+        }
+        Arrays.sort(lines);
+        for (String line : lines) {
+            key.append('\n').append(line);
+        }
+        return key.toString();
+    }
+
+    /*
+     * Auxiliary method to execute an attempt of an asynchronous request, scheduling the next attempt on failures
+     *
+     * @param request   The request to be executed
+     * @param method      The method of the request
+     * @param idempotent  If the request can be repeated without changing the result
+     * @param timeouts    The timeouts of the attempt
+     * @param deadline    The deadline of the request, or null if there is none
+     * @param attempt     The number of the attempt, starting on 1
+     * @param result      The future to be completed with the final response
+     */
+    private void executeAsyncAttempt(HttpUriRequest request, String method, boolean idempotent, Timeouts timeouts, Deadline deadline,
+                                     int attempt, CompletableFuture<FiwareResponse> result) {
+        if (result.isDone()) {
+            return;
+        }
+        if (deadline != null && deadline.isExpired()) {
+            result.completeExceptionally(new DeadlineExceededException());
+            return;
+        }
 
-                BufferedReader rd = new BufferedReader(new InputStreamReader(response.getEntity().getContent()));
+        CircuitBreaker breaker = this.transport.getCircuitBreaker(request.getURI());
+        if (!breaker.allowRequest()) {
+            result.completeExceptionally(new CircuitOpenException(breaker.getTarget()));
+            return;
+        }
 
-                StringBuffer result = new StringBuffer();
-                String line = "";
-                while ((line = rd.readLine()) != null) {
-                    result.append(line);
+        ClientMetrics metrics = this.getMetrics();
+        long bytesSent = contentLength(request);
+        long start;
+        CompletableFuture<HttpResponse> exchange;
+        try {
+            applyTimeouts(request, timeouts, deadline);
+            metrics.requestStarted(method, request.getURI());
+            start = System.nanoTime();
+            exchange = this.transport.executeAsync(request);
+        } catch (RuntimeException e) {
+            // The allowed request must be recorded, or a trial of a half-open circuit would keep it half-open
+            breaker.recordFailure();
+            result.completeExceptionally(e);
+            return;
+        }
+        // When the deadline expires first, the abandoned attempt is aborted so it does not keep its slot on the window
+        result.whenComplete((response, error) -> exchange.cancel(false));
+        exchange.whenComplete((httpResponse, error) -> {
+            FiwareResponse response = null;
+            if (error == null) {
+                try {
+                    response = FiwareResponse.from(httpResponse);
+                } catch (IOException | RuntimeException e) {
+                    error = e;
                 }
+            }
 
-                String strResponse = result.toString();
-                System.out.print("Response: ");
-                System.out.println(strResponse);
+            boolean retryable;
+            try {
+                if (error != null) {
+                    breaker.recordFailure();
+                    retryable = true;
+                    metrics.requestFailed(method, request.getURI(), System.nanoTime() - start, bytesSent, error);
+                } else {
+                    recordOutcome(breaker, response.getStatusCode());
+                    retryable = this.getRetryPolicy().isRetryableStatus(response.getStatusCode());
+                    metrics.requestCompleted(method, request.getURI(), response.getStatusCode(), System.nanoTime() - start,
+                                             bytesSent, response.getBody().length);
+                }
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+                return;
+            }
 
-                resultJSON.put("status_code", statusCode);
-                resultJSON.put("response", strResponse);
-            } catch (UnsupportedOperationException | IOException e) {
-                // TODO Auto-generated catch block
-                e.printStackTrace();
-            } finally {
-                return resultJSON.toString();
+            long delay = this.getRetryPolicy().delayMillis(attempt);
+            if (retryable && this.canRetry(idempotent, attempt, delay, deadline)) {
+                this.transport.schedule(() -> this.executeAsyncAttempt(request, method, idempotent, timeouts, deadline, attempt + 1, result),
+                                        delay);
+            } else if (error != null) {
+                result.completeExceptionally(error);
+            } else {
+                result.complete(response);
             }
+        });
+    }
+
+    /*
+     * @return  True if the retry policy allows another attempt and the wait before it ends before the deadline
+     */
+    private boolean canRetry(boolean idempotent, int attempt, long delayMillis, Deadline deadline) {
+        return this.getRetryPolicy().canRetry(idempotent, attempt) && (deadline == null || deadline.allows(delayMillis));
+    }
+
+    /*
+     * Sets the timeouts of an attempt on the request, shortened so that the attempt ends before the deadline
+     */
+    private static void applyTimeouts(HttpUriRequest request, Timeouts timeouts, Deadline deadline) {
+        if (timeouts != null && request instanceof HttpRequestBase) {
+            ((HttpRequestBase) request).setConfig(timeouts.boundedBy(deadline).toRequestConfig());
+        }
+    }
+
+    /*
+     * @return  The size of the body of the request, or 0 if it has none
+     */
+    private static long contentLength(HttpUriRequest request) {
+        if (request instanceof HttpEntityEnclosingRequest) {
+            HttpEntity entity = ((HttpEntityEnclosingRequest) request).getEntity();
+            return entity != null ? Math.max(0, entity.getContentLength()) : 0;
+        }
+        return 0;
+    }
+
+    private static void recordOutcome(CircuitBreaker breaker, int statusCode) {
+        if (statusCode >= 500) {
+            breaker.recordFailure();
         } else {
-            //logging.error("Unsupported method '{}'".format(str(method)))
-            String errorMsg = String.format("Unsupported method '%s'. Select one of 'GET', 'POST', 'PUT' and 'DELETE'", method);
-            JSONObject resultJSON = new JSONObject();
-            resultJSON.put("error", errorMsg);
-            return resultJSON.toString();
+            breaker.recordSuccess();
+        }
+    }
+
+    private static void sleepBeforeRetry(long delayMillis) throws IOException {
+        try {
+            Thread.sleep(delayMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to retry request");
         }
     }
 
     /*
-     * Auxiliary method to configure and execute a request to FIWARE APIs without additional headers
+     * Executes a GET request and parses its JSON body while it is read from the connection
+     *
+     * @param url                The url to be called on the request
+     * @param additionalHeaders  Additional http headers to be used in the request
+     * @return                   The parsed JSONObject or JSONArray
+     * @throws FiwareRequestException if the response status code is not successful
+     */
+    public Object getJSON(String url, Map<String, String> additionalHeaders) throws IOException {
+        // A stream cannot be shared, so coalesced requests read the whole body and each caller parses its own copy
+        if (this.getRequestCoalescer() != null) {
+            FiwareResponse response = this.execute(url, "", SimpleClient.GET, additionalHeaders);
+            if (!response.isSuccess()) {
+                throw new FiwareRequestException(response.getStatusCode(), response.getBodyAsString());
+            }
+            return response.getBodyAsJSON();
+        }
+
+        try (StreamingResponse response = this.executeStreaming(url, "", SimpleClient.GET, additionalHeaders)) {
+            if (!response.isSuccess()) {
+                throw new FiwareRequestException(response.getStatusCode(), response.readBodyAsString());
+            }
+            return response.readJSON();
+        }
+    }
+
+    /*
+     * Auxiliary method to create a request to FIWARE APIs with the service and authentication headers of the client
      *
      * @param url                The url to be called on the request
      * @param payload            The payload to be sent on the request
      * @param method             The method to be used on the request
-     * @return                   The response from the request execution
+     * @param additionalHeaders  Additional http headers to be used in the request
+     * @return                   The request ready to be executed
      */
-    public String sendRequest(String url, String payload, String method) {
-        return this.sendRequest(url, payload, method, new HashMap<String, String>());
+    protected HttpUriRequest buildRequest(String url, String payload, String method, Map<String, String> additionalHeaders) throws UnsupportedEncodingException {
+        if (!SUPPORTED_HTTP_METHODS.contains(method)) {
+            throw new IllegalArgumentException(String.format("Unsupported method '%s'", method));
+        }
+
+        HttpUriRequest request;
+
+        switch (method) {
+            case SimpleClient.POST:
+                request = new HttpPost(url);
+                ((HttpPost) request).setEntity(new StringEntity(payload));
+                break;
+            case SimpleClient.PUT:
+                request = new HttpPut(url);
+                ((HttpPut) request).setEntity(new StringEntity(payload));
+                break;
+            case SimpleClient.DELETE:
+                request = new HttpDelete(url);
+                break;
+            default: //case SimpleClient.GET:
+                request = new HttpGet(url);
+                break;
+        }
+
+        request.addHeader("X-Auth-Token", this.getToken());
+        ServiceContext service = this.serviceContext;
+        request.addHeader("Fiware-Service", service.service);
+        request.addHeader("Fiware-ServicePath", service.servicePath);
+
+        if(additionalHeaders.size() > 0) {
+            additionalHeaders.forEach(request::addHeader);
+        }
+
+        return request;
+    }
+
+    private static String unsupportedMethodResult(String method) {
+        String errorMsg = String.format("Unsupported method '%s'. Select one of 'GET', 'POST', 'PUT' and 'DELETE'", method);
+        JSONObject resultJSON = new JSONObject();
+        resultJSON.put("error", errorMsg);
+        return resultJSON.toString();
+    }
+
+    /*
+     * Releases the HTTP transport if it is owned by this client. Shared transports must be closed by their owner.
+     */
+    @Override
+    public void close() throws IOException {
+        if (this.ownsTransport) {
+            this.transport.close();
+        }
+    }
+
+    /*
+     * @return  The configuration this client was created from
+     */
+    public FiwareConfig getConfig() {
+        return config;
+    }
+
+    public HttpTransport getTransport() {
+        return transport;
+    }
+
+    public RetryPolicy getRetryPolicy() {
+        return root != null ? root.getRetryPolicy() : retryPolicy;
+    }
+
+    /*
+     * Sets the policy of retries of failed requests. Use RetryPolicy.NONE to disable retries.
+     *
+     * @param retryPolicy  The retry policy to be used on requests of this client
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.checkNotServiceView();
+        this.retryPolicy = retryPolicy;
+    }
+
+    public Timeouts getTimeouts() {
+        return root != null ? root.getTimeouts() : timeouts;
+    }
+
+    /*
+     * Sets the connect, read and pool timeouts of each attempt of the requests of this client
+     *
+     * @param timeouts  The timeouts to be used on requests of this client
+     */
+    public void setTimeouts(Timeouts timeouts) {
+        this.checkNotServiceView();
+        this.timeouts = timeouts;
+    }
+
+    public ClientMetrics getMetrics() {
+        return root != null ? root.getMetrics() : metrics;
+    }
+
+    /*
+     * Sets where the latency, status code and size of every request attempt of this client is recorded,
+     * and binds the in-flight and pool gauges of the transport to it. Views of this client share the metrics.
+     *
+     * @param metrics  The metrics to be used, or null to stop recording
+     */
+    public void setMetrics(ClientMetrics metrics) {
+        this.checkNotServiceView();
+        ClientMetrics newMetrics = metrics != null ? metrics : ClientMetrics.NONE;
+        newMetrics.bindTransport(this.transport);
+        newMetrics.registerGauge("http.requests.coalesced", () -> {
+            RequestCoalescer<FiwareResponse> coalescer = this.coalescer;
+            return coalescer != null ? coalescer.getCoalescedCount() : 0;
+        });
+        this.metrics = newMetrics;
+    }
+
+    /*
+     * Makes concurrent identical GET requests of this client share a single request to the server. A GET made while
+     * another with the same url and headers is in flight waits for its response instead of sending a new one.
+     * Responses are not kept after the request completes. Views of this client share the coalescing.
+     */
+    public void enableRequestCoalescing() {
+        this.checkNotServiceView();
+        if (this.coalescer == null) {
+            this.coalescer = new RequestCoalescer<>();
+        }
+    }
+
+    public void disableRequestCoalescing() {
+        this.checkNotServiceView();
+        this.coalescer = null;
+    }
+
+    /*
+     * @return  The coalescer of GET requests, or null if coalescing is disabled
+     */
+    public RequestCoalescer<FiwareResponse> getRequestCoalescer() {
+        return root != null ? root.getRequestCoalescer() : coalescer;
     }
 
     /*
@@ -207,24 +856,65 @@ public class SimpleClient {
      * @param fiwareServicePath  The service path of the service to be used
      */
     public void setService(String fiwareService, String fiwareServicePath) {
-        this.fiwareService = fiwareService;
-        this.fiwareServicePath = fiwareServicePath;
+        this.checkNotServiceView();
+        this.serviceContext = new ServiceContext(fiwareService, fiwareServicePath);
+    }
+
+    /*
+     * Creates a view of this client bound to another service context. The view shares the transport, the configuration
+     * and the policies of this client, so creating it is cheap and it can be used concurrently with this client and
+     * with other views. Its service context cannot be changed.
+     *
+     * @param fiwareService      The name of the service to be used by the view
+     * @param fiwareServicePath  The service path of the service to be used by the view
+     * @return                   The client view
+     */
+    public SimpleClient forService(String fiwareService, String fiwareServicePath) {
+        return new SimpleClient(this, fiwareService, fiwareServicePath);
+    }
+
+    /*
+     * @return  True if this client is a view created by forService
+     */
+    public boolean isServiceView() {
+        return serviceView;
+    }
+
+    /*
+     * @throws IllegalStateException if this client is a view, whose settings are shared with the client it was created from
+     */
+    protected void checkNotServiceView() {
+        if (this.serviceView) {
+            throw new IllegalStateException("The service context of a client view cannot be changed. Use forService to create another view");
+        }
     }
 
     public String getFiwareService() {
-        return fiwareService;
+        return serviceContext.service;
     }
 
-    public void setFiwareService(String fiwareService) {
-        this.fiwareService = fiwareService;
+    public synchronized void setFiwareService(String fiwareService) {
+        this.checkNotServiceView();
+        this.serviceContext = new ServiceContext(fiwareService, this.serviceContext.servicePath);
     }
 
     public String getFiwareServicePath() {
-        return fiwareServicePath;
+        return serviceContext.servicePath;
     }
 
-    public void setFiwareServicePath(String fiwareServicePath) {
-        this.fiwareServicePath = fiwareServicePath;
+    public synchronized void setFiwareServicePath(String fiwareServicePath) {
+        this.checkNotServiceView();
+        this.serviceContext = new ServiceContext(this.serviceContext.service, fiwareServicePath);
+    }
+
+    private static final class ServiceContext {
+        private final String service;
+        private final String servicePath;
+
+        private ServiceContext(String service, String servicePath) {
+            this.service = service;
+            this.servicePath = servicePath;
+        }
     }
 
     public String getCbHost() {
@@ -0,0 +1,132 @@
+package br.ufrn.imd.fiotclient;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.util.EntityUtils;
+import org.json.JSONTokener;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Response of a request to FIWARE APIs whose body is read as a stream from the connection.
+ * The response must be closed to release the connection back to the pool.
+ */
+public class StreamingResponse implements Closeable {
+
+    // Unread content up to this size is read on close so the connection can be reused, larger ones are discarded
+    private static final int DRAIN_LIMIT = 64 * 1024;
+
+    private final CloseableHttpResponse response;
+    private final int statusCode;
+    private final Map<String, List<String>> headers;
+    private final Charset charset;
+
+    /*
+     * @param response  The HTTP response whose entity was not consumed yet
+     */
+    public StreamingResponse(CloseableHttpResponse response) {
+        this.response = response;
+        this.statusCode = response.getStatusLine().getStatusCode();
+        this.headers = FiwareResponse.readHeaders(response);
+        this.charset = FiwareResponse.charsetOf(response.getEntity());
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /*
+     * @return  True if the status code is on the 2xx range
+     */
+    public boolean isSuccess() {
+        return statusCode >= 200 && statusCode < 300;
+    }
+
+    public Map<String, List<String>> getHeaders() {
+        return headers;
+    }
+
+    /*
+     * @param name  The name of the header, case insensitive
+     * @return      The first value of the header or null if it is not present
+     */
+    public String getHeader(String name) {
+        List<String> values = headers.get(name);
+        return values == null || values.isEmpty() ? null : values.get(0);
+    }
+
+    /*
+     * @return  The body stream, which can be read only once
+     */
+    public InputStream getBody() throws IOException {
+        HttpEntity entity = response.getEntity();
+        return entity != null ? entity.getContent() : new ByteArrayInputStream(new byte[0]);
+    }
+
+    public Charset getCharset() {
+        return charset;
+    }
+
+    /*
+     * Reads the whole body as text
+     *
+     * @return  The body of the response
+     */
+    public String readBodyAsString() throws IOException {
+        HttpEntity entity = response.getEntity();
+        return entity != null ? EntityUtils.toString(entity, charset) : "";
+    }
+
+    /*
+     * Parses the body as JSON while it is read from the connection
+     *
+     * @return  The parsed JSONObject, JSONArray or primitive value
+     */
+    public Object readJSON() throws IOException {
+        return new JSONTokener(new InputStreamReader(getBody(), charset)).nextValue();
+    }
+
+    /*
+     * Releases the connection. Unread content, such as what follows a parsed JSON value, is read and discarded
+     * so the connection goes back to the pool. If more than a small amount is left, the caller gave up on the body
+     * and the connection is closed instead of reading the rest of it.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            this.drain();
+        } finally {
+            response.close();
+        }
+    }
+
+    private void drain() {
+        HttpEntity entity = response.getEntity();
+        if (entity == null) {
+            return;
+        }
+        try {
+            // Reaching the end of the stream releases the connection to the pool, so closing the response keeps it open
+            InputStream body = entity.getContent();
+            byte[] buffer = new byte[4096];
+            long remaining = DRAIN_LIMIT;
+            while (remaining > 0) {
+                int read = body.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (read == -1) {
+                    return;
+                }
+                remaining -= read;
+            }
+        } catch (IOException e) {
+            // The body was already closed or the connection broke, closing the response discards the connection
+        }
+    }
+
+}
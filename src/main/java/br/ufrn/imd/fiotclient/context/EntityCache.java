@@ -0,0 +1,219 @@
+package br.ufrn.imd.fiotclient.context;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+ * In-process cache of entity query results, keyed by service, service path and entity id.
+ * The cache has a bounded size with least recently used eviction, and entries expire after a fixed time to live.
+ *
+ * A result read from the broker is only stored if the entity was not invalidated since the read started, so a
+ * read racing with an update cannot put back the value the update replaced. Callers take the generation of the cache
+ * before reading and give it back when storing the result.
+ */
+public class EntityCache {
+
+    public static final long DEFAULT_TTL_MILLIS = 1000;
+
+    private final int maxSize;
+    private final long ttlMillis;
+
+    private final LinkedHashMap<String, CachedEntity> entries;
+
+    // Incremented on every invalidation. Invalidated entities are kept as tombstones holding the generation in which
+    // they were invalidated. When an entry leaves the map, its generation is folded into evictedInvalidation
+    private long generation;
+    private long evictedInvalidation;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long expirations;
+
+    /*
+     * @param maxSize    The maximum number of entities kept on the cache
+     * @param ttlMillis  How long an entity is kept on the cache after being read
+     */
+    public EntityCache(int maxSize, long ttlMillis) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Cache size must be at least 1");
+        }
+
+        this.maxSize = maxSize;
+        this.ttlMillis = ttlMillis;
+
+        // Access ordered map, so the eldest entry is the least recently used one
+        this.entries = new LinkedHashMap<String, CachedEntity>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedEntity> eldest) {
+                if (size() > EntityCache.this.maxSize) {
+                    CachedEntity evicted = eldest.getValue();
+                    evictedInvalidation = Math.max(evictedInvalidation, evicted.invalidatedAt);
+                    if (!evicted.isTombstone()) {
+                        evictions++;
+                    }
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /*
+     * Auxiliary method to create the key of an entity on the cache
+     */
+    private static String key(String service, String servicePath, String entityId) {
+        return service + '|' + servicePath + '|' + entityId;
+    }
+
+    /*
+     * @param service      The service of the entity
+     * @param servicePath  The service path of the entity
+     * @param entityType   The type of the entity
+     * @param entityId     The id of the entity
+     * @return             The cached value or null if the entity is not cached with the given type or its entry expired
+     */
+    public synchronized String get(String service, String servicePath, String entityType, String entityId) {
+        String key = key(service, servicePath, entityId);
+        CachedEntity entity = this.entries.get(key);
+        if (entity == null || entity.isTombstone() || !String.valueOf(entityType).equals(entity.entityType)) {
+            this.misses++;
+            return null;
+        }
+
+        if (System.currentTimeMillis() - entity.storedAt > this.ttlMillis) {
+            this.entries.remove(key);
+            this.evictedInvalidation = Math.max(this.evictedInvalidation, entity.invalidatedAt);
+            this.expirations++;
+            this.misses++;
+            return null;
+        }
+
+        this.hits++;
+        return entity.value;
+    }
+
+    /*
+     * @return  The current generation, to be taken before reading an entity that will be stored with put
+     */
+    public synchronized long getGeneration() {
+        return generation;
+    }
+
+    /*
+     * Stores the result of a read of an entity, unless the entity was invalidated after the read started
+     *
+     * @param service         The service of the entity
+     * @param servicePath     The service path of the entity
+     * @param entityType      The type of the entity
+     * @param entityId        The id of the entity
+     * @param value           The result of the read
+     * @param readGeneration  The generation of the cache taken before the read started
+     * @return                True if the value was stored
+     */
+    public synchronized boolean put(String service, String servicePath, String entityType, String entityId, String value,
+                                    long readGeneration) {
+        String key = key(service, servicePath, entityId);
+        CachedEntity current = this.entries.get(key);
+        long invalidatedAt = current != null ? current.invalidatedAt : this.evictedInvalidation;
+        if (invalidatedAt > readGeneration) {
+            return false;
+        }
+
+        this.entries.put(key, new CachedEntity(String.valueOf(entityType), value, System.currentTimeMillis(), invalidatedAt));
+        return true;
+    }
+
+    /*
+     * Removes the entities with the given ids from the cache, whatever their types are
+     *
+     * @param service      The service of the entities
+     * @param servicePath  The service path of the entities
+     * @param entityIds    The ids of the entities to be removed
+     */
+    public synchronized void invalidate(String service, String servicePath, Collection<String> entityIds) {
+        if (entityIds.isEmpty()) {
+            return;
+        }
+
+        this.generation++;
+        for (String entityId : entityIds) {
+            this.entries.put(key(service, servicePath, entityId), CachedEntity.tombstone(this.generation));
+        }
+    }
+
+    public synchronized void clear() {
+        this.generation++;
+        this.evictedInvalidation = this.generation;
+        this.entries.clear();
+    }
+
+    /*
+     * @return  The number of entities on the cache, not counting the ones recently invalidated
+     */
+    public synchronized int size() {
+        int size = 0;
+        for (CachedEntity entity : this.entries.values()) {
+            if (!entity.isTombstone()) {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized long getExpirations() {
+        return expirations;
+    }
+
+    /*
+     * @return  The fraction of reads answered by the cache, or 0 if there were no reads
+     */
+    public synchronized double getHitRatio() {
+        long reads = hits + misses;
+        return reads == 0 ? 0 : (double) hits / reads;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public long getTtlMillis() {
+        return ttlMillis;
+    }
+
+    private static class CachedEntity {
+        private final String entityType;
+        private final String value;
+        private final long storedAt;
+        private final long invalidatedAt;
+
+        private CachedEntity(String entityType, String value, long storedAt, long invalidatedAt) {
+            this.entityType = entityType;
+            this.value = value;
+            this.storedAt = storedAt;
+            this.invalidatedAt = invalidatedAt;
+        }
+
+        private static CachedEntity tombstone(long invalidatedAt) {
+            return new CachedEntity(null, null, 0, invalidatedAt);
+        }
+
+        private boolean isTombstone() {
+            return value == null;
+        }
+    }
+
+}
@@ -0,0 +1,130 @@
+package br.ufrn.imd.fiotclient.context;
+
+import br.ufrn.imd.fiotclient.FiwareRequestException;
+import br.ufrn.imd.fiotclient.FiwareResponse;
+import br.ufrn.imd.fiotclient.SimpleClient;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/*
+ * Iterator that walks the entities of the context broker page by page, using NGSI v2 limit/offset pagination.
+ * Only the current page is kept in memory. The first page is requested with options=count, so the total
+ * number of entities is known from the Fiware-Total-Count header. When prefetch is enabled, the next page
+ * is requested in background while the current one is consumed.
+ *
+ * Failures are reported as UncheckedIOException, since Iterator methods cannot throw checked exceptions.
+ */
+public class EntityPager implements Iterator<JSONObject> {
+
+    public static final int MAX_PAGE_SIZE = 1000;
+
+    private final SimpleClient client;
+    private final String baseUrl;
+    private final int pageSize;
+    private final boolean prefetch;
+
+    private JSONArray currentPage;
+    private int positionOnPage;
+    private int nextOffset;
+    private long totalCount = -1;
+    private boolean lastPageLoaded;
+    private CompletableFuture<FiwareResponse> nextPage;
+
+    /*
+     * @param client    The client used to execute the requests
+     * @param baseUrl   The url of the entities query, with or without query parameters
+     * @param pageSize  The number of entities requested on each page (1 to 1000)
+     * @param prefetch  If the next page is to be requested while the current one is consumed
+     */
+    EntityPager(SimpleClient client, String baseUrl, int pageSize, boolean prefetch) {
+        if (pageSize < 1 || pageSize > MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException("Page size must be between 1 and " + MAX_PAGE_SIZE);
+        }
+
+        this.client = client;
+        this.baseUrl = baseUrl;
+        this.pageSize = pageSize;
+        this.prefetch = prefetch;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (this.currentPage == null || this.positionOnPage >= this.currentPage.length()) {
+            if (this.lastPageLoaded) {
+                return false;
+            }
+            this.loadNextPage();
+        }
+        return true;
+    }
+
+    @Override
+    public JSONObject next() {
+        if (!this.hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return this.currentPage.getJSONObject(this.positionOnPage++);
+    }
+
+    /*
+     * @return  The total number of entities reported by the context broker, or -1 if the first page was not loaded yet
+     */
+    public long getTotalCount() {
+        return totalCount;
+    }
+
+    private void loadNextPage() {
+        FiwareResponse response;
+        try {
+            if (this.nextPage != null) {
+                response = this.nextPage.get();
+                this.nextPage = null;
+            } else {
+                response = this.client.execute(this.pageUrl(this.nextOffset), "", SimpleClient.GET, new HashMap<>());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UncheckedIOException(new IOException("Interrupted while waiting for page", e));
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw new UncheckedIOException(cause instanceof IOException ? (IOException) cause : new IOException(cause));
+        }
+
+        if (!response.isSuccess()) {
+            throw new UncheckedIOException(new FiwareRequestException(response.getStatusCode(), response.getBodyAsString()));
+        }
+
+        if (this.totalCount < 0) {
+            String count = response.getHeader("Fiware-Total-Count");
+            this.totalCount = count != null ? Long.parseLong(count.trim()) : -1;
+        }
+
+        this.currentPage = response.getBodyAsJSONArray();
+        this.positionOnPage = 0;
+        this.nextOffset += this.currentPage.length();
+
+        this.lastPageLoaded = this.currentPage.length() < this.pageSize
+                || (this.totalCount >= 0 && this.nextOffset >= this.totalCount);
+
+        if (this.prefetch && !this.lastPageLoaded) {
+            this.nextPage = this.client.executeAsync(this.pageUrl(this.nextOffset), "", SimpleClient.GET, new HashMap<>());
+        }
+    }
+
+    private String pageUrl(int offset) {
+        String separator = this.baseUrl.contains("?") ? "&" : "?";
+        String url = String.format("%s%slimit=%s&offset=%s", this.baseUrl, separator, this.pageSize, offset);
+        return this.totalCount < 0 ? url + "&options=count" : url;
+    }
+
+}
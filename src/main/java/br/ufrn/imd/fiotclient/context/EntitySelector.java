@@ -0,0 +1,71 @@
+package br.ufrn.imd.fiotclient.context;
+
+import org.json.JSONObject;
+
+/*
+ * Selects entities on NGSI v2 queries by id or by id pattern, optionally restricted to a type
+ */
+public class EntitySelector {
+
+    private final String id;
+    private final String idPattern;
+    private final String type;
+
+    private EntitySelector(String id, String idPattern, String type) {
+        this.id = id;
+        this.idPattern = idPattern;
+        this.type = type;
+    }
+
+    /*
+     * @param id    The id of the entity
+     * @param type  The type of the entity, or null to select entities of any type with the given id
+     * @return      The selector of the entity
+     */
+    public static EntitySelector byId(String id, String type) {
+        return new EntitySelector(id, null, type);
+    }
+
+    /*
+     * @param idPattern  A regular expression matching the ids of the entities, such as ROOM_.*
+     * @param type       The type of the entities, or null to select entities of any type
+     * @return           The selector of the entities
+     */
+    public static EntitySelector byIdPattern(String idPattern, String type) {
+        return new EntitySelector(null, idPattern, type);
+    }
+
+    /*
+     * @return  The selector on the format of the entities element of /v2/op/query, e.g. {"id": "ROOM_1", "type": "Room"}
+     */
+    public JSONObject toJSON() {
+        JSONObject selector = new JSONObject();
+        if (this.id != null) {
+            selector.put("id", this.id);
+        } else {
+            selector.put("idPattern", this.idPattern);
+        }
+        if (this.type != null) {
+            selector.put("type", this.type);
+        }
+        return selector;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getIdPattern() {
+        return idPattern;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    @Override
+    public String toString() {
+        return this.toJSON().toString();
+    }
+
+}
@@ -1,18 +1,35 @@
 package br.ufrn.imd.fiotclient.context;
 
+import br.ufrn.imd.fiotclient.FiwareRequestException;
 import br.ufrn.imd.fiotclient.SimpleClient;
-import br.ufrn.imd.fiotclient.utils.ConfigParser;
+import br.ufrn.imd.fiotclient.transport.HttpTransport;
+import br.ufrn.imd.fiotclient.utils.FiwareConfig;
+import br.ufrn.imd.fiotclient.utils.JsonTemplate;
+import br.ufrn.imd.fiotclient.utils.ParallelRunner;
 import org.ini4j.InvalidFileFormatException;
+import org.json.JSONArray;
 import org.json.JSONObject;
 
 import java.io.IOException;
-import java.nio.charset.Charset;
-import java.nio.file.Files;
-import java.nio.file.Paths;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 //import logging
 
@@ -41,23 +58,140 @@ public class FiwareContextClient extends SimpleClient {
     private String perseoHost;
     private String perseoPort;
 
+    public static final String BATCH_APPEND        = "append";
+    public static final String BATCH_APPEND_STRICT = "appendStrict";
+    public static final String BATCH_UPDATE        = "update";
+    public static final String BATCH_DELETE        = "delete";
+    public static final String BATCH_REPLACE       = "replace";
+
+    private static final List<String> BATCH_ACTIONS = Arrays.asList(BATCH_APPEND, BATCH_APPEND_STRICT, BATCH_UPDATE, BATCH_DELETE, BATCH_REPLACE);
+
+    private volatile EntityCache entityCache;
+
+    // The client whose entity cache is used by this view, or null if this is not a view
+    private final FiwareContextClient root;
+
     /*
      * @param configFile  The file in which load the default configuration
      */
     public FiwareContextClient(String configFile) throws InvalidFileFormatException, IOException {
-        super(configFile);
-        
-        Map<String, String> configMap = ConfigParser.readConfigFile(configFile);
-        
-        this.sthHost = configMap.get("sth_host");
-        this.sthPort = configMap.get("sth_port");
+        this(configFile, null);
+    }
+
+    /*
+     * @param configFile  The file in which load the default configuration
+     * @param transport   The HTTP transport shared with other clients. If null, a new transport owned by this client is created
+     */
+    public FiwareContextClient(String configFile, HttpTransport transport) throws InvalidFileFormatException, IOException {
+        this(FiwareConfig.fromFile(configFile), transport);
+    }
+
+    /*
+     * @param config     The configuration shared with other clients
+     * @param transport  The HTTP transport shared with other clients. If null, a new transport owned by this client is created
+     */
+    public FiwareContextClient(FiwareConfig config, HttpTransport transport) {
+        super(config, transport);
+        this.root = null;
+
+        this.sthHost = config.getSthHost();
+        this.sthPort = config.getSthPort();
 
-        this.cygnusHost = configMap.get("cygnus_host");
-        this.cygnusNotificationHost = configMap.get("cygnus_notification_host");
-        this.cygnusPort = configMap.get("cygnus_port");
+        this.cygnusHost = config.getCygnusHost();
+        this.cygnusNotificationHost = config.getCygnusNotificationHost();
+        this.cygnusPort = config.getCygnusPort();
+
+        this.perseoHost = config.getPerseoHost();
+        this.perseoPort = config.getPerseoPort();
+
+        if (config.getCacheMaxSize() > 0) {
+            this.enableEntityCache(config.getCacheMaxSize(), config.getCacheTtl());
+        }
+    }
+
+    /*
+     * @param base               The client whose settings and entity cache are shared by the view
+     * @param fiwareService      The name of the service to be used by the view
+     * @param fiwareServicePath  The service path of the service to be used by the view
+     */
+    private FiwareContextClient(FiwareContextClient base, String fiwareService, String fiwareServicePath) {
+        super(base, fiwareService, fiwareServicePath);
+        this.root = base.root != null ? base.root : base;
+
+        this.sthHost = base.sthHost;
+        this.sthPort = base.sthPort;
+
+        this.cygnusHost = base.cygnusHost;
+        this.cygnusNotificationHost = base.cygnusNotificationHost;
+        this.cygnusPort = base.cygnusPort;
+
+        this.perseoHost = base.perseoHost;
+        this.perseoPort = base.perseoPort;
+    }
+
+    /*
+     * Creates a view of this client bound to another service context. The view shares the HTTP transport
+     * and the entity cache of this client.
+     *
+     * @param fiwareService      The name of the service to be used by the view
+     * @param fiwareServicePath  The service path of the service to be used by the view
+     * @return                   The client view
+     */
+    @Override
+    public FiwareContextClient forService(String fiwareService, String fiwareServicePath) {
+        return new FiwareContextClient(this, fiwareService, fiwareServicePath);
+    }
+
+    /*
+     * Enables the read-through cache of getEntityById. Entities created, updated or removed through this client
+     * are invalidated on the cache.
+     *
+     * @param maxSize    The maximum number of entities kept on the cache
+     * @param ttlMillis  How long an entity is kept on the cache after being read
+     */
+    public void enableEntityCache(int maxSize, long ttlMillis) {
+        this.checkNotServiceView();
+        this.entityCache = new EntityCache(maxSize, ttlMillis);
+    }
 
-        this.perseoHost = configMap.get("perseo_host");
-        this.perseoPort = configMap.get("perseo_port");
+    public void disableEntityCache() {
+        this.checkNotServiceView();
+        this.entityCache = null;
+    }
+
+    /*
+     * @return  The entity cache, with its hit and miss statistics, or null if the cache is disabled
+     */
+    public EntityCache getEntityCache() {
+        // Cache keys include the service context, so entities of different services never collide
+        return root != null ? root.getEntityCache() : entityCache;
+    }
+
+    /*
+     * Auxiliary method to remove entities changed through this client from the cache
+     *
+     * @param entityIds  The ids of the changed entities
+     */
+    private void invalidateCachedEntities(Collection<String> entityIds) {
+        EntityCache cache = this.getEntityCache();
+        if (cache != null) {
+            cache.invalidate(this.getFiwareService(), this.getFiwareServicePath(), entityIds);
+        }
+    }
+
+    /*
+     * Auxiliary method to store the result of an entity query on the cache, if it was successful
+     *
+     * @param cache           The cache taken before the query, or null if the cache was disabled
+     * @param readGeneration  The generation of the cache taken before the query
+     * @param entityId        The id of the queried entity
+     * @param entityType      The type of the queried entity
+     * @param result          The result of the query
+     */
+    private void cacheEntity(EntityCache cache, long readGeneration, String entityId, String entityType, String result) {
+        if (cache != null && new JSONObject(result).optInt("status_code") == 200) {
+            cache.put(this.getFiwareService(), this.getFiwareServicePath(), entityType, entityId, result, readGeneration);
+        }
     }
 
     /*
@@ -68,17 +202,65 @@ public class FiwareContextClient extends SimpleClient {
      * @return              Information of the registered entity
      */
     public String createEntity(String entitySchema, String entityId) {
+        return this.createEntity(JsonTemplate.compile(entitySchema), entityId);
+    }
+
+    /*
+     * Creates a new NGSI entity from a compiled entity template in the currently selected service
+     *
+     * @param entityTemplate  The compiled entity schema
+     * @param entityId        The id to the entity to be created
+     * @return                Information of the registered entity
+     */
+    public String createEntity(JsonTemplate entityTemplate, String entityId) {
         String url = String.format("http://%s:%s/v2/entities", this.getCbHost(), this.getCbPort());
 
-        Map<String, String> additionalHeaders = new HashMap<>();
-        additionalHeaders.put("Content-Type", "application/json");
+        String result = this.sendRequest(url, createEntityPayload(entityTemplate, entityId), SimpleClient.POST, jsonContentHeaders());
+        this.invalidateCachedEntities(Collections.singleton(entityId));
 
-        //Tests if file content is a valid JSON (or throws JSONException)
-        new JSONObject(entitySchema);
+        return result;
+    }
 
-        String entitySchemaReplaced = entitySchema.replace("[ENTITY_ID]", entityId);
+    /*
+     * Asynchronous counterpart of createEntity
+     *
+     * @param entitySchema  JSON string representing entity schema
+     * @param entityId      The id to the entity to be created
+     * @return              A future completed with the information of the registered entity
+     */
+    public CompletableFuture<String> createEntityAsync(String entitySchema, String entityId) {
+        return this.createEntityAsync(JsonTemplate.compile(entitySchema), entityId);
+    }
 
-        return this.sendRequest(url, entitySchemaReplaced, SimpleClient.POST, additionalHeaders);
+    /*
+     * Asynchronous counterpart of createEntity from a compiled entity template
+     *
+     * @param entityTemplate  The compiled entity schema
+     * @param entityId        The id to the entity to be created
+     * @return                A future completed with the information of the registered entity
+     */
+    public CompletableFuture<String> createEntityAsync(JsonTemplate entityTemplate, String entityId) {
+        String url = String.format("http://%s:%s/v2/entities", this.getCbHost(), this.getCbPort());
+
+        return this.sendRequestAsync(url, createEntityPayload(entityTemplate, entityId), SimpleClient.POST, jsonContentHeaders())
+                .whenComplete((result, error) -> this.invalidateCachedEntities(Collections.singleton(entityId)));
+    }
+
+    /*
+     * Auxiliary method to create the payload of an entity creation from its template
+     *
+     * @param entityTemplate  The compiled entity schema
+     * @param entityId        The id to the entity to be created
+     * @return                The entity schema with the entity id replaced
+     */
+    private static String createEntityPayload(JsonTemplate entityTemplate, String entityId) {
+        return entityTemplate.render("ENTITY_ID", entityId);
+    }
+
+    private static Map<String, String> jsonContentHeaders() {
+        Map<String, String> additionalHeaders = new HashMap<>();
+        additionalHeaders.put("Content-Type", "application/json");
+        return additionalHeaders;
     }
 
     /*
@@ -91,13 +273,8 @@ public class FiwareContextClient extends SimpleClient {
     public String createEntityFromFile(String entityFilePath, String entityId) throws IOException {
         // logging.info("Opening file '{}'".format(entity_file_path))
 
-        byte[] jsonEntityFileBytes = Files.readAllBytes(Paths.get(entityFilePath));
-        String entitySchemaJsonStr = new String(jsonEntityFileBytes, Charset.defaultCharset());
-
-        //Tests if file content is a valid JSON (or throws JSONException)
-        new JSONObject(entitySchemaJsonStr);
-
-        return this.createEntity(entitySchemaJsonStr, entityId);
+        // The file is read and validated only when it changes
+        return this.createEntity(JsonTemplate.fromFile(entityFilePath), entityId);
     }
 
     /*
@@ -107,8 +284,129 @@ public class FiwareContextClient extends SimpleClient {
      * @param entitySchema  JSON string representing new entity schema
      * @return              Information of the updated entity
      */
-    public void updateEntity(String entityId, String entitySchema) {
-        //TODO Implement
+    public String updateEntity(String entityId, String entitySchema) {
+        String url = String.format("http://%s:%s/v2/entities/%s/attrs", this.getCbHost(), this.getCbPort(), entityId);
+
+        // Attributes are appended or updated, id and type can not be changed
+        JSONObject attributes = new JSONObject(entitySchema);
+        attributes.remove("id");
+        attributes.remove("type");
+
+        String result = this.sendRequest(url, attributes.toString(), SimpleClient.POST, jsonContentHeaders());
+        this.invalidateCachedEntities(Collections.singleton(entityId));
+
+        return result;
+    }
+
+    /*
+     * Creates, updates or removes many entities at once using NGSI v2 batch operations.
+     * Entities are sent in chunks to /v2/op/update, with at most the given number of chunks being sent at the same time.
+     *
+     * @param entities     JSON strings representing the entities
+     * @param actionType   The batch action, one of 'append', 'appendStrict', 'update', 'delete' and 'replace'
+     * @param batchSize    The maximum number of entities sent on each request
+     * @param parallelism  The maximum number of requests executing at the same time
+     * @return             The result of each chunk, in order, with its status code, response and number of entities
+     */
+    public List<String> batchUpdate(List<String> entities, String actionType, int batchSize, int parallelism) {
+        return this.batchUpdateAsync(entities, actionType, batchSize, parallelism).join();
+    }
+
+    /*
+     * Asynchronous counterpart of batchUpdate
+     *
+     * @param entities     JSON strings representing the entities
+     * @param actionType   The batch action, one of 'append', 'appendStrict', 'update', 'delete' and 'replace'
+     * @param batchSize    The maximum number of entities sent on each request
+     * @param parallelism  The maximum number of requests executing at the same time
+     * @return             A future completed with the result of each chunk, in order
+     */
+    public CompletableFuture<List<String>> batchUpdateAsync(List<String> entities, String actionType, int batchSize, int parallelism) {
+        if (!BATCH_ACTIONS.contains(actionType)) {
+            throw new IllegalArgumentException(String.format("Unknown batch action '%s'", actionType));
+        }
+
+        String url = String.format("http://%s:%s/v2/op/update", this.getCbHost(), this.getCbPort());
+
+        List<Supplier<CompletableFuture<String>>> tasks = new ArrayList<>();
+        for (List<String> chunk : ParallelRunner.chunk(entities, batchSize)) {
+            String payload = createBatchUpdatePayload(chunk, actionType);
+            tasks.add(() -> this.executeAsync(url, payload, SimpleClient.POST, jsonContentHeaders())
+                    .handle((response, error) -> {
+                        JSONObject resultJSON = new JSONObject();
+                        resultJSON.put("entities", chunk.size());
+                        if (error != null) {
+                            resultJSON.put("error", error.getMessage());
+                        } else {
+                            resultJSON.put("status_code", response.getStatusCode());
+                            resultJSON.put("response", response.getBodyAsString());
+                        }
+                        return resultJSON.toString();
+                    }));
+        }
+
+        return ParallelRunner.runBounded(tasks, parallelism).whenComplete((results, error) -> {
+            if (this.getEntityCache() != null) {
+                Set<String> entityIds = new HashSet<>();
+                entities.forEach(entity -> entityIds.add(new JSONObject(entity).optString("id")));
+                this.invalidateCachedEntities(entityIds);
+            }
+        });
+    }
+
+    /*
+     * Creates many entities from a single schema, replacing its entity id for each one of the given ids
+     *
+     * @param entitySchema  JSON string representing entity schema
+     * @param entityIds     The ids of the entities to be created
+     * @param batchSize     The maximum number of entities sent on each request
+     * @param parallelism   The maximum number of requests executing at the same time
+     * @return              The result of each chunk, in order
+     */
+    public List<String> createEntities(String entitySchema, List<String> entityIds, int batchSize, int parallelism) {
+        return this.createEntities(JsonTemplate.compile(entitySchema), entityIds, batchSize, parallelism);
+    }
+
+    /*
+     * Creates many entities from a compiled entity template, rendering it for each one of the given ids
+     *
+     * @param entityTemplate  The compiled entity schema
+     * @param entityIds       The ids of the entities to be created
+     * @param batchSize       The maximum number of entities sent on each request
+     * @param parallelism     The maximum number of requests executing at the same time
+     * @return                The result of each chunk, in order
+     */
+    public List<String> createEntities(JsonTemplate entityTemplate, List<String> entityIds, int batchSize, int parallelism) {
+        List<String> entities = new ArrayList<>(entityIds.size());
+        entityIds.forEach(id -> entities.add(createEntityPayload(entityTemplate, id)));
+
+        return this.batchUpdate(entities, BATCH_APPEND, batchSize, parallelism);
+    }
+
+    /*
+     * Auxiliary method to create the payload of a batch update from already serialized entities
+     *
+     * @param entities    JSON strings representing the entities
+     * @param actionType  The batch action
+     * @return            The batch update payload
+     */
+    private static String createBatchUpdatePayload(List<String> entities, String actionType) {
+        int size = 64;
+        for (String entity : entities) {
+            size += entity.length() + 1;
+        }
+
+        StringBuilder payload = new StringBuilder(size);
+        payload.append("{\"actionType\": \"").append(actionType).append("\", \"entities\": [");
+        for (int i = 0; i < entities.size(); i++) {
+            if (i > 0) {
+                payload.append(',');
+            }
+            payload.append(entities.get(i));
+        }
+        payload.append("]}");
+
+        return payload.toString();
     }
 
     /*
@@ -124,7 +422,25 @@ public class FiwareContextClient extends SimpleClient {
         String url = String.format("http://%s:%s/v2/entities/%s?type=%s", this.getCbHost(), this.getCbPort(), entityId, entityType);
         String payload = "";
 
-        return this.sendRequest(url, payload, SimpleClient.DELETE);
+        String result = this.sendRequest(url, payload, SimpleClient.DELETE);
+        this.invalidateCachedEntities(Collections.singleton(entityId));
+
+        return result;
+    }
+
+    /*
+     * Asynchronous counterpart of removeEntity
+     *
+     * @param entityId    The id to the entity to be removed
+     * @param entityType  The type of the entity to be removed
+     * @return            A future completed with the information of the removed entity
+     */
+    public CompletableFuture<String> removeEntityAsync(String entityId, String entityType) {
+        String url = String.format("http://%s:%s/v2/entities/%s?type=%s", this.getCbHost(), this.getCbPort(), entityId, entityType);
+        String payload = "";
+
+        return this.sendRequestAsync(url, payload, SimpleClient.DELETE)
+                .whenComplete((result, error) -> this.invalidateCachedEntities(Collections.singleton(entityId)));
     }
 
     /*
@@ -137,10 +453,52 @@ public class FiwareContextClient extends SimpleClient {
     public String getEntityById(String entityId, String entityType) {
 //        logging.info("Getting entity by id '{}'".format(entity_id))
 
+        EntityCache cache = this.getEntityCache();
+        long readGeneration = cache != null ? cache.getGeneration() : 0;
+        String cached = this.getCachedEntity(cache, entityId, entityType);
+        if (cached != null) {
+            return cached;
+        }
+
         String url = String.format("http://%s:%s/v2/entities/%s?type=%s", this.getCbHost(), this.getCbPort(), entityId, entityType);
         String payload = "";
 
-        return this.sendRequest(url, payload, SimpleClient.GET);
+        String result = this.sendRequest(url, payload, SimpleClient.GET);
+        this.cacheEntity(cache, readGeneration, entityId, entityType, result);
+
+        return result;
+    }
+
+    /*
+     * Asynchronous counterpart of getEntityById
+     *
+     * @param entityId    The id of the entity to be searched
+     * @param entityType  The type of the entity to be searched
+     * @return            A future completed with the information of the entity found with the given id
+     */
+    public CompletableFuture<String> getEntityByIdAsync(String entityId, String entityType) {
+        EntityCache cache = this.getEntityCache();
+        long readGeneration = cache != null ? cache.getGeneration() : 0;
+        String cached = this.getCachedEntity(cache, entityId, entityType);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+
+        String url = String.format("http://%s:%s/v2/entities/%s?type=%s", this.getCbHost(), this.getCbPort(), entityId, entityType);
+        String payload = "";
+
+        return this.sendRequestAsync(url, payload, SimpleClient.GET)
+                .thenApply(result -> {
+                    this.cacheEntity(cache, readGeneration, entityId, entityType, result);
+                    return result;
+                });
+    }
+
+    private String getCachedEntity(EntityCache cache, String entityId, String entityType) {
+        if (cache == null) {
+            return null;
+        }
+        return cache.get(this.getFiwareService(), this.getFiwareServicePath(), entityType, entityId);
     }
 
     /*
@@ -158,6 +516,32 @@ public class FiwareContextClient extends SimpleClient {
         return this.sendRequest(url, payload, SimpleClient.GET);
     }
 
+    /*
+     * Get entities created with a given entity type, parsing the response while it is received
+     *
+     * @param entityType  The type of the entities to be searched
+     * @return            The entities found with the given type
+     * @throws FiwareRequestException if the context broker answers with an error
+     */
+    public JSONArray getEntitiesByTypeAsJSON(String entityType) throws IOException {
+        String url = String.format("http://%s:%s/v2/entities?type=%s", getCbHost(), getCbPort(), entityType);
+
+        return (JSONArray) this.getJSON(url, new HashMap<>());
+    }
+
+    /*
+     * Asynchronous counterpart of getEntitiesByType
+     *
+     * @param entityType  The type of the entities to be searched
+     * @return            A future completed with the information of the entities found with the given type
+     */
+    public CompletableFuture<String> getEntitiesByTypeAsync(String entityType) {
+        String url = String.format("http://%s:%s/v2/entities?type=%s", getCbHost(), getCbPort(), entityType);
+        String payload = "";
+
+        return this.sendRequestAsync(url, payload, SimpleClient.GET);
+    }
+
     /*
      * Get all created entities
      *
@@ -172,6 +556,181 @@ public class FiwareContextClient extends SimpleClient {
         return this.sendRequest(url, payload, SimpleClient.GET);
     }
 
+    /*
+     * Get all created entities, parsing the response while it is received
+     *
+     * @return  The information of all the created entities
+     * @throws FiwareRequestException if the context broker answers with an error
+     */
+    public JSONArray getEntitiesAsJSON() throws IOException {
+        String url = String.format("http://%s:%s/v2/entities", getCbHost(), getCbPort());
+
+        return (JSONArray) this.getJSON(url, new HashMap<>());
+    }
+
+    /*
+     * Iterates over all created entities, loading them lazily page by page
+     *
+     * @param pageSize  The number of entities requested on each page (1 to 1000)
+     * @param prefetch  If the next page is to be requested in background while the current one is consumed
+     * @return          An iterator over the entities
+     */
+    public EntityPager iterateEntities(int pageSize, boolean prefetch) {
+        String url = String.format("http://%s:%s/v2/entities", getCbHost(), getCbPort());
+        return new EntityPager(this, url, pageSize, prefetch);
+    }
+
+    /*
+     * Iterates over the entities of a given type, loading them lazily page by page
+     *
+     * @param entityType  The type of the entities to be searched
+     * @param pageSize    The number of entities requested on each page (1 to 1000)
+     * @param prefetch    If the next page is to be requested in background while the current one is consumed
+     * @return            An iterator over the entities
+     */
+    public EntityPager iterateEntitiesByType(String entityType, int pageSize, boolean prefetch) {
+        String url = String.format("http://%s:%s/v2/entities?type=%s", getCbHost(), getCbPort(), entityType);
+        return new EntityPager(this, url, pageSize, prefetch);
+    }
+
+    /*
+     * Streams all created entities, loading them lazily page by page with background prefetch of the next page
+     *
+     * @param pageSize  The number of entities requested on each page (1 to 1000)
+     * @return          A sequential stream of the entities
+     */
+    public Stream<JSONObject> streamEntities(int pageSize) {
+        return toStream(this.iterateEntities(pageSize, true));
+    }
+
+    /*
+     * Streams the entities of a given type, loading them lazily page by page with background prefetch of the next page
+     *
+     * @param entityType  The type of the entities to be searched
+     * @param pageSize    The number of entities requested on each page (1 to 1000)
+     * @return            A sequential stream of the entities
+     */
+    public Stream<JSONObject> streamEntitiesByType(String entityType, int pageSize) {
+        return toStream(this.iterateEntitiesByType(entityType, pageSize, true));
+    }
+
+    private static Stream<JSONObject> toStream(Iterator<JSONObject> iterator) {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    /*
+     * Asynchronous counterpart of getEntities
+     *
+     * @return  A future completed with the information of all the created entities
+     */
+    public CompletableFuture<String> getEntitiesAsync() {
+        String url = String.format("http://%s:%s/v2/entities", getCbHost(), getCbPort());
+        String payload = "";
+
+        return this.sendRequestAsync(url, payload, SimpleClient.GET);
+    }
+
+    /*
+     * Reads many entities at once using NGSI v2 batch queries.
+     * Selectors are sent in chunks to /v2/op/query, with at most the given number of chunks being queried at the same time.
+     * Chunks matching more entities than fit on a response, such as id patterns, are read page by page.
+     *
+     * @param selectors    The ids or id patterns of the entities to be read
+     * @param attributes   The attributes to be returned for each entity, or null or empty to return all of them
+     * @param keyValues    If attributes are to be returned as plain values, without types and metadata
+     * @param batchSize    The maximum number of selectors sent on each request
+     * @param parallelism  The maximum number of requests executing at the same time
+     * @return             The entities found, in the order of the chunks of their selectors
+     * @throws FiwareRequestException if the context broker answers any chunk with an error
+     */
+    public JSONArray batchQuery(List<EntitySelector> selectors, List<String> attributes, boolean keyValues, int batchSize,
+                                int parallelism) throws IOException {
+        try {
+            return this.batchQueryAsync(selectors, attributes, keyValues, batchSize, parallelism).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for batch query");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        }
+    }
+
+    /*
+     * Asynchronous counterpart of batchQuery
+     *
+     * @param selectors    The ids or id patterns of the entities to be read
+     * @param attributes   The attributes to be returned for each entity, or null or empty to return all of them
+     * @param keyValues    If attributes are to be returned as plain values, without types and metadata
+     * @param batchSize    The maximum number of selectors sent on each request
+     * @param parallelism  The maximum number of requests executing at the same time
+     * @return             A future completed with the entities found, in the order of the chunks of their selectors
+     */
+    public CompletableFuture<JSONArray> batchQueryAsync(List<EntitySelector> selectors, List<String> attributes, boolean keyValues,
+                                                        int batchSize, int parallelism) {
+        String url = String.format("http://%s:%s/v2/op/query?limit=%d%s", this.getCbHost(), this.getCbPort(),
+                                   EntityPager.MAX_PAGE_SIZE, keyValues ? "&options=keyValues" : "");
+
+        List<Supplier<CompletableFuture<JSONArray>>> tasks = new ArrayList<>();
+        for (List<EntitySelector> chunk : ParallelRunner.chunk(selectors, batchSize)) {
+            String payload = createBatchQueryPayload(chunk, attributes);
+            tasks.add(() -> this.batchQueryPages(url, payload, 0, new JSONArray()));
+        }
+
+        return ParallelRunner.runBounded(tasks, parallelism).thenApply(results -> {
+            JSONArray entities = new JSONArray();
+            results.forEach(result -> result.forEach(entities::put));
+            return entities;
+        });
+    }
+
+    /*
+     * Auxiliary method to read the pages of a batch query chunk, starting on a given offset
+     *
+     * @param url       The url of the query, with the page size
+     * @param payload   The body of the query
+     * @param offset    The offset of the first page to be read
+     * @param entities  The entities of the pages read before
+     * @return          A future completed with the entities of all pages
+     */
+    private CompletableFuture<JSONArray> batchQueryPages(String url, String payload, int offset, JSONArray entities) {
+        // A query only reads entities, so it is retried as a GET although it is sent as POST
+        return this.executeAsync(String.format("%s&offset=%d", url, offset), payload, SimpleClient.POST, jsonContentHeaders(), true)
+                .thenCompose(response -> {
+                    if (!response.isSuccess()) {
+                        CompletableFuture<JSONArray> failed = new CompletableFuture<>();
+                        failed.completeExceptionally(new FiwareRequestException(response.getStatusCode(), response.getBodyAsString()));
+                        return failed;
+                    }
+
+                    JSONArray page = response.getBodyAsJSONArray();
+                    page.forEach(entities::put);
+                    if (page.length() < EntityPager.MAX_PAGE_SIZE) {
+                        return CompletableFuture.completedFuture(entities);
+                    }
+                    return this.batchQueryPages(url, payload, offset + page.length(), entities);
+                });
+    }
+
+    /*
+     * Auxiliary method to create the body of a batch query
+     *
+     * @param selectors   The ids or id patterns of the entities to be read
+     * @param attributes  The attributes to be returned for each entity, or null or empty to return all of them
+     * @return            The body of the query, e.g. {"entities": [{"id": "ROOM_1", "type": "Room"}], "attrs": ["temperature"]}
+     */
+    private static String createBatchQueryPayload(List<EntitySelector> selectors, List<String> attributes) {
+        JSONArray entities = new JSONArray();
+        selectors.forEach(selector -> entities.put(selector.toJSON()));
+
+        JSONObject payload = new JSONObject();
+        payload.put("entities", entities);
+        if (attributes != null && !attributes.isEmpty()) {
+            payload.put("attrs", new JSONArray(attributes));
+        }
+        return payload.toString();
+    }
+
     /*
      * Create a new subscription on given attributes of the device with the specified id
      * 
@@ -189,6 +748,20 @@ public class FiwareContextClient extends SimpleClient {
         additionalHeaders.put("Accept", "application/json");
         additionalHeaders.put("Content-Type", "application/json");
 
+        String payload = createSubscriptionPayload(deviceId, attributes, notificationUrl);
+
+        return this.sendRequest(url, payload, SimpleClient.POST, additionalHeaders);
+    }
+
+    /*
+     * Auxiliary method to create the NGSI payload of a subscription on changes of attributes of a device
+     *
+     * @param deviceId         The id of the device to be monitored
+     * @param attributes       The list of attributes do be monitored
+     * @param notificationUrl  The URL to which the notification will be sent on changes
+     * @return                 The NGSI payload of the subscription
+     */
+    protected static String createSubscriptionPayload(String deviceId, List<String> attributes, String notificationUrl) {
         String attributesStr = attributes.stream()
                 .map(s -> "\"" + s + "\"")
                 .collect(Collectors.joining(","));
@@ -215,7 +788,7 @@ public class FiwareContextClient extends SimpleClient {
                                 "\"throttling\": \"PT1S\"" +
                             "}", deviceId, attributesStr, attributesStr, notificationUrl);
 
-        return this.sendRequest(url, payload, SimpleClient.POST, additionalHeaders);
+        return payload;
     }
 
     /*
@@ -330,15 +903,51 @@ public class FiwareContextClient extends SimpleClient {
 
         String url = String.format("http://%s:%s/STH/v1/contextEntities/type/%s/id/%s/attributes/%s?lastN=%s",
                         sthHost, sthPort, entityType, entityId, attribute, itemsNumber);
+        String payload = "";
+
+        return this.sendRequest(url, payload, SimpleClient.GET, this.historicalDataHeaders());
+    }
+
+    /*
+     * Asynchronous counterpart of getHistoricalData
+     *
+     * @param entityType   The type of the entity to get historical data
+     * @param entityId     The id of the entity to get historical data
+     * @param attribute    The attribute of the entity to get historical data
+     * @param itemsNumber  The number of last entries to be queried
+     * @return             A future completed with the historical data on the specified attribute of the given entity
+     */
+    public CompletableFuture<String> getHistoricalDataAsync(String entityType, String entityId, String attribute, int itemsNumber) {
+        String url = String.format("http://%s:%s/STH/v1/contextEntities/type/%s/id/%s/attributes/%s?lastN=%s",
+                        sthHost, sthPort, entityType, entityId, attribute, itemsNumber);
+        String payload = "";
 
+        return this.sendRequestAsync(url, payload, SimpleClient.GET, this.historicalDataHeaders());
+    }
+
+    /*
+     * Creates an exporter that reads the raw history of many attributes from STH-Comet in parallel, page by page
+     *
+     * @param pageSize      The number of points requested on each page (hLimit). STH-Comet limits it to 100 by default
+     * @param parallelism   The maximum number of pages requested at the same time
+     * @param windowMillis  The length of the time windows in which each series is split, or 0 to query it at once
+     * @return              The exporter
+     */
+    public HistoricalExporter createHistoricalExporter(int pageSize, int parallelism, long windowMillis) {
+        return new HistoricalExporter(this, pageSize, parallelism, windowMillis);
+    }
+
+    /*
+     * Auxiliary method to create the headers of STH queries, which expect lower case service names
+     *
+     * @return  The headers to be used on STH queries
+     */
+    Map<String, String> historicalDataHeaders() {
         Map<String, String> additionalHeaders = new HashMap<>();
         additionalHeaders.put("Accept", "application/json");
         additionalHeaders.put("Fiware-Service", getFiwareService().toLowerCase());
         additionalHeaders.put("Fiware-ServicePath", getFiwareServicePath().toLowerCase());
-
-        String payload = "";
-
-        return this.sendRequest(url, payload, SimpleClient.GET, additionalHeaders);
+        return additionalHeaders;
     }
 
     /*
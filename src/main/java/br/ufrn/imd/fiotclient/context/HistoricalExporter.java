@@ -0,0 +1,407 @@
+package br.ufrn.imd.fiotclient.context;
+
+import br.ufrn.imd.fiotclient.FiwareRequestException;
+import br.ufrn.imd.fiotclient.FiwareResponse;
+import br.ufrn.imd.fiotclient.SimpleClient;
+import br.ufrn.imd.fiotclient.logging.Log;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/*
+ * Exports the raw history of many attributes from STH-Comet to a compact text format, without keeping it in memory.
+ *
+ * The time range of each series is split in windows, queried with dateFrom/dateTo, and each window is read page by
+ * page with hLimit/hOffset. Windows of all series are read in parallel by a bounded number of threads, and each page
+ * is written as soon as it arrives, so at most one page per thread is held in memory.
+ *
+ * The format is CSV, starting with the line "#fiot-sth-export v1". A series is declared once, before its first point:
+ *   S,SERIES_INDEX,ENTITY_TYPE,ENTITY_ID,ATTRIBUTE
+ * and each point is written as:
+ *   SERIES_INDEX,TIMESTAMP_DELTA,VALUE
+ * where the delta is the difference, in milliseconds, from the previous point of the same series (from 0 for the
+ * first one). Pages of different series are interleaved, and windows of the same series may be written out of order,
+ * so deltas can be negative. Fields with commas, quotes or line breaks are quoted. Use read to decode an export.
+ *
+ * Usage:
+ *   HistoricalExporter exporter = contextClient.createHistoricalExporter(100, 8, TimeUnit.DAYS.toMillis(1));
+ *   try (Writer output = new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream("history.csv.gz")), UTF_8)) {
+ *       exporter.export(series, Instant.parse("2018-01-01T00:00:00Z"), Instant.parse("2018-02-01T00:00:00Z"), output);
+ *   }
+ */
+public class HistoricalExporter {
+
+    private static final Log LOG = Log.getLog(HistoricalExporter.class);
+
+    public static final String FORMAT_HEADER = "#fiot-sth-export v1";
+    public static final int DEFAULT_PAGE_SIZE = 100;
+
+    private final FiwareContextClient client;
+    private final int pageSize;
+    private final int parallelism;
+    private final long windowMillis;
+
+    /*
+     * @param client        The client used to query STH-Comet
+     * @param pageSize      The number of points requested on each page (hLimit)
+     * @param parallelism   The maximum number of pages requested at the same time
+     * @param windowMillis  The length of the time windows in which each series is split, or 0 to query it at once
+     */
+    HistoricalExporter(FiwareContextClient client, int pageSize, int parallelism, long windowMillis) {
+        if (pageSize < 1 || parallelism < 1) {
+            throw new IllegalArgumentException("Page size and parallelism must be positive");
+        }
+
+        this.client = client;
+        this.pageSize = pageSize;
+        this.parallelism = parallelism;
+        this.windowMillis = Math.max(0, windowMillis);
+    }
+
+    /*
+     * Exports the history of many series. A window that cannot be read is reported on the summary and does not stop
+     * the others; the points of its pages read before the failure are kept. A failure writing the output stops the export.
+     *
+     * @param series    The series to be exported
+     * @param dateFrom  The start of the time range, inclusive, or null to start at the oldest point
+     * @param dateTo    The end of the time range, exclusive, or null to end at the newest point.
+     *                  Windows are only used when both ends are given
+     * @param output    The destination of the export, which is flushed but not closed
+     * @return          The summary of the export, with the number of series, windows, pages and points and the failures
+     */
+    public String export(List<HistoricalSeries> series, Instant dateFrom, Instant dateTo, Writer output) throws IOException {
+        List<Instant[]> windows = this.splitWindows(dateFrom, dateTo);
+        Export export = new Export(output, series.size());
+
+        output.write(FORMAT_HEADER);
+        output.write('\n');
+
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(this.parallelism, Math.max(1, series.size() * windows.size())), r -> {
+            Thread thread = new Thread(r, "fiot-sth-export-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        List<Future<?>> tasks = new ArrayList<>();
+        JSONArray failures = new JSONArray();
+        try {
+            for (int i = 0; i < series.size(); i++) {
+                int index = i;
+                for (Instant[] window : windows) {
+                    tasks.add(executor.submit(() -> {
+                        try {
+                            this.exportWindow(export, index, series.get(index), window[0], window[1]);
+                        } catch (IOException | RuntimeException e) {
+                            LOG.debug(() -> String.format("Could not export %s: %s", series.get(index), e));
+                            synchronized (failures) {
+                                failures.put(new JSONObject()
+                                        .put("series", series.get(index).toString())
+                                        .put("date_from", window[0] != null ? window[0].toString() : JSONObject.NULL)
+                                        .put("error", String.valueOf(e.getMessage())));
+                            }
+                        }
+                    }));
+                }
+            }
+            for (Future<?> task : tasks) {
+                task.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while exporting historical data");
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        if (export.writeFailure.get() != null) {
+            throw export.writeFailure.get();
+        }
+        output.flush();
+
+        JSONObject summary = new JSONObject();
+        summary.put("series", series.size());
+        summary.put("windows", tasks.size());
+        summary.put("pages", export.pages.get());
+        summary.put("points", export.points.get());
+        summary.put("failures", failures);
+        return summary.toString();
+    }
+
+    /*
+     * Reads the pages of a series window until a page comes incomplete, writing each one as soon as it arrives
+     */
+    private void exportWindow(Export export, int index, HistoricalSeries series, Instant dateFrom, Instant dateTo) throws IOException {
+        int offset = 0;
+        while (export.writeFailure.get() == null) {
+            String url = this.pageUrl(series, dateFrom, dateTo, offset);
+            FiwareResponse response = this.client.execute(url, "", SimpleClient.GET, this.client.historicalDataHeaders());
+            if (!response.isSuccess()) {
+                throw new FiwareRequestException(response.getStatusCode(), response.getBodyAsString());
+            }
+
+            JSONArray values = pageValues(response.getBodyAsJSONObject());
+            if (values.length() > 0) {
+                export.writePage(index, series, values);
+            }
+            offset += values.length();
+
+            if (values.length() < this.pageSize) {
+                return;
+            }
+        }
+    }
+
+    private String pageUrl(HistoricalSeries series, Instant dateFrom, Instant dateTo, int offset) {
+        StringBuilder url = new StringBuilder(String.format(
+                "http://%s:%s/STH/v1/contextEntities/type/%s/id/%s/attributes/%s?hLimit=%d&hOffset=%d",
+                this.client.getSthHost(), this.client.getSthPort(), series.getEntityType(), series.getEntityId(),
+                series.getAttribute(), this.pageSize, offset));
+        if (dateFrom != null) {
+            url.append("&dateFrom=").append(dateFrom);
+        }
+        if (dateTo != null) {
+            // dateTo is inclusive on STH-Comet, so the last millisecond is left to the next window
+            url.append("&dateTo=").append(dateTo.minusMillis(1));
+        }
+        return url.toString();
+    }
+
+    /*
+     * @return  The windows covering the time range, as pairs of start and end instants
+     */
+    private List<Instant[]> splitWindows(Instant dateFrom, Instant dateTo) {
+        List<Instant[]> windows = new ArrayList<>();
+        if (dateFrom == null || dateTo == null || this.windowMillis == 0) {
+            windows.add(new Instant[]{dateFrom, dateTo});
+            return windows;
+        }
+
+        for (Instant start = dateFrom; start.isBefore(dateTo); start = start.plusMillis(this.windowMillis)) {
+            Instant end = start.plusMillis(this.windowMillis);
+            windows.add(new Instant[]{start, end.isAfter(dateTo) ? dateTo : end});
+        }
+        return windows;
+    }
+
+    /*
+     * @param body  The STH-Comet response, on format {"contextResponses": [{"contextElement": {"attributes": [{"values": [...]}]}}]}
+     * @return      The points of the page, each one with recvTime and attrValue
+     */
+    private static JSONArray pageValues(JSONObject body) {
+        JSONArray contextResponses = body.optJSONArray("contextResponses");
+        if (contextResponses == null || contextResponses.length() == 0) {
+            return new JSONArray();
+        }
+        JSONObject contextElement = contextResponses.getJSONObject(0).optJSONObject("contextElement");
+        JSONArray attributes = contextElement != null ? contextElement.optJSONArray("attributes") : null;
+        if (attributes == null || attributes.length() == 0) {
+            return new JSONArray();
+        }
+        JSONArray values = attributes.getJSONObject(0).optJSONArray("values");
+        return values != null ? values : new JSONArray();
+    }
+
+    /*
+     * Decodes an export, calling the listener with every point in the order they were written
+     *
+     * @param input     The export, as written by export
+     * @param listener  The listener of the points
+     * @throws IOException if the input is not an export
+     */
+    public static void read(Reader input, PointListener listener) throws IOException {
+        CsvReader reader = new CsvReader(input);
+        List<String> fields = reader.readRecord();
+        if (fields == null || fields.size() != 1 || !FORMAT_HEADER.equals(fields.get(0))) {
+            throw new IOException("Input is not a historical data export");
+        }
+
+        List<HistoricalSeries> series = new ArrayList<>();
+        List<Long> lastTimestamps = new ArrayList<>();
+        while ((fields = reader.readRecord()) != null) {
+            try {
+                if ("S".equals(fields.get(0))) {
+                    int index = Integer.parseInt(fields.get(1));
+                    while (series.size() <= index) {
+                        series.add(null);
+                        lastTimestamps.add(0L);
+                    }
+                    series.set(index, new HistoricalSeries(fields.get(2), fields.get(3), fields.get(4)));
+                } else {
+                    int index = Integer.parseInt(fields.get(0));
+                    long timestamp = lastTimestamps.get(index) + Long.parseLong(fields.get(1));
+                    lastTimestamps.set(index, timestamp);
+                    listener.onPoint(series.get(index), timestamp, fields.get(2));
+                }
+            } catch (RuntimeException e) {
+                throw new IOException(String.format("Invalid record %s", fields), e);
+            }
+        }
+    }
+
+    private static void appendField(StringBuilder line, String value) {
+        boolean quoted = value.indexOf(',') >= 0 || value.indexOf('"') >= 0 || value.indexOf('\n') >= 0 || value.indexOf('\r') >= 0;
+        if (!quoted) {
+            line.append(value);
+            return;
+        }
+        line.append('"').append(value.replace("\"", "\"\"")).append('"');
+    }
+
+    /*
+     * Receives the points decoded from an export
+     */
+    @FunctionalInterface
+    public interface PointListener {
+
+        /*
+         * @param series     The series of the point
+         * @param timestamp  The time the point was received by STH-Comet, in milliseconds since the epoch
+         * @param value      The value of the attribute
+         */
+        void onPoint(HistoricalSeries series, long timestamp, String value);
+
+    }
+
+    /*
+     * State of an export shared by its threads: the output, the last timestamp written of each series and the counters
+     */
+    private static final class Export {
+        private final Writer output;
+        private final long[] lastTimestamps;
+        private final boolean[] declared;
+        private final AtomicLong pages = new AtomicLong();
+        private final AtomicLong points = new AtomicLong();
+        private final AtomicReference<IOException> writeFailure = new AtomicReference<>();
+
+        private Export(Writer output, int seriesCount) {
+            this.output = output;
+            this.lastTimestamps = new long[seriesCount];
+            this.declared = new boolean[seriesCount];
+        }
+
+        private void writePage(int index, HistoricalSeries series, JSONArray values) {
+            long[] timestamps = new long[values.length()];
+            String[] attrValues = new String[values.length()];
+            for (int i = 0; i < values.length(); i++) {
+                JSONObject value = values.getJSONObject(i);
+                timestamps[i] = Instant.parse(value.getString("recvTime")).toEpochMilli();
+                Object attrValue = value.opt("attrValue");
+                attrValues[i] = attrValue == null || attrValue == JSONObject.NULL ? "" : attrValue.toString();
+            }
+
+            StringBuilder lines = new StringBuilder(values.length() * 32);
+            synchronized (this) {
+                if (!this.declared[index]) {
+                    lines.append("S,").append(index).append(',');
+                    appendField(lines, series.getEntityType());
+                    lines.append(',');
+                    appendField(lines, series.getEntityId());
+                    lines.append(',');
+                    appendField(lines, series.getAttribute());
+                    lines.append('\n');
+                    this.declared[index] = true;
+                }
+
+                long last = this.lastTimestamps[index];
+                for (int i = 0; i < timestamps.length; i++) {
+                    lines.append(index).append(',').append(timestamps[i] - last).append(',');
+                    appendField(lines, attrValues[i]);
+                    lines.append('\n');
+                    last = timestamps[i];
+                }
+                this.lastTimestamps[index] = last;
+
+                try {
+                    this.output.append(lines);
+                } catch (IOException e) {
+                    this.writeFailure.compareAndSet(null, e);
+                    return;
+                }
+            }
+            this.pages.incrementAndGet();
+            this.points.addAndGet(timestamps.length);
+        }
+    }
+
+    /*
+     * Reader of the records of an export, with fields optionally quoted as written by appendField
+     */
+    private static final class CsvReader {
+        private final Reader input;
+        private int next = -2;
+
+        private CsvReader(Reader input) {
+            this.input = input;
+        }
+
+        private int read() throws IOException {
+            if (this.next != -2) {
+                int c = this.next;
+                this.next = -2;
+                return c;
+            }
+            return this.input.read();
+        }
+
+        /*
+         * @return  The fields of the next record, or null at the end of the input
+         */
+        private List<String> readRecord() throws IOException {
+            int c = this.read();
+            if (c < 0) {
+                return null;
+            }
+
+            List<String> fields = new ArrayList<>();
+            StringBuilder field = new StringBuilder();
+            boolean quoted = false;
+            while (true) {
+                if (quoted) {
+                    if (c < 0) {
+                        throw new IOException("Unterminated quoted field");
+                    }
+                    if (c == '"') {
+                        int following = this.read();
+                        if (following == '"') {
+                            field.append('"');
+                        } else {
+                            quoted = false;
+                            this.next = following;
+                        }
+                    } else {
+                        field.append((char) c);
+                    }
+                } else if (c < 0 || c == '\n') {
+                    fields.add(field.toString());
+                    return fields;
+                } else if (c == ',') {
+                    fields.add(field.toString());
+                    field.setLength(0);
+                } else if (c == '"' && field.length() == 0) {
+                    quoted = true;
+                } else if (c != '\r') {
+                    field.append((char) c);
+                }
+                c = this.read();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,40 @@
+package br.ufrn.imd.fiotclient.context;
+
+/*
+ * Attribute of an entity whose history is kept by STH-Comet
+ */
+public class HistoricalSeries {
+
+    private final String entityType;
+    private final String entityId;
+    private final String attribute;
+
+    /*
+     * @param entityType  The type of the entity
+     * @param entityId    The id of the entity
+     * @param attribute   The attribute of the entity
+     */
+    public HistoricalSeries(String entityType, String entityId, String attribute) {
+        this.entityType = entityType;
+        this.entityId = entityId;
+        this.attribute = attribute;
+    }
+
+    public String getEntityType() {
+        return entityType;
+    }
+
+    public String getEntityId() {
+        return entityId;
+    }
+
+    public String getAttribute() {
+        return attribute;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s/%s/%s", this.entityType, this.entityId, this.attribute);
+    }
+
+}
@@ -0,0 +1,136 @@
+package br.ufrn.imd.fiotclient.context;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/*
+ * Notification sent by Orion to a subscription, decoded from NGSI v1 or NGSI v2.
+ * Entities are given in the normalized NGSI v2 representation whatever the format of the notification, e.g.
+ *   {"id": "ROOM_1", "type": "Room", "temperature": {"type": "Number", "value": 23, "metadata": {}}}
+ * Attributes of NGSI v2 notifications sent with attrsFormat keyValues are kept as plain values.
+ */
+public class Notification {
+
+    private final String subscriptionId;
+    private final int ngsiVersion;
+    private final List<JSONObject> entities;
+    private final String fiwareService;
+    private final String fiwareServicePath;
+    private final long receivedAt;
+
+    /*
+     * @param subscriptionId     The id of the subscription that caused the notification
+     * @param ngsiVersion        The NGSI version of the notification body (1 or 2)
+     * @param entities           The notified entities, in the NGSI v2 representation
+     * @param fiwareService      The value of the Fiware-Service header, or null if it was absent
+     * @param fiwareServicePath  The value of the Fiware-ServicePath header, or null if it was absent
+     * @param receivedAt         The time the notification was received, in milliseconds since the epoch
+     */
+    public Notification(String subscriptionId, int ngsiVersion, List<JSONObject> entities, String fiwareService,
+                        String fiwareServicePath, long receivedAt) {
+        this.subscriptionId = subscriptionId;
+        this.ngsiVersion = ngsiVersion;
+        this.entities = Collections.unmodifiableList(entities);
+        this.fiwareService = fiwareService;
+        this.fiwareServicePath = fiwareServicePath;
+        this.receivedAt = receivedAt;
+    }
+
+    /*
+     * Decodes the body of a notification
+     *
+     * @param body               The JSON body of the notification
+     * @param fiwareService      The value of the Fiware-Service header, or null if it was absent
+     * @param fiwareServicePath  The value of the Fiware-ServicePath header, or null if it was absent
+     * @param receivedAt         The time the notification was received, in milliseconds since the epoch
+     * @return                   The decoded notification
+     * @throws IllegalArgumentException if the body is neither an NGSI v1 nor an NGSI v2 notification
+     */
+    public static Notification parse(JSONObject body, String fiwareService, String fiwareServicePath, long receivedAt) {
+        String subscriptionId = body.optString("subscriptionId", null);
+
+        JSONArray data = body.optJSONArray("data");
+        if (data != null) {
+            List<JSONObject> entities = new ArrayList<>(data.length());
+            for (int i = 0; i < data.length(); i++) {
+                entities.add(data.getJSONObject(i));
+            }
+            return new Notification(subscriptionId, 2, entities, fiwareService, fiwareServicePath, receivedAt);
+        }
+
+        JSONArray contextResponses = body.optJSONArray("contextResponses");
+        if (contextResponses != null) {
+            List<JSONObject> entities = new ArrayList<>(contextResponses.length());
+            for (int i = 0; i < contextResponses.length(); i++) {
+                JSONObject contextElement = contextResponses.getJSONObject(i).optJSONObject("contextElement");
+                if (contextElement != null) {
+                    entities.add(fromContextElement(contextElement));
+                }
+            }
+            return new Notification(subscriptionId, 1, entities, fiwareService, fiwareServicePath, receivedAt);
+        }
+
+        throw new IllegalArgumentException("Body is neither an NGSI v1 nor an NGSI v2 notification");
+    }
+
+    /*
+     * Auxiliary method to convert an NGSI v1 context element to the NGSI v2 representation of the entity
+     *
+     * @param contextElement  The context element, with id, type and a list of attributes
+     * @return                The entity, with an object for each attribute
+     */
+    private static JSONObject fromContextElement(JSONObject contextElement) {
+        JSONObject entity = new JSONObject();
+        entity.put("id", contextElement.opt("id"));
+        entity.put("type", contextElement.opt("type"));
+
+        JSONArray attributes = contextElement.optJSONArray("attributes");
+        for (int i = 0; attributes != null && i < attributes.length(); i++) {
+            JSONObject attribute = attributes.getJSONObject(i);
+
+            JSONObject metadata = new JSONObject();
+            JSONArray metadatas = attribute.optJSONArray("metadatas");
+            for (int j = 0; metadatas != null && j < metadatas.length(); j++) {
+                JSONObject metadataItem = metadatas.getJSONObject(j);
+                metadata.put(metadataItem.getString("name"), new JSONObject()
+                        .put("type", metadataItem.opt("type"))
+                        .put("value", metadataItem.opt("value")));
+            }
+
+            entity.put(attribute.getString("name"), new JSONObject()
+                    .put("type", attribute.opt("type"))
+                    .put("value", attribute.opt("value"))
+                    .put("metadata", metadata));
+        }
+        return entity;
+    }
+
+    public String getSubscriptionId() {
+        return subscriptionId;
+    }
+
+    public int getNgsiVersion() {
+        return ngsiVersion;
+    }
+
+    public List<JSONObject> getEntities() {
+        return entities;
+    }
+
+    public String getFiwareService() {
+        return fiwareService;
+    }
+
+    public String getFiwareServicePath() {
+        return fiwareServicePath;
+    }
+
+    public long getReceivedAt() {
+        return receivedAt;
+    }
+
+}
@@ -0,0 +1,12 @@
+package br.ufrn.imd.fiotclient.context;
+
+/*
+ * Receives the notifications decoded by a NotificationReceiver. Listeners are called on the worker threads
+ * of the receiver, possibly concurrently, so they must be thread-safe.
+ */
+@FunctionalInterface
+public interface NotificationListener {
+
+    void onNotification(Notification notification);
+
+}
@@ -0,0 +1,371 @@
+package br.ufrn.imd.fiotclient.context;
+
+import br.ufrn.imd.fiotclient.logging.Log;
+import br.ufrn.imd.fiotclient.metrics.ClientMetrics;
+import br.ufrn.imd.fiotclient.utils.BoundedRingQueue;
+import br.ufrn.imd.fiotclient.utils.FiwareConfig;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Embedded HTTP endpoint that receives the notifications of Orion subscriptions and dispatches them to listeners.
+ *
+ * Connections are served by the non-blocking HTTP server of the JDK. Its I/O threads only read the body and hand it
+ * to a bounded lock-free queue, answering 200 at once; decoding and listeners run on a pool of worker threads.
+ * When the queue is full the notification is answered with 503, so bursts are shed instead of exhausting memory.
+ *
+ * Usage:
+ *   NotificationReceiver receiver = new NotificationReceiver(8666);
+ *   receiver.addListener(notification -> System.out.println(notification.getEntities()));
+ *   contextClient.subscribeAttributesChange("ROOM_1", attributes, receiver.getNotificationUrl("192.168.0.10"));
+ */
+public class NotificationReceiver implements Closeable {
+
+    private static final Log LOG = Log.getLog(NotificationReceiver.class);
+
+    public static final String DEFAULT_PATH = "/notify";
+    public static final int DEFAULT_WORKERS = Math.max(2, Runtime.getRuntime().availableProcessors());
+    public static final int DEFAULT_QUEUE_SIZE = 65536;
+    public static final int DEFAULT_IO_THREADS = 2;
+    public static final int DEFAULT_MAX_BODY_SIZE = 1024 * 1024;
+
+    private static final long CLOSE_TIMEOUT_SECONDS = 5;
+
+    private final String path;
+    private final int maxBodySize;
+    private final HttpServer server;
+    private final ExecutorService ioExecutor;
+    private final Thread[] workers;
+
+    private final BoundedRingQueue<ReceivedNotification> queue;
+    // One permit per queued notification, so idle workers park until there is work
+    private final Semaphore queuedPermits = new Semaphore(0);
+    private final List<NotificationListener> listeners = new CopyOnWriteArrayList<>();
+
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong dispatched = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    private volatile boolean running = true;
+
+    /*
+     * Starts a receiver on all interfaces, with the default path, workers and queue size
+     *
+     * @param port  The port to listen on, or 0 to use any free port
+     */
+    public NotificationReceiver(int port) throws IOException {
+        this(new InetSocketAddress(port), DEFAULT_PATH, DEFAULT_WORKERS, DEFAULT_QUEUE_SIZE);
+    }
+
+    /*
+     * Starts a receiver with the default I/O threads and maximum body size
+     *
+     * @param address    The address to listen on
+     * @param path       The path notifications are sent to, such as /notify
+     * @param workers    The number of threads decoding and dispatching notifications
+     * @param queueSize  The maximum number of notifications waiting for a worker
+     */
+    public NotificationReceiver(InetSocketAddress address, String path, int workers, int queueSize) throws IOException {
+        this(address, path, workers, queueSize, DEFAULT_IO_THREADS, DEFAULT_MAX_BODY_SIZE);
+    }
+
+    /*
+     * Starts a receiver
+     *
+     * @param address      The address to listen on
+     * @param path         The path notifications are sent to, such as /notify
+     * @param workers      The number of threads decoding and dispatching notifications
+     * @param queueSize    The maximum number of notifications waiting for a worker
+     * @param ioThreads    The number of threads reading request bodies
+     * @param maxBodySize  The largest notification body accepted, in bytes. Larger ones are answered with 413
+     */
+    public NotificationReceiver(InetSocketAddress address, String path, int workers, int queueSize, int ioThreads,
+                                int maxBodySize) throws IOException {
+        if (workers < 1 || ioThreads < 1) {
+            throw new IllegalArgumentException("Workers and I/O threads must be positive");
+        }
+
+        this.path = path.startsWith("/") ? path : "/" + path;
+        this.maxBodySize = maxBodySize;
+        this.queue = new BoundedRingQueue<>(queueSize);
+
+        AtomicInteger ioThreadCount = new AtomicInteger();
+        this.ioExecutor = Executors.newFixedThreadPool(ioThreads, r -> {
+            Thread thread = new Thread(r, "fiot-notification-io-" + ioThreadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        this.server = HttpServer.create(address, 1024);
+        this.server.setExecutor(this.ioExecutor);
+        this.server.createContext(this.path, this::receive);
+
+        this.workers = new Thread[workers];
+        for (int i = 0; i < workers; i++) {
+            this.workers[i] = new Thread(this::work, "fiot-notification-worker-" + (i + 1));
+            this.workers[i].setDaemon(true);
+            this.workers[i].start();
+        }
+        this.server.start();
+    }
+
+    /*
+     * Starts a receiver using the notifications section of a configuration
+     *
+     * @param config  The configuration, whose notification_host, notification_port, notification_path,
+     *                notification_workers and notification_queue_size attributes are used when present
+     * @return        The started receiver
+     */
+    public static NotificationReceiver fromConfig(FiwareConfig config) throws IOException {
+        String host = config.getNotificationHost();
+        int port = config.getNotificationPort();
+        InetSocketAddress address = host == null ? new InetSocketAddress(port) : new InetSocketAddress(host, port);
+
+        return new NotificationReceiver(address, config.getNotificationPath(), config.getNotificationWorkers(),
+                                        config.getNotificationQueueSize());
+    }
+
+    public void addListener(NotificationListener listener) {
+        this.listeners.add(listener);
+    }
+
+    public void removeListener(NotificationListener listener) {
+        this.listeners.remove(listener);
+    }
+
+    /*
+     * Handles a request on an I/O thread: reads the body and hands it to the workers
+     */
+    private void receive(HttpExchange exchange) throws IOException {
+        try {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            if (!this.path.equals(exchange.getRequestURI().getPath())) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+
+            byte[] body = this.readBody(exchange.getRequestBody());
+            if (body == null) {
+                exchange.sendResponseHeaders(413, -1);
+                return;
+            }
+            this.received.incrementAndGet();
+
+            ReceivedNotification notification = new ReceivedNotification(body,
+                    exchange.getRequestHeaders().getFirst("Fiware-Service"),
+                    exchange.getRequestHeaders().getFirst("Fiware-ServicePath"),
+                    System.currentTimeMillis());
+
+            if (this.running && this.queue.offer(notification)) {
+                this.queuedPermits.release();
+                exchange.sendResponseHeaders(200, -1);
+            } else {
+                this.rejected.incrementAndGet();
+                exchange.getResponseHeaders().add("Retry-After", "1");
+                exchange.sendResponseHeaders(503, -1);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /*
+     * @return  The body, or null if it is larger than the maximum body size
+     */
+    private byte[] readBody(InputStream input) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(1024);
+        byte[] buffer = new byte[8192];
+        try (InputStream in = input) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                if (body.size() + read > this.maxBodySize) {
+                    return null;
+                }
+                body.write(buffer, 0, read);
+            }
+        }
+        return body.toByteArray();
+    }
+
+    /*
+     * Loop of the worker threads, which ends once the receiver is closed and the queue is drained
+     */
+    private void work() {
+        while (true) {
+            try {
+                this.queuedPermits.acquire();
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            ReceivedNotification notification = this.queue.poll();
+            while (notification == null) {
+                // Only the wake up permits released on close have no notification behind them
+                if (!this.running && this.queue.isEmpty() || Thread.currentThread().isInterrupted()) {
+                    return;
+                }
+                // The permit belongs to a notification whose slot, or an earlier one, is claimed but not yet published
+                // by its producer, so the notification is about to be readable and dropping the permit would strand it
+                Thread.yield();
+                notification = this.queue.poll();
+            }
+            this.dispatch(notification);
+        }
+    }
+
+    private void dispatch(ReceivedNotification received) {
+        Notification notification;
+        try {
+            JSONObject body = new JSONObject(new JSONTokener(
+                    new InputStreamReader(new ByteArrayInputStream(received.body), StandardCharsets.UTF_8)));
+            notification = Notification.parse(body, received.fiwareService, received.fiwareServicePath, received.receivedAt);
+        } catch (RuntimeException e) {
+            this.failed.incrementAndGet();
+            LOG.warn(String.format("Could not decode notification: %s",
+                                   Log.truncate(new String(received.body, StandardCharsets.UTF_8))), e);
+            return;
+        }
+
+        for (NotificationListener listener : this.listeners) {
+            try {
+                listener.onNotification(notification);
+            } catch (RuntimeException e) {
+                this.failed.incrementAndGet();
+                LOG.warn("Notification listener failed", e);
+            }
+        }
+        this.dispatched.incrementAndGet();
+    }
+
+    /*
+     * @param host  The host name or address through which Orion reaches this receiver
+     * @return      The URL to be used as the notification URL of subscriptions
+     */
+    public String getNotificationUrl(String host) {
+        return String.format("http://%s:%d%s", host, this.getPort(), this.path);
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    /*
+     * @return  The number of notifications accepted or rejected
+     */
+    public long getReceivedCount() {
+        return received.get();
+    }
+
+    /*
+     * @return  The number of notifications answered with 503 because the queue was full
+     */
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    /*
+     * @return  The number of notifications decoded and passed to the listeners
+     */
+    public long getDispatchedCount() {
+        return dispatched.get();
+    }
+
+    /*
+     * @return  The number of notifications that could not be decoded plus the number of listener failures
+     */
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    /*
+     * @return  The number of notifications waiting for a worker
+     */
+    public int getQueued() {
+        return queue.size();
+    }
+
+    /*
+     * Registers the counters and the queue size of this receiver as gauges, named notifications.*
+     *
+     * @param metrics  The metrics in which the gauges are registered
+     */
+    public void bindMetrics(ClientMetrics metrics) {
+        metrics.registerGauge("notifications.received", this::getReceivedCount);
+        metrics.registerGauge("notifications.rejected", this::getRejectedCount);
+        metrics.registerGauge("notifications.dispatched", this::getDispatchedCount);
+        metrics.registerGauge("notifications.failed", this::getFailedCount);
+        metrics.registerGauge("notifications.queued", this::getQueued);
+    }
+
+    /*
+     * Stops receiving notifications. Notifications already queued are dispatched before the workers stop,
+     * for up to 5 seconds; the ones left after that are dropped.
+     */
+    @Override
+    public void close() {
+        this.running = false;
+        this.server.stop(0);
+        this.ioExecutor.shutdown();
+
+        try {
+            // Lets the requests being read finish queueing, then wakes each worker once the queue is drained
+            this.ioExecutor.awaitTermination(1, TimeUnit.SECONDS);
+            this.queuedPermits.release(this.workers.length);
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(CLOSE_TIMEOUT_SECONDS);
+            for (Thread worker : this.workers) {
+                long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remainingMillis <= 0) {
+                    break;
+                }
+                worker.join(remainingMillis);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Thread worker : this.workers) {
+            worker.interrupt();
+        }
+    }
+
+    private static final class ReceivedNotification {
+        private final byte[] body;
+        private final String fiwareService;
+        private final String fiwareServicePath;
+        private final long receivedAt;
+
+        private ReceivedNotification(byte[] body, String fiwareService, String fiwareServicePath, long receivedAt) {
+            this.body = body;
+            this.fiwareService = fiwareService;
+            this.fiwareServicePath = fiwareServicePath;
+            this.receivedAt = receivedAt;
+        }
+    }
+
+}
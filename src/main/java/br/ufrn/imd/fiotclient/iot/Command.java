@@ -0,0 +1,85 @@
+package br.ufrn.imd.fiotclient.iot;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/*
+ * Command sent by the IoT Agent to a device on the topic /APIKEY/DEVICE_ID/cmd, decoded from its UL payload, e.g.
+ *   DEVICE_1@ping|param1=1|param2=2
+ * Parameters are kept as given on the payload, without splitting names from values.
+ */
+public class Command {
+
+    private final String deviceId;
+    private final String deviceName;
+    private final String name;
+    private final List<String> params;
+    private final long receivedNanos;
+
+    /*
+     * @param deviceId       The id of the device on the topic in which the command was received
+     * @param deviceName     The device name on the payload, used on the acknowledgement
+     * @param name           The name of the command
+     * @param params         The command parameters
+     * @param receivedNanos  The value of System.nanoTime() when the command was received
+     */
+    public Command(String deviceId, String deviceName, String name, List<String> params, long receivedNanos) {
+        this.deviceId = deviceId;
+        this.deviceName = deviceName;
+        this.name = name;
+        this.params = Collections.unmodifiableList(params);
+        this.receivedNanos = receivedNanos;
+    }
+
+    /*
+     * Decodes the UL payload of a command
+     *
+     * @param deviceId       The id of the device on the topic in which the command was received
+     * @param payload        The UL payload, on format DEVICE_NAME@COMMAND|PARAM1|PARAM2...
+     * @param receivedNanos  The value of System.nanoTime() when the command was received
+     * @return               The decoded command
+     * @throws IllegalArgumentException if the payload has no device name or no command name
+     */
+    public static Command parse(String deviceId, String payload, long receivedNanos) {
+        String[] fields = payload.trim().split("\\|", -1);
+
+        int separator = fields[0].indexOf('@');
+        if (separator <= 0 || separator == fields[0].length() - 1) {
+            throw new IllegalArgumentException(String.format("Invalid UL command payload: %s", payload));
+        }
+
+        List<String> params = new ArrayList<>(Arrays.asList(fields).subList(1, fields.length));
+        return new Command(deviceId, fields[0].substring(0, separator), fields[0].substring(separator + 1), params, receivedNanos);
+    }
+
+    /*
+     * @param result  The result of the command
+     * @return        The UL payload acknowledging the command, on format DEVICE_NAME@COMMAND|RESULT
+     */
+    public String createResultPayload(String result) {
+        return String.format("%s@%s|%s", this.deviceName, this.name, result);
+    }
+
+    public String getDeviceId() {
+        return deviceId;
+    }
+
+    public String getDeviceName() {
+        return deviceName;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public List<String> getParams() {
+        return params;
+    }
+
+    public long getReceivedNanos() {
+        return receivedNanos;
+    }
+
+}
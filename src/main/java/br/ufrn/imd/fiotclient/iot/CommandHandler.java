@@ -0,0 +1,17 @@
+package br.ufrn.imd.fiotclient.iot;
+
+/*
+ * Executes the commands received by a CommandSubscriber. Handlers are called on the executor threads of the
+ * subscriber, one command at a time for each device, but concurrently for different devices.
+ */
+@FunctionalInterface
+public interface CommandHandler {
+
+    /*
+     * @param command  The command to be executed
+     * @return         The result published on the acknowledgement of the command, or null to publish OK
+     * @throws Exception if the command failed, in which case the acknowledgement carries the error message
+     */
+    String handle(Command command) throws Exception;
+
+}
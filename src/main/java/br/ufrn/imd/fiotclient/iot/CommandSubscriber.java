@@ -0,0 +1,317 @@
+package br.ufrn.imd.fiotclient.iot;
+
+import br.ufrn.imd.fiotclient.logging.Log;
+import br.ufrn.imd.fiotclient.metrics.ClientMetrics;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+
+import java.io.Closeable;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Receives the commands sent by the IoT Agent to devices through the MQTT broker, executes them on handlers and
+ * publishes their results on the topic /APIKEY/DEVICE_ID/cmdexe.
+ *
+ * All devices of the api key share the MQTT session of the client and a single subscription to /APIKEY/+/cmd,
+ * so a gateway serving thousands of devices holds one connection and one subscription. Commands are handed from
+ * the MQTT callback thread to a fixed number of lanes, each with a single thread and a bounded queue. The lane of
+ * a command depends on its device, so commands of a device run in the order they arrived, while commands of
+ * different devices run in parallel. Commands arriving on a full lane are dropped and left to expire on the IoT Agent.
+ * The session is taken from the client on every use, and the subscription follows it when the client replaces it.
+ *
+ * Usage:
+ *   CommandSubscriber commands = iotClient.createCommandSubscriber();
+ *   commands.register("DEVICE_1", command -> lamp.switchTo(command.getParams().get(0)));
+ */
+public class CommandSubscriber implements Closeable {
+
+    private static final Log LOG = Log.getLog(CommandSubscriber.class);
+
+    public static final int DEFAULT_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors());
+    public static final int DEFAULT_QUEUE_SIZE = 4096;
+
+    private static final long CLOSE_TIMEOUT_SECONDS = 5;
+
+    private final FiwareIotClient client;
+    private final String topicPrefix;
+    private final String topicFilter;
+    private final ThreadPoolExecutor[] lanes;
+
+    private final Map<String, CommandHandler> handlers = new ConcurrentHashMap<>();
+    private volatile CommandHandler defaultHandler;
+    // Set once a handler is registered, until the subscriber is closed
+    private volatile boolean active = false;
+    // The session holding the subscription, or null if there is none
+    private volatile MqttSession subscribedSession;
+
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong ignored = new AtomicLong();
+    private final AtomicLong executed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    /*
+     * @param client     The client whose MQTT session, api key and metrics are used
+     * @param threads    The number of lanes executing commands
+     * @param queueSize  The maximum number of commands waiting for execution, split among the lanes
+     */
+    public CommandSubscriber(FiwareIotClient client, int threads, int queueSize) {
+        if (threads < 1 || queueSize < 1) {
+            throw new IllegalArgumentException("Threads and queue size must be positive");
+        }
+
+        this.client = client;
+        this.topicPrefix = String.format("/%s/", client.getApiKey());
+        this.topicFilter = this.topicPrefix + "+/cmd";
+
+        int laneQueueSize = Math.max(1, queueSize / threads);
+        this.lanes = new ThreadPoolExecutor[threads];
+        for (int i = 0; i < threads; i++) {
+            String threadName = "fiot-command-" + (i + 1);
+            this.lanes[i] = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(laneQueueSize), r -> {
+                Thread thread = new Thread(r, threadName);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /*
+     * Sets the handler of the commands of a device, subscribing to the commands of the api key if needed
+     *
+     * @param deviceId  The id of the device
+     * @param handler   The handler executing the commands of the device
+     */
+    public void register(String deviceId, CommandHandler handler) throws MqttException {
+        this.handlers.put(deviceId, handler);
+        this.subscribe();
+    }
+
+    /*
+     * @param deviceId  The id of the device whose commands will no longer be handled, unless there is a default handler
+     */
+    public void unregister(String deviceId) {
+        this.handlers.remove(deviceId);
+    }
+
+    /*
+     * Sets the handler of the commands of devices without a handler of their own, subscribing to the commands of the
+     * api key if needed
+     *
+     * @param handler  The handler, or null to ignore the commands of devices without a handler
+     */
+    public void setDefaultHandler(CommandHandler handler) throws MqttException {
+        this.defaultHandler = handler;
+        if (handler != null) {
+            this.subscribe();
+        }
+    }
+
+    private synchronized void subscribe() throws MqttException {
+        this.active = true;
+        this.subscribeTo(this.client.getMqttSession());
+    }
+
+    /*
+     * Moves the subscription to the given session when it is not the one holding it, as happens after the client
+     * replaced its session. A failed subscription is retried on the next registration or command result.
+     *
+     * @param session  The current MQTT session of the client
+     */
+    private void subscribeTo(MqttSession session) throws MqttException {
+        if (!this.active || this.subscribedSession == session) {
+            return;
+        }
+        synchronized (this) {
+            if (this.active && this.subscribedSession != session) {
+                session.subscribe(this.topicFilter, this::messageArrived);
+                this.subscribedSession = session;
+            }
+        }
+    }
+
+    /*
+     * Subscribes on the current MQTT session of the client, called by the client after it replaced its session
+     */
+    void renewSubscription() {
+        try {
+            this.subscribeTo(this.client.getMqttSession());
+        } catch (MqttException e) {
+            LOG.warn(String.format("Could not renew the subscription to %s", this.topicFilter), e);
+        }
+    }
+
+    /*
+     * Decodes a command on the MQTT callback thread and hands it to the lane of its device
+     */
+    private void messageArrived(String topic, MqttMessage message) {
+        long receivedNanos = System.nanoTime();
+        this.received.incrementAndGet();
+
+        String deviceId = topic.substring(this.topicPrefix.length(), topic.length() - "/cmd".length());
+        CommandHandler handler = this.handlers.getOrDefault(deviceId, this.defaultHandler);
+        if (handler == null) {
+            this.ignored.incrementAndGet();
+            LOG.debug(() -> String.format("Ignoring command for unregistered device %s", deviceId));
+            return;
+        }
+
+        Command command;
+        try {
+            command = Command.parse(deviceId, new String(message.getPayload(), StandardCharsets.UTF_8), receivedNanos);
+        } catch (IllegalArgumentException e) {
+            this.ignored.incrementAndGet();
+            LOG.warn(String.format("Ignoring command for device %s: %s", deviceId, e.getMessage()));
+            return;
+        }
+        LOG.trace(() -> String.format("Received command %s on topic %s", Log.truncate(message.toString()), topic));
+
+        try {
+            this.lanes[Math.floorMod(deviceId.hashCode(), this.lanes.length)].execute(() -> this.execute(handler, command));
+        } catch (RejectedExecutionException e) {
+            this.rejected.incrementAndGet();
+            LOG.debug(() -> String.format("Dropping command %s for device %s: the command queue is full", command.getName(), deviceId));
+        }
+    }
+
+    /*
+     * Executes a command on its lane and publishes its result
+     */
+    private void execute(CommandHandler handler, Command command) {
+        String result;
+        boolean success;
+        try {
+            result = handler.handle(command);
+            if (result == null) {
+                result = "OK";
+            }
+            success = true;
+        } catch (Exception e) {
+            result = "ERROR: " + e.getMessage();
+            success = false;
+            LOG.debug(() -> String.format("Command %s of device %s failed: %s", command.getName(), command.getDeviceId(), e));
+        }
+
+        String topic = this.topicPrefix + command.getDeviceId() + "/cmdexe";
+        byte[] payload = command.createResultPayload(result).getBytes(StandardCharsets.UTF_8);
+
+        MqttSession session = this.client.getMqttSession();
+        ClientMetrics metrics = this.client.getMetrics();
+        long start = System.nanoTime();
+        try {
+            this.subscribeTo(session);
+            session.publish(topic, payload);
+            metrics.publishCompleted(session.getServerUri(), System.nanoTime() - start, payload.length, true);
+        } catch (MqttException e) {
+            metrics.publishCompleted(session.getServerUri(), System.nanoTime() - start, payload.length, false);
+            LOG.warn(String.format("Could not acknowledge command %s of device %s", command.getName(), command.getDeviceId()), e);
+            success = false;
+        }
+
+        (success ? this.executed : this.failed).incrementAndGet();
+        metrics.commandCompleted(session.getServerUri(), command.getName(), System.nanoTime() - command.getReceivedNanos(), success);
+    }
+
+    /*
+     * @return  The number of commands received for any device of the api key
+     */
+    public long getReceivedCount() {
+        return received.get();
+    }
+
+    /*
+     * @return  The number of commands dropped because the queue of their lane was full
+     */
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    /*
+     * @return  The number of commands of devices without a handler or with an invalid payload
+     */
+    public long getIgnoredCount() {
+        return ignored.get();
+    }
+
+    /*
+     * @return  The number of commands executed and acknowledged
+     */
+    public long getExecutedCount() {
+        return executed.get();
+    }
+
+    /*
+     * @return  The number of commands whose handler failed or whose acknowledgement could not be published
+     */
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    /*
+     * @return  The number of commands waiting for execution
+     */
+    public int getQueued() {
+        int queued = 0;
+        for (ThreadPoolExecutor lane : this.lanes) {
+            queued += lane.getQueue().size();
+        }
+        return queued;
+    }
+
+    /*
+     * Registers the counters and the queue size of this subscriber as gauges, named iot.commands.*
+     *
+     * @param metrics  The metrics in which the gauges are registered
+     */
+    public void bindMetrics(ClientMetrics metrics) {
+        metrics.registerGauge("iot.commands.received", this::getReceivedCount);
+        metrics.registerGauge("iot.commands.rejected", this::getRejectedCount);
+        metrics.registerGauge("iot.commands.ignored", this::getIgnoredCount);
+        metrics.registerGauge("iot.commands.executed", this::getExecutedCount);
+        metrics.registerGauge("iot.commands.failed", this::getFailedCount);
+        metrics.registerGauge("iot.commands.queued", this::getQueued);
+    }
+
+    /*
+     * Stops receiving commands. Commands already queued are executed and acknowledged before the lanes stop,
+     * for up to 5 seconds; the ones left after that are dropped.
+     */
+    @Override
+    public void close() {
+        this.client.removeCommandSubscriber(this);
+        synchronized (this) {
+            this.active = false;
+            if (this.subscribedSession != null) {
+                try {
+                    this.subscribedSession.unsubscribe(this.topicFilter);
+                } catch (MqttException e) {
+                    LOG.warn(String.format("Could not unsubscribe from %s", this.topicFilter), e);
+                }
+                this.subscribedSession = null;
+            }
+        }
+
+        for (ThreadPoolExecutor lane : this.lanes) {
+            lane.shutdown();
+        }
+        try {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(CLOSE_TIMEOUT_SECONDS);
+            for (ThreadPoolExecutor lane : this.lanes) {
+                lane.awaitTermination(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (ThreadPoolExecutor lane : this.lanes) {
+            lane.shutdownNow();
+        }
+    }
+
+}
@@ -0,0 +1,35 @@
+package br.ufrn.imd.fiotclient.iot;
+
+/*
+ * Information of a device to be registered from a device template
+ */
+public class DeviceRegistration {
+
+    private final String deviceId;
+    private final String entityId;
+    private final String endpoint;
+
+    /*
+     * @param deviceId  The id to the device to be created
+     * @param entityId  The id to the NGSI entity created representing the device
+     * @param endpoint  The endpoint of the device to which actions will be sent on format IP:PORT, or "" for devices without endpoint
+     */
+    public DeviceRegistration(String deviceId, String entityId, String endpoint) {
+        this.deviceId = deviceId;
+        this.entityId = entityId;
+        this.endpoint = endpoint;
+    }
+
+    public String getDeviceId() {
+        return deviceId;
+    }
+
+    public String getEntityId() {
+        return entityId;
+    }
+
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+}
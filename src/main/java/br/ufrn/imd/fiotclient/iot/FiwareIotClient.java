@@ -1,19 +1,27 @@
 package br.ufrn.imd.fiotclient.iot;
 
+import br.ufrn.imd.fiotclient.FiwareRequestException;
+import br.ufrn.imd.fiotclient.FiwareResponse;
 import br.ufrn.imd.fiotclient.SimpleClient;
-import br.ufrn.imd.fiotclient.utils.ConfigParser;
-import org.eclipse.paho.client.mqttv3.MqttClient;
+import br.ufrn.imd.fiotclient.logging.Log;
+import br.ufrn.imd.fiotclient.metrics.ClientMetrics;
+import br.ufrn.imd.fiotclient.transport.HttpTransport;
+import br.ufrn.imd.fiotclient.utils.FiwareConfig;
+import br.ufrn.imd.fiotclient.utils.JsonTemplate;
+import br.ufrn.imd.fiotclient.utils.ParallelRunner;
 import org.eclipse.paho.client.mqttv3.MqttException;
-import org.eclipse.paho.client.mqttv3.MqttMessage;
 import org.ini4j.InvalidFileFormatException;
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.File;
 import java.io.IOException;
-import java.nio.charset.Charset;
-import java.nio.file.Files;
-import java.nio.file.Paths;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
 
 //import logging
 
@@ -32,6 +40,11 @@ import java.util.*;
  */
 public class FiwareIotClient extends SimpleClient {
 
+    private static final Log LOG = Log.getLog(FiwareIotClient.class);
+
+    // How many api keys are tried when creating a service whose generated api key conflicts with an existing one
+    private static final int MAX_API_KEY_ATTEMPTS = 3;
+
     private String idasHost;
     private String idasAdminPort;
     private String idasUL20Port;
@@ -39,21 +52,109 @@ public class FiwareIotClient extends SimpleClient {
     private String mosquittoHost;
     private String mosquittoPort;
 
+    private String mqttClientId;
+    private int mqttQos;
+    private int mqttKeepAlive;
+    private int mqttMaxInflight;
+    private int mqttConnectTimeout;
+    private boolean mqttInMemoryPersistence;
+    private int mqttCommandThreads;
+    private int mqttCommandQueueSize;
+
+    private volatile MqttSession mqttSession;
+
+    // The open command subscribers, moved to the new MQTT session whenever the session is reset
+    private final Set<CommandSubscriber> commandSubscribers = ConcurrentHashMap.newKeySet();
+
+    private volatile ObservationJournal observationJournal;
+
+    // The client whose MQTT session and observation journal are used by this view, or null if this is not a view
+    private final FiwareIotClient root;
+
     /*
      * @param configFile  The file in which load the default configuration
      */
     public FiwareIotClient(String configFile) throws InvalidFileFormatException, IOException {
-        super(configFile);
+        this(configFile, null);
+    }
 
-        Map<String, String> configMap = ConfigParser.readConfigFile(configFile);
+    /*
+     * @param configFile  The file in which load the default configuration
+     * @param transport   The HTTP transport shared with other clients. If null, a new transport owned by this client is created
+     */
+    public FiwareIotClient(String configFile, HttpTransport transport) throws InvalidFileFormatException, IOException {
+        this(FiwareConfig.fromFile(configFile), transport);
+    }
 
-        this.idasHost = configMap.get("idas_host");
-        this.idasAdminPort = configMap.get("idas_admin_port");
-        this.idasUL20Port = configMap.get("idas_ul20_port");
-        this.apiKey = configMap.get("api_key");
+    /*
+     * @param config     The configuration shared with other clients
+     * @param transport  The HTTP transport shared with other clients. If null, a new transport owned by this client is created
+     */
+    public FiwareIotClient(FiwareConfig config, HttpTransport transport) throws IOException {
+        super(config, transport);
+        this.root = null;
+
+        this.idasHost = config.getIdasHost();
+        this.idasAdminPort = config.getIdasAdminPort();
+        this.idasUL20Port = config.getIdasUL20Port();
+        this.apiKey = config.getApiKey();
+
+        this.mosquittoHost = config.getMosquittoHost();
+        this.mosquittoPort = config.getMosquittoPort();
+
+        this.mqttClientId = config.getMosquittoClientId();
+        this.mqttQos = config.getMosquittoQos();
+        this.mqttKeepAlive = config.getMosquittoKeepAlive();
+        this.mqttMaxInflight = config.getMosquittoMaxInflight();
+        this.mqttConnectTimeout = config.getMosquittoConnectTimeout();
+        this.mqttInMemoryPersistence = config.isMosquittoInMemoryPersistence();
+        this.mqttCommandThreads = config.getMosquittoCommandThreads();
+        this.mqttCommandQueueSize = config.getMosquittoCommandQueueSize();
+
+        if (config.getJournalDirectory() != null) {
+            this.enableObservationJournal(config.getJournalDirectory(), config.getJournalMode(), config.getJournalSegmentSize(),
+                                          config.getJournalMaxSegments(), config.getJournalReplayInterval());
+        }
+    }
 
-        this.mosquittoHost = configMap.get("mosquitto_host");
-        this.mosquittoPort = configMap.get("mosquitto_port");
+    /*
+     * @param base               The client whose settings, MQTT session and observation journal are shared by the view
+     * @param fiwareService      The name of the service to be used by the view
+     * @param fiwareServicePath  The service path of the service to be used by the view
+     */
+    private FiwareIotClient(FiwareIotClient base, String fiwareService, String fiwareServicePath) {
+        super(base, fiwareService, fiwareServicePath);
+        this.root = base.root != null ? base.root : base;
+
+        this.idasHost = base.idasHost;
+        this.idasAdminPort = base.idasAdminPort;
+        this.idasUL20Port = base.idasUL20Port;
+        this.apiKey = base.apiKey;
+
+        this.mosquittoHost = base.mosquittoHost;
+        this.mosquittoPort = base.mosquittoPort;
+
+        this.mqttClientId = base.mqttClientId;
+        this.mqttQos = base.mqttQos;
+        this.mqttKeepAlive = base.mqttKeepAlive;
+        this.mqttMaxInflight = base.mqttMaxInflight;
+        this.mqttConnectTimeout = base.mqttConnectTimeout;
+        this.mqttInMemoryPersistence = base.mqttInMemoryPersistence;
+        this.mqttCommandThreads = base.mqttCommandThreads;
+        this.mqttCommandQueueSize = base.mqttCommandQueueSize;
+    }
+
+    /*
+     * Creates a view of this client bound to another service context. The view shares the HTTP transport,
+     * the MQTT session and the observation journal of this client.
+     *
+     * @param fiwareService      The name of the service to be used by the view
+     * @param fiwareServicePath  The service path of the service to be used by the view
+     * @return                   The client view
+     */
+    @Override
+    public FiwareIotClient forService(String fiwareService, String fiwareServicePath) {
+        return new FiwareIotClient(this, fiwareService, fiwareServicePath);
     }
 
     /*
@@ -75,7 +176,7 @@ public class FiwareIotClient extends SimpleClient {
      * @return             The information of the created service
      */
     public String createService(String service, String servicePath, String apiKey) {
-        System.out.println("Creating service");
+        LOG.debug(() -> String.format("Creating service '%s' with service path '%s'", service, servicePath));
 
         if (apiKey.equals("")) {
             apiKey = generateApiKey();
@@ -84,18 +185,17 @@ public class FiwareIotClient extends SimpleClient {
         String responseStr = "";
         JSONObject response = new JSONObject();
 
-        boolean created = false;
-        while (!created) {
+        // Only a conflicting api key is worth a new attempt, and only a bounded number of times
+        for (int attempt = 1; attempt <= MAX_API_KEY_ATTEMPTS; attempt++) {
             responseStr = this.createServiceAux(service, servicePath, apiKey);
             response = new JSONObject(responseStr);
 
-            if (response.getInt("status_code") == 201) {
-                created = true;
-            } else {
-                apiKey = generateApiKey();
+            if (response.optInt("status_code") != 409 || attempt == MAX_API_KEY_ATTEMPTS) {
+                break;
             }
+            apiKey = generateApiKey();
         }
-        response.put("api_key", "api_key");
+        response.put("api_key", apiKey);
 
         return response.toString();
     }
@@ -184,29 +284,240 @@ public class FiwareIotClient extends SimpleClient {
      * @return              Information of the registered device
      */
     public String registerDevice(String deviceSchema, String deviceId, String entityId, String endpoint, String protocol) throws JSONException {
+        return this.registerDevice(JsonTemplate.compile(deviceSchema), deviceId, entityId, endpoint, protocol);
+    }
+
+    /*
+     * Register a new device from a compiled device template in the currently selected service
+     *
+     * @param deviceTemplate  The compiled device schema
+     * @param deviceId        The id to the device to be created
+     * @param entityId        The id to the NGSI entity created representing the device
+     * @param endpoint        The endpoint of the device to which actions will be sent on format IP:PORT
+     * @param protocol        The protocol to be used on device
+     * @return                Information of the registered device
+     * @throws IllegalArgumentException if the schema has an endpoint and the given one is not on format IP:PORT
+     */
+    public String registerDevice(JsonTemplate deviceTemplate, String deviceId, String entityId, String endpoint, String protocol) {
         // logging.info("Registering device")
 
         String url = String.format("http://%s:%s/iot/devices?protocol=%s", idasHost, idasAdminPort, protocol);
+        String payload = createDevicePayload(deviceTemplate, deviceId, entityId, endpoint);
+
+        return this.sendRequest(url, payload, SimpleClient.POST, jsonContentHeaders());
+    }
 
+    /*
+     * Asynchronous counterpart of registerDevice
+     *
+     * @param deviceSchema  JSON string representing device schema
+     * @param deviceId      The id to the device to be created
+     * @param entityId      The id to the NGSI entity created representing the device
+     * @param endpoint      The endpoint of the device to which actions will be sent on format IP:PORT
+     * @param protocol      The protocol to be used on device
+     * @return              A future completed with the information of the registered device
+     */
+    public CompletableFuture<String> registerDeviceAsync(String deviceSchema, String deviceId, String entityId, String endpoint, String protocol) throws JSONException {
+        return this.registerDeviceAsync(JsonTemplate.compile(deviceSchema), deviceId, entityId, endpoint, protocol);
+    }
+
+    /*
+     * Asynchronous counterpart of registerDevice from a compiled device template
+     *
+     * @param deviceTemplate  The compiled device schema
+     * @param deviceId        The id to the device to be created
+     * @param entityId        The id to the NGSI entity created representing the device
+     * @param endpoint        The endpoint of the device to which actions will be sent on format IP:PORT
+     * @param protocol        The protocol to be used on device
+     * @return                A future completed with the information of the registered device
+     * @throws IllegalArgumentException if the schema has an endpoint and the given one is not on format IP:PORT
+     */
+    public CompletableFuture<String> registerDeviceAsync(JsonTemplate deviceTemplate, String deviceId, String entityId, String endpoint, String protocol) {
+        String url = String.format("http://%s:%s/iot/devices?protocol=%s", idasHost, idasAdminPort, protocol);
+        String payload = createDevicePayload(deviceTemplate, deviceId, entityId, endpoint);
+
+        return this.sendRequestAsync(url, payload, SimpleClient.POST, jsonContentHeaders());
+    }
+
+    /*
+     * Auxiliary method to create the payload of a device registration from its template
+     *
+     * @param deviceTemplate  The compiled device schema
+     * @param deviceId        The id to the device to be created
+     * @param entityId        The id to the NGSI entity created representing the device
+     * @param endpoint        The endpoint of the device to which actions will be sent on format IP:PORT
+     * @return                The device schema with its placeholders replaced
+     * @throws IllegalArgumentException if the schema has an endpoint and the given one is not on format IP:PORT
+     */
+    protected static String createDevicePayload(JsonTemplate deviceTemplate, String deviceId, String entityId, String endpoint) {
+        Map<String, String> values = new HashMap<>(8);
+        values.put("DEVICE_ID", deviceId);
+        values.put("ENTITY_ID", entityId);
+
+        if (deviceTemplate.contains("\"endpoint\"")) {
+            int separator = endpoint == null ? -1 : endpoint.lastIndexOf(':');
+            if (separator <= 0 || separator == endpoint.length() - 1) {
+                throw new IllegalArgumentException(String.format("Device '%s' needs an endpoint on format IP:PORT, got '%s'",
+                                                                 deviceId, endpoint));
+            }
+            values.put("DEVICE_IP", endpoint.substring(0, separator));
+            values.put("PORT", endpoint.substring(separator + 1));
+        }
+
+        return deviceTemplate.render(values);
+    }
+
+    private static Map<String, String> jsonContentHeaders() {
         Map<String, String> additionalHeaders = new HashMap<>();
         additionalHeaders.put("Content-Type", "application/json");
+        return additionalHeaders;
+    }
+
+    /*
+     * Registers many devices from a single device template. Devices are packed into multi-device requests of at most
+     * the given chunk size, with at most the given number of requests executing at the same time.
+     * When a request is rejected by the IoT Agent (a 4xx status other than 429), its chunk is split in halves and sent
+     * again, until the rejected devices are isolated. Devices of a resent half found to be already registered, because
+     * the rejected request registered them, are reported with their registration. Transport failures, 429 and 5xx
+     * fail the whole chunk without splitting it, so no more requests are sent to an IoT Agent that is already failing.
+     * Devices without an endpoint on format IP:PORT, when the template has one, are reported as rejected without being sent.
+     *
+     * @param deviceTemplate  The compiled device schema, with a "devices" array
+     * @param devices         The information of the devices to be registered
+     * @param protocol        The protocol to be used on devices
+     * @param chunkSize       The maximum number of devices sent on each request
+     * @param parallelism     The maximum number of requests executing at the same time
+     * @return                The result of the registration of each device, by device id
+     */
+    public Map<String, String> registerDevices(JsonTemplate deviceTemplate, List<DeviceRegistration> devices, String protocol,
+                                               int chunkSize, int parallelism) {
+        return this.registerDevicesAsync(deviceTemplate, devices, protocol, chunkSize, parallelism).join();
+    }
 
-        //Tests if file content is a valid JSON (or throws JSONException)
-        new JSONObject(deviceSchema);
+    /*
+     * Asynchronous counterpart of registerDevices
+     *
+     * @param deviceTemplate  The compiled device schema, with a "devices" array
+     * @param devices         The information of the devices to be registered
+     * @param protocol        The protocol to be used on devices
+     * @param chunkSize       The maximum number of devices sent on each request
+     * @param parallelism     The maximum number of requests executing at the same time
+     * @return                A future completed with the result of the registration of each device, by device id
+     */
+    public CompletableFuture<Map<String, String>> registerDevicesAsync(JsonTemplate deviceTemplate, List<DeviceRegistration> devices,
+                                                                       String protocol, int chunkSize, int parallelism) {
+        String url = String.format("http://%s:%s/iot/devices?protocol=%s", idasHost, idasAdminPort, protocol);
 
-        String deviceSchemaReplaced = deviceSchema.replace("[DEVICE_ID]", deviceId)
-                                                  .replace("[ENTITY_ID]", entityId);
+        // Each entry of the devices array is compiled once and rendered for every device
+        JSONArray templateDevices = new JSONObject(deviceTemplate.getSource()).getJSONArray("devices");
+        List<JsonTemplate> entryTemplates = new ArrayList<>();
+        for (int i = 0; i < templateDevices.length(); i++) {
+            entryTemplates.add(JsonTemplate.compile(templateDevices.getJSONObject(i).toString()));
+        }
 
-        if (deviceSchemaReplaced.contains("\"endpoint\"")) {
-            String[] endpointSplit = endpoint.split(":");
-            String deviceIp = endpointSplit[0];
-            String devicePort = endpointSplit[1];
+        Map<String, String> results = new ConcurrentHashMap<>();
+
+        List<String[]> renderedDevices = new ArrayList<>(devices.size());
+        for (DeviceRegistration device : devices) {
+            StringBuilder entries = new StringBuilder();
+            try {
+                for (JsonTemplate entryTemplate : entryTemplates) {
+                    if (entries.length() > 0) {
+                        entries.append(',');
+                    }
+                    entries.append(createDevicePayload(entryTemplate, device.getDeviceId(), device.getEntityId(), device.getEndpoint()));
+                }
+            } catch (IllegalArgumentException e) {
+                // Rejected without being sent, so the other devices of its chunk are not affected
+                results.put(device.getDeviceId(), new JSONObject().put("error", e.getMessage()).toString());
+                continue;
+            }
+            renderedDevices.add(new String[] {device.getDeviceId(), entries.toString()});
+        }
 
-            deviceSchemaReplaced = deviceSchemaReplaced.replace("[DEVICE_IP]", deviceIp)
-                                                       .replace("[PORT]", devicePort);
+        List<Supplier<CompletableFuture<Void>>> tasks = new ArrayList<>();
+        for (List<String[]> chunk : ParallelRunner.chunk(renderedDevices, chunkSize)) {
+            tasks.add(() -> this.registerDeviceChunk(url, chunk, false, results));
         }
 
-        return this.sendRequest(url, deviceSchemaReplaced, SimpleClient.POST, additionalHeaders);
+        return ParallelRunner.runBounded(tasks, parallelism).thenApply(done -> {
+            Map<String, String> orderedResults = new LinkedHashMap<>();
+            devices.forEach(device -> orderedResults.put(device.getDeviceId(), results.get(device.getDeviceId())));
+            return orderedResults;
+        });
+    }
+
+    /*
+     * Auxiliary method to register a chunk of rendered devices, splitting it when the IoT Agent rejects the request
+     *
+     * @param url      The url of the devices registration
+     * @param chunk    Pairs of device id and rendered device entries
+     * @param resend   If the chunk is part of a rejected request, which may have registered some of its devices
+     * @param results  The map in which the result of each device is stored
+     * @return         A future completed when all devices of the chunk have a result
+     */
+    private CompletableFuture<Void> registerDeviceChunk(String url, List<String[]> chunk, boolean resend, Map<String, String> results) {
+        StringBuilder payload = new StringBuilder("{\"devices\":[");
+        for (int i = 0; i < chunk.size(); i++) {
+            if (i > 0) {
+                payload.append(',');
+            }
+            payload.append(chunk.get(i)[1]);
+        }
+        payload.append("]}");
+
+        return this.executeAsync(url, payload.toString(), SimpleClient.POST, jsonContentHeaders())
+                .handle((response, error) -> {
+                    JSONObject resultJSON = new JSONObject();
+                    if (error != null) {
+                        resultJSON.put("error", error.getMessage());
+                    } else {
+                        resultJSON.put("status_code", response.getStatusCode());
+                        resultJSON.put("response", response.getBodyAsString());
+                    }
+                    return resultJSON;
+                })
+                .thenCompose(resultJSON -> {
+                    int statusCode = resultJSON.optInt("status_code");
+                    // Only requests rejected for their content are split, other failures would fail again for each half
+                    boolean rejected = isRejected(statusCode);
+
+                    if (rejected && statusCode == 409 && resend && chunk.size() == 1) {
+                        return this.reportRegisteredDevice(chunk.get(0)[0], resultJSON, results);
+                    }
+
+                    if (!rejected || chunk.size() == 1) {
+                        String result = resultJSON.toString();
+                        chunk.forEach(device -> results.put(device[0], result));
+                        return CompletableFuture.completedFuture(null);
+                    }
+
+                    // Splits the rejected chunk to isolate the devices that can not be registered
+                    List<String[]> firstHalf = chunk.subList(0, chunk.size() / 2);
+                    List<String[]> secondHalf = chunk.subList(chunk.size() / 2, chunk.size());
+                    return this.registerDeviceChunk(url, firstHalf, true, results)
+                            .thenCompose(done -> this.registerDeviceChunk(url, secondHalf, true, results));
+                });
+    }
+
+    /*
+     * Auxiliary method to report a device that already exists when it is resent after a rejected request.
+     * The rejected request may have registered the device before failing on another one, so the device is read to
+     * confirm it is registered, and its description is reported as the result.
+     *
+     * @param deviceId  The id of the device
+     * @param conflict  The result of the resend, reported if the device can not be read
+     * @param results   The map in which the result of the device is stored
+     * @return          A future completed when the device has a result
+     */
+    private CompletableFuture<Void> reportRegisteredDevice(String deviceId, JSONObject conflict, Map<String, String> results) {
+        String url = String.format("http://%s:%s/iot/devices/%s", idasHost, idasAdminPort, deviceId);
+
+        return this.sendRequestAsync(url, "", SimpleClient.GET, jsonContentHeaders())
+                .thenAccept(result -> {
+                    boolean registered = new JSONObject(result).optInt("status_code") == 200;
+                    results.put(deviceId, registered ? result : conflict.toString());
+                });
     }
 
     /*
@@ -222,13 +533,8 @@ public class FiwareIotClient extends SimpleClient {
     public String registerDeviceFromFile(String deviceFilePath, String deviceId, String entityId, String endpoint, String protocol) throws IOException, JSONException {
         // logging.info("Opening file '{}'".format(device_file_path))
 
-        byte[] jsonDeviceFileBytes = Files.readAllBytes(Paths.get(deviceFilePath));
-        String deviceSchemaJsonStr = new String(jsonDeviceFileBytes, Charset.defaultCharset());
-
-        //Tests if file content is a valid JSON (or throws JSONException)
-        new JSONObject(deviceSchemaJsonStr);
-
-        return this.registerDevice(deviceSchemaJsonStr, deviceId, entityId, endpoint, protocol);
+        // The file is read and validated only when it changes
+        return this.registerDevice(JsonTemplate.fromFile(deviceFilePath), deviceId, entityId, endpoint, protocol);
     }
 
     /*
@@ -253,11 +559,22 @@ public class FiwareIotClient extends SimpleClient {
      */
     public String removeDevice(String deviceId) {
         String url = String.format("http://%s:%s/iot/devices/%s", idasHost, idasAdminPort, deviceId);
-        Map<String, String> additionalHeaders = new HashMap<>();
-        additionalHeaders.put("Content-Type", "application/json");
         String payload = "";
 
-        return this.sendRequest(url, payload, SimpleClient.DELETE, additionalHeaders);
+        return this.sendRequest(url, payload, SimpleClient.DELETE, jsonContentHeaders());
+    }
+
+    /*
+     * Asynchronous counterpart of removeDevice
+     *
+     * @param deviceId  The id to the device to be removed
+     * @return          A future completed with the response of the removal request
+     */
+    public CompletableFuture<String> removeDeviceAsync(String deviceId) {
+        String url = String.format("http://%s:%s/iot/devices/%s", idasHost, idasAdminPort, deviceId);
+        String payload = "";
+
+        return this.sendRequestAsync(url, payload, SimpleClient.DELETE, jsonContentHeaders());
     }
 
     /*
@@ -279,11 +596,33 @@ public class FiwareIotClient extends SimpleClient {
         // logging.info("Listing devices")
 
         String url = String.format("http://%s:%s/iot/devices", idasHost, idasAdminPort);
-        Map<String, String> additionalHeaders = new HashMap<>();
-        additionalHeaders.put("Content-Type", "application/json");
         String payload = "";
 
-        return this.sendRequest(url, payload, SimpleClient.GET, additionalHeaders);
+        return this.sendRequest(url, payload, SimpleClient.GET, jsonContentHeaders());
+    }
+
+    /*
+     * List the devices registered in the currently selected service, parsing the response while it is received
+     *
+     * @return  The IoT Agent answer, with the device count and the list of devices
+     * @throws FiwareRequestException if the IoT Agent answers with an error
+     */
+    public JSONObject listDevicesAsJSON() throws IOException {
+        String url = String.format("http://%s:%s/iot/devices", idasHost, idasAdminPort);
+
+        return (JSONObject) this.getJSON(url, jsonContentHeaders());
+    }
+
+    /*
+     * Asynchronous counterpart of listDevices
+     *
+     * @return  A future completed with the list of devices registered in the service
+     */
+    public CompletableFuture<String> listDevicesAsync() {
+        String url = String.format("http://%s:%s/iot/devices", idasHost, idasAdminPort);
+        String payload = "";
+
+        return this.sendRequestAsync(url, payload, SimpleClient.GET, jsonContentHeaders());
     }
 
     /*
@@ -315,7 +654,7 @@ public class FiwareIotClient extends SimpleClient {
      * @param measurements  A list of measurement groups obtained in the device
      * @return              A string containing the UL payload
      */
-    private static String createULPayloadFromMeasurementGroupList(List<Map<String, String>> measurementGroups) {
+    protected static String createULPayloadFromMeasurementGroupList(List<Map<String, String>> measurementGroups) {
         //Multiple measurement groups list
         List<String> groupsPayload = new ArrayList<>();
         measurementGroups.forEach(g -> groupsPayload.add(FiwareIotClient.joinGroupMeasurements(g)));
@@ -333,61 +672,286 @@ public class FiwareIotClient extends SimpleClient {
      * @return                   The summary of the sent measurements
      */
     public String sendObservation(String deviceId, List<Map<String, String>> measurementGroups, String protocol) {
-        System.out.println("Sending observation");
-
         String payload = createULPayloadFromMeasurementGroupList(measurementGroups);
+        LOG.trace(() -> String.format("Sending observation of device '%s': %s", deviceId, Log.truncate(payload)));
+
+        return this.sendULPayload(deviceId, payload.getBytes(StandardCharsets.UTF_8), protocol);
+    }
 
+    /*
+     * Sends the measurements written on a UL encoder to the FIWARE platform. The encoder can be reused once this method returns.
+     *
+     * @param encoder   The encoder holding the device id and the measurements to be sent
+     * @param protocol  The transport protocol to be used to send measurements.
+     *                  Currently accepted values are 'MQTT' and 'HTTP'
+     * @return          The summary of the sent measurements
+     */
+    public String sendObservation(ULEncoder encoder, String protocol) {
+        return this.sendULPayload(encoder.getDeviceId(), encoder.toByteArray(), protocol);
+    }
+
+    /*
+     * Auxiliary method to send an encoded UL payload using the given transport protocol.
+     * When the observation journal is enabled, observations that cannot be delivered are kept on it to be sent later.
+     *
+     * @param deviceId  The id of the device in which the measurements were obtained
+     * @param payload   The UL payload to be sent
+     * @param protocol  The transport protocol to be used to send measurements ('MQTT' or 'HTTP')
+     * @return          The summary of the sent measurements
+     */
+    private String sendULPayload(String deviceId, byte[] payload, String protocol) {
         JSONObject resultJSON = new JSONObject();
 
+        if (!"MQTT".equals(protocol) && !"HTTP".equals(protocol)) {
+            LOG.warn(String.format("Unknown transport protocol '%s'", protocol));
+            String errorMsg = "Unknown transport protocol. Accepted values are 'MQTT' and 'HTTP'";
+            resultJSON.put("error", errorMsg);
+            return resultJSON.toString();
+        }
+
+        ObservationJournal journal = this.getObservationJournal();
+
+        // Once anything is journaled, new observations wait behind it so the platform receives them in order
+        if (journal != null && (journal.getMode() == ObservationJournal.Mode.WRITE_AHEAD || journal.hasPending())) {
+            String journalError = journalULPayload(journal, deviceId, payload, protocol);
+            if (journalError == null) {
+                resultJSON.put("result", "QUEUED");
+                return resultJSON.toString();
+            }
+        }
+
+        try {
+            this.deliverULPayload(deviceId, payload, protocol);
+            resultJSON.put("result", "OK");
+        } catch (IOException e) {
+            String error = String.valueOf(e.getMessage());
+            // An observation rejected by the IoT Agent would be rejected again, so it is not journaled
+            if (journal != null && !isRejected(e) && journalULPayload(journal, deviceId, payload, protocol) == null) {
+                resultJSON.put("result", "QUEUED");
+            } else {
+                resultJSON.put("result", "ERROR");
+            }
+            resultJSON.put("error", error);
+        }
+
+        return resultJSON.toString();
+    }
+
+    /*
+     * @return  True if the status code means the IoT Agent refused the request itself (a 4xx status other than 429),
+     *          so sending the same request again would fail again
+     */
+    private static boolean isRejected(int statusCode) {
+        return statusCode >= 400 && statusCode < 500 && statusCode != 429;
+    }
+
+    private static boolean isRejected(IOException error) {
+        return error instanceof FiwareRequestException && isRejected(((FiwareRequestException) error).getStatusCode());
+    }
+
+    /*
+     * Auxiliary method to write an UL payload to the observation journal
+     *
+     * @return  Null if the payload was journaled, or the reason why it was not
+     */
+    private static String journalULPayload(ObservationJournal journal, String deviceId, byte[] payload, String protocol) {
+        try {
+            return journal.append(deviceId, payload, protocol) ? null : "Observation is larger than a journal segment";
+        } catch (IOException e) {
+            return e.getMessage();
+        }
+    }
+
+    /*
+     * Auxiliary method to deliver an encoded UL payload to the IoT Agent
+     *
+     * @param deviceId  The id of the device in which the measurements were obtained
+     * @param payload   The UL payload to be sent
+     * @param protocol  The transport protocol to be used to send measurements ('MQTT' or 'HTTP')
+     * @throws FiwareRequestException if the IoT Agent answers with a non successful status code
+     * @throws IOException            if the payload could not be delivered
+     */
+    private void deliverULPayload(String deviceId, byte[] payload, String protocol) throws IOException {
         switch (protocol) {
             case "MQTT":
-                System.out.println("Transport protocol: MQTT");
                 String topic = String.format("/%s/%s/attrs", this.apiKey, deviceId);
+                LOG.debug(() -> String.format("Publishing to %s on topic %s", this.mosquittoHost, topic));
 
-                System.out.println(String.format("Publishing to %s on topic %s", this.idasHost, topic));
-                System.out.print("Sending payload: ");
-                System.out.println(payload);
-
+                MqttSession session = this.getMqttSession();
+                ClientMetrics metrics = this.getMetrics();
+                long start = System.nanoTime();
                 try {
-                    this.publishMQTTMessage(topic, payload);
-                    resultJSON.put("result", "OK");
+                    session.publish(topic, payload);
+                    metrics.publishCompleted(session.getServerUri(), System.nanoTime() - start, payload.length, true);
+                    return;
                 } catch (MqttException e) {
-                    resultJSON.put("result", "ERROR");
-                    resultJSON.put("error", e.getMessage());
+                    metrics.publishCompleted(session.getServerUri(), System.nanoTime() - start, payload.length, false);
+                    throw new IOException(e.getMessage(), e);
                 }
-                break;
 
-            case "HTTP":
-                System.out.println("Transport protocol: UL-HTTP");
+            default: //case "HTTP":
                 String url = String.format("http://%s:%s/iot/d?k=%s&i=%s", this.idasHost, this.idasUL20Port, this.apiKey, deviceId);
+                LOG.debug(() -> String.format("Sending observation to %s", url));
 
                 Map<String, String> additional_headers = new HashMap<>();
                 additional_headers.put("Content-Type", "text/plain");
 
-                this.sendRequest(url, payload, SimpleClient.POST, additional_headers);
-                resultJSON.put("result", "OK");
-                break;
+                FiwareResponse response = this.execute(url, new String(payload, StandardCharsets.UTF_8), SimpleClient.POST, additional_headers);
+                if (!response.isSuccess()) {
+                    throw new FiwareRequestException(response.getStatusCode(), response.getBodyAsString());
+                }
+        }
+    }
 
-            default:
-                System.out.println(String.format("Unknown transport protocol '{}'", protocol));
-                String errorMsg = "Unknown transport protocol. Accepted values are 'MQTT' and 'HTTP'";
-                resultJSON.put("error", errorMsg);
-                break;
+    /*
+     * Enables the store-and-forward journal of observations. Observations that cannot be delivered are written to it,
+     * and delivered in order by a background thread once the IoT Agent or the MQTT broker is reachable again.
+     * Observations left on the directory by a previous run are replayed.
+     *
+     * @param directory             The directory in which the journal segment files are kept
+     * @param mode                  ON_FAILURE to journal only failed observations, WRITE_AHEAD to journal all of them
+     * @param segmentSize           The size, in bytes, of each segment file
+     * @param maxSegments           The maximum number of segment files. When full, the oldest observations are dropped
+     * @param replayIntervalMillis  The interval between delivery attempts while there are pending observations
+     */
+    public void enableObservationJournal(File directory, ObservationJournal.Mode mode, int segmentSize, int maxSegments,
+                                         long replayIntervalMillis) throws IOException {
+        this.checkNotServiceView();
+        ObservationJournal journal = new ObservationJournal(directory, mode, segmentSize, maxSegments, replayIntervalMillis,
+                this::replayULPayload);
+        ObservationJournal previous = this.observationJournal;
+        this.observationJournal = journal;
+        if (previous != null) {
+            previous.close();
         }
+    }
 
-        return resultJSON.toString();
+    /*
+     * Auxiliary method to deliver an UL payload replayed from the observation journal
+     *
+     * @return  REJECTED if the IoT Agent refused the payload, so it is not kept on the journal
+     */
+    private ObservationJournal.Delivery replayULPayload(String deviceId, byte[] payload, String protocol) {
+        try {
+            this.deliverULPayload(deviceId, payload, protocol);
+            return ObservationJournal.Delivery.DELIVERED;
+        } catch (IOException e) {
+            if (isRejected(e)) {
+                LOG.warn(String.format("Journaled observation of device '%s' rejected: %s", deviceId, e.getMessage()));
+                return ObservationJournal.Delivery.REJECTED;
+            }
+            return ObservationJournal.Delivery.RETRY;
+        }
     }
 
-    private void publishMQTTMessage(String topic, String payload) throws MqttException {
-        MqttClient client = new MqttClient(String.format("tcp://%s:%s", this.mosquittoHost, this.mosquittoPort), MqttClient.generateClientId());
-        client.connect();
+    /*
+     * Disables the observation journal. Pending observations are kept on disk until the journal is enabled again.
+     */
+    public void disableObservationJournal() throws IOException {
+        this.checkNotServiceView();
+        ObservationJournal journal = this.observationJournal;
+        this.observationJournal = null;
+        if (journal != null) {
+            journal.close();
+        }
+    }
+
+    /*
+     * Sets the metrics of this client, also registering the gauges of the observation journal
+     *
+     * @param metrics  The metrics to be used, or null to stop recording
+     */
+    @Override
+    public void setMetrics(ClientMetrics metrics) {
+        super.setMetrics(metrics);
+        this.getMetrics().registerGauge("iot.journal.pending", () -> {
+            ObservationJournal journal = this.getObservationJournal();
+            return journal != null ? journal.getPendingRecords() : 0;
+        });
+        this.getMetrics().registerGauge("iot.journal.dropped", () -> {
+            ObservationJournal journal = this.getObservationJournal();
+            return journal != null ? journal.getDroppedRecords() : 0;
+        });
+        this.getMetrics().registerGauge("iot.journal.rejected", () -> {
+            ObservationJournal journal = this.getObservationJournal();
+            return journal != null ? journal.getRejectedRecords() : 0;
+        });
+    }
+
+    /*
+     * @return  The observation journal, with its pending and dropped counters, or null if it is disabled
+     */
+    public ObservationJournal getObservationJournal() {
+        return this.root != null ? this.root.getObservationJournal() : this.observationJournal;
+    }
+
+    /*
+     * Get the MQTT session used to publish device messages, creating it if needed.
+     * The session connects on first use and is kept open until the client is closed.
+     *
+     * @return  The MQTT session of this client
+     */
+    public MqttSession getMqttSession() {
+        if (this.root != null) {
+            return this.root.getMqttSession();
+        }
+        // Read on every publication, so the monitor is only taken while the session is being created
+        MqttSession session = this.mqttSession;
+        if (session != null) {
+            return session;
+        }
+        synchronized (this) {
+            if (this.mqttSession == null) {
+                String serverUri = String.format("tcp://%s:%s", this.mosquittoHost, this.mosquittoPort);
+                this.mqttSession = new MqttSession(serverUri, this.mqttClientId, this.mqttQos, this.mqttKeepAlive,
+                                                   this.mqttMaxInflight, this.mqttInMemoryPersistence,
+                                                   this.mqttConnectTimeout);
+            }
+            return this.mqttSession;
+        }
+    }
+
+    /*
+     * Closes the current MQTT session, so the next publication opens a new one with the current settings
+     */
+    private synchronized void resetMqttSession() {
+        if (this.mqttSession != null) {
+            try {
+                this.mqttSession.close();
+            } catch (IOException e) {
+                LOG.warn("Could not close the MQTT session", e);
+            }
+            this.mqttSession = null;
+        }
+    }
 
-        MqttMessage message = new MqttMessage();
-        message.setPayload(payload.getBytes());
+    /*
+     * Closes the current MQTT session after a change of its settings, and moves the subscriptions of the command
+     * subscribers to a new one. Subscribing connects to the broker, so it is done without holding the monitor.
+     */
+    private void renewMqttSession() {
+        this.resetMqttSession();
+        for (CommandSubscriber subscriber : this.commandSubscribers) {
+            subscriber.renewSubscription();
+        }
+    }
 
-        client.publish(topic, message);
-        client.disconnectForcibly();
-        client.close(true);
+    /*
+     * Releases the observation journal, the MQTT session and the HTTP transport owned by this client.
+     * Closing a view releases nothing, as its resources belong to the client it was created from.
+     */
+    @Override
+    public void close() throws IOException {
+        if (this.root != null) {
+            super.close();
+            return;
+        }
+        try {
+            this.disableObservationJournal();
+        } finally {
+            this.resetMqttSession();
+            super.close();
+        }
     }
 
     /*
@@ -403,6 +967,33 @@ public class FiwareIotClient extends SimpleClient {
         return this.sendObservation(deviceId, Collections.singletonList(measurements), protocol);
     }
 
+    /*
+     * Creates a batcher that buffers measurements of many devices and sends them through this client in batches
+     *
+     * @param protocol      The transport protocol to be used to send measurements ('MQTT' or 'HTTP')
+     * @param maxBatchSize  The maximum number of measurement groups sent on a single batch
+     * @param maxAgeMillis  The maximum time a measurement waits on the buffer before being sent
+     * @return              The observation batcher, which must be closed to send the remaining measurements
+     */
+    public ObservationBatcher createObservationBatcher(String protocol, int maxBatchSize, long maxAgeMillis) {
+        return new ObservationBatcher(this, protocol, maxBatchSize, maxAgeMillis, false);
+    }
+
+    /*
+     * Creates a batcher that buffers measurements of many devices and sends them through this client in batches,
+     * with a given number of batches sent at a time and waiting to be sent
+     *
+     * @param protocol      The transport protocol to be used to send measurements ('MQTT' or 'HTTP')
+     * @param maxBatchSize  The maximum number of measurement groups sent on a single batch
+     * @param maxAgeMillis  The maximum time a measurement waits on the buffer before being sent
+     * @param threads       The maximum number of batches sent at a time
+     * @param queueSize     The maximum number of batches waiting to be sent. When reached, adding measurements blocks
+     * @return              The observation batcher, which must be closed to send the remaining measurements
+     */
+    public ObservationBatcher createObservationBatcher(String protocol, int maxBatchSize, long maxAgeMillis, int threads, int queueSize) {
+        return new ObservationBatcher(this, protocol, maxBatchSize, maxAgeMillis, false, threads, queueSize);
+    }
+
     /*
      * Sends a command from the FIWARE platform to a specific device (http://fiware-orion.readthedocs.io/en/latest/user/walkthrough_apiv1/index.html#ngsi10-standard-operations at "Update context elements" section)
      *
@@ -413,15 +1004,73 @@ public class FiwareIotClient extends SimpleClient {
      * @return          The result of the command call
      */
     public String sendCommand(String entityId, String deviceId, String command, List<String> params) {
-        if(params == null) {
-                params = new ArrayList<String>();
-        }
+        String url = String.format("http://%s:%s/v1/updateContext", this.idasHost, this.idasAdminPort);
+        String payload = createCommandPayload(entityId, command, params);
+
+        return sendRequest(url, payload, SimpleClient.POST, commandHeaders());
+    }
 
+    /*
+     * Asynchronous counterpart of sendCommand
+     *
+     * @param entityId  The id of the entity that represents the device
+     * @param deviceId  The id of the device to which the command will be sent
+     * @param command   The name of the command to be called on the device
+     * @param params    The command parameters to be sent
+     * @return          A future completed with the result of the command call
+     */
+    public CompletableFuture<String> sendCommandAsync(String entityId, String deviceId, String command, List<String> params) {
         String url = String.format("http://%s:%s/v1/updateContext", this.idasHost, this.idasAdminPort);
+        String payload = createCommandPayload(entityId, command, params);
+
+        return sendRequestAsync(url, payload, SimpleClient.POST, commandHeaders());
+    }
+
+    /*
+     * Creates a subscriber that receives, on the MQTT session of this client, the commands sent to devices of its
+     * api key, with the number of threads and queue size of the configuration
+     *
+     * @return  The command subscriber, which must be closed to stop receiving commands
+     */
+    public CommandSubscriber createCommandSubscriber() {
+        CommandSubscriber subscriber = new CommandSubscriber(this, this.mqttCommandThreads, this.mqttCommandQueueSize);
+        this.sessionOwner().commandSubscribers.add(subscriber);
+        return subscriber;
+    }
+
+    /*
+     * @param subscriber  The closed subscriber, which no longer follows resets of the MQTT session
+     */
+    void removeCommandSubscriber(CommandSubscriber subscriber) {
+        this.sessionOwner().commandSubscribers.remove(subscriber);
+    }
+
+    /*
+     * @return  The client owning the MQTT session used by this client
+     */
+    private FiwareIotClient sessionOwner() {
+        return this.root != null ? this.root : this;
+    }
 
+    private static Map<String, String> commandHeaders() {
         Map<String, String> additionalHeaders = new HashMap<>();
         additionalHeaders.put("Content-Type", "application/json");
         additionalHeaders.put("Accept", "application/json");
+        return additionalHeaders;
+    }
+
+    /*
+     * Auxiliary method to create the NGSI update payload that triggers a command on a device
+     *
+     * @param entityId  The id of the entity that represents the device
+     * @param command   The name of the command to be called on the device
+     * @param params    The command parameters to be sent
+     * @return          The NGSI payload of the command
+     */
+    protected static String createCommandPayload(String entityId, String command, List<String> params) {
+        if(params == null) {
+                params = new ArrayList<String>();
+        }
 
         String strParams = String.join("|", params);
         String value = strParams;
@@ -445,8 +1094,7 @@ public class FiwareIotClient extends SimpleClient {
                                       "\"updateAction\": \"UPDATE\"" +
                         "}", entityId, command, value);
 
-
-        return sendRequest(url, payload, SimpleClient.POST, additionalHeaders);
+        return payload;
     }
 
     /*
@@ -507,7 +1155,9 @@ public class FiwareIotClient extends SimpleClient {
     }
 
     public void setMosquittoHost(String mosquittoHost) {
+        this.checkNotServiceView();
         this.mosquittoHost = mosquittoHost;
+        this.renewMqttSession();
     }
 
     public String getMosquittoPort() {
@@ -515,7 +1165,69 @@ public class FiwareIotClient extends SimpleClient {
     }
 
     public void setMosquittoPort(String mosquittoPort) {
+        this.checkNotServiceView();
         this.mosquittoPort = mosquittoPort;
+        this.renewMqttSession();
+    }
+
+    public String getMqttClientId() {
+        return mqttClientId;
+    }
+
+    public void setMqttClientId(String mqttClientId) {
+        this.checkNotServiceView();
+        this.mqttClientId = mqttClientId;
+        this.renewMqttSession();
+    }
+
+    public int getMqttQos() {
+        return mqttQos;
+    }
+
+    public void setMqttQos(int mqttQos) {
+        this.checkNotServiceView();
+        this.mqttQos = mqttQos;
+        this.renewMqttSession();
+    }
+
+    public int getMqttKeepAlive() {
+        return mqttKeepAlive;
+    }
+
+    public void setMqttKeepAlive(int mqttKeepAlive) {
+        this.checkNotServiceView();
+        this.mqttKeepAlive = mqttKeepAlive;
+        this.renewMqttSession();
+    }
+
+    public int getMqttMaxInflight() {
+        return mqttMaxInflight;
+    }
+
+    public void setMqttMaxInflight(int mqttMaxInflight) {
+        this.checkNotServiceView();
+        this.mqttMaxInflight = mqttMaxInflight;
+        this.renewMqttSession();
+    }
+
+    public int getMqttConnectTimeout() {
+        return mqttConnectTimeout;
+    }
+
+    public void setMqttConnectTimeout(int mqttConnectTimeout) {
+        this.checkNotServiceView();
+        this.mqttConnectTimeout = mqttConnectTimeout;
+        this.renewMqttSession();
+    }
+
+    public boolean isMqttInMemoryPersistence() {
+        return mqttInMemoryPersistence;
+    }
+
+    public void setMqttInMemoryPersistence(boolean mqttInMemoryPersistence) {
+        this.checkNotServiceView();
+        this.mqttInMemoryPersistence = mqttInMemoryPersistence;
+        this.renewMqttSession();
     }
 
     public String getApiKey() {
@@ -0,0 +1,373 @@
+package br.ufrn.imd.fiotclient.iot;
+
+import br.ufrn.imd.fiotclient.logging.Log;
+import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.IMqttMessageListener;
+import org.eclipse.paho.client.mqttv3.MqttCallbackExtended;
+import org.eclipse.paho.client.mqttv3.MqttClient;
+import org.eclipse.paho.client.mqttv3.MqttClientPersistence;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+import org.eclipse.paho.client.mqttv3.persist.MqttDefaultFilePersistence;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * Long-lived MQTT session used to publish device messages to the broker.
+ * The connection is opened on first use and kept open, being automatically re-established by Paho when it drops,
+ * so each publication costs a single PUBLISH frame instead of a full CONNECT/DISCONNECT cycle.
+ * Subscriptions made on the session are renewed whenever the connection is re-established.
+ *
+ * A single connection attempt is made at a time, without holding the session lock: callers arriving while it is
+ * under way wait for its outcome instead of queueing attempts of their own. Once closed, the session never connects again.
+ */
+public class MqttSession implements Closeable {
+
+    public static final int DEFAULT_QOS = 0;
+    public static final int DEFAULT_KEEP_ALIVE = 60;
+    public static final int DEFAULT_MAX_INFLIGHT = 1000;
+    public static final int DEFAULT_CONNECT_TIMEOUT = 10;
+
+    private static final Log LOG = Log.getLog(MqttSession.class);
+
+    private final String serverUri;
+    private final String clientId;
+    private final int qos;
+    private final int keepAlive;
+    private final int maxInflight;
+    private final boolean inMemoryPersistence;
+    private final int connectTimeout;
+
+    private final Map<String, IMqttMessageListener> subscriptions = new ConcurrentHashMap<>();
+
+    private volatile MqttClient client;
+
+    // Guarded by the session lock
+    private boolean closed;
+    private boolean connecting;
+    private MqttException connectFailure;
+
+    /*
+     * @param serverUri            The URI of the broker on format tcp://HOST:PORT
+     * @param clientId             The client id to use on the broker. If null or empty, a random one will be generated
+     * @param qos                  The quality of service used on publications (0, 1 or 2)
+     * @param keepAlive            The keep alive interval, in seconds
+     * @param maxInflight          The maximum number of unacknowledged publications
+     * @param inMemoryPersistence  If in-flight messages are to be stored in memory instead of files on the working directory
+     */
+    public MqttSession(String serverUri, String clientId, int qos, int keepAlive, int maxInflight, boolean inMemoryPersistence) {
+        this(serverUri, clientId, qos, keepAlive, maxInflight, inMemoryPersistence, DEFAULT_CONNECT_TIMEOUT);
+    }
+
+    /*
+     * @param serverUri            The URI of the broker on format tcp://HOST:PORT
+     * @param clientId             The client id to use on the broker. If null or empty, a random one will be generated
+     * @param qos                  The quality of service used on publications (0, 1 or 2)
+     * @param keepAlive            The keep alive interval, in seconds
+     * @param maxInflight          The maximum number of unacknowledged publications
+     * @param inMemoryPersistence  If in-flight messages are to be stored in memory instead of files on the working directory
+     * @param connectTimeout       How long, in seconds, a connection attempt waits for the broker
+     */
+    public MqttSession(String serverUri, String clientId, int qos, int keepAlive, int maxInflight, boolean inMemoryPersistence,
+                       int connectTimeout) {
+        this.serverUri = serverUri;
+        this.clientId = (clientId == null || clientId.isEmpty()) ? MqttClient.generateClientId() : clientId;
+        this.qos = qos;
+        this.keepAlive = keepAlive;
+        this.maxInflight = maxInflight;
+        this.inMemoryPersistence = inMemoryPersistence;
+        this.connectTimeout = connectTimeout;
+    }
+
+    /*
+     * Opens the connection to the broker if it was not opened yet. When another thread is already connecting,
+     * waits for its attempt and shares its outcome.
+     *
+     * @throws MqttException with reason REASON_CODE_CLIENT_CLOSED if the session is closed
+     */
+    public void connect() throws MqttException {
+        if (this.client != null) {
+            return;
+        }
+
+        synchronized (this) {
+            this.checkOpen();
+            if (this.client != null) {
+                return;
+            }
+            if (this.connecting) {
+                this.awaitConnection();
+                return;
+            }
+            this.connecting = true;
+        }
+
+        MqttClient newClient = null;
+        MqttException failure = null;
+        try {
+            newClient = this.openClient();
+        } catch (MqttException e) {
+            failure = e;
+        } finally {
+            synchronized (this) {
+                this.connecting = false;
+                if (newClient != null && !this.closed) {
+                    this.client = newClient;
+                    newClient = null;
+                } else if (newClient != null) {
+                    failure = new MqttException(MqttException.REASON_CODE_CLIENT_CLOSED);
+                }
+                this.connectFailure = failure;
+                this.notifyAll();
+            }
+        }
+
+        if (newClient != null) {
+            // The session was closed while connecting
+            closeClient(newClient);
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /*
+     * Waits for the connection attempt of another thread. Called holding the session lock.
+     */
+    private void awaitConnection() throws MqttException {
+        while (this.connecting) {
+            try {
+                this.wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new MqttException(MqttException.REASON_CODE_CLIENT_EXCEPTION, e);
+            }
+        }
+        this.checkOpen();
+        if (this.client == null) {
+            throw this.connectFailure != null ? this.connectFailure
+                                              : new MqttException(MqttException.REASON_CODE_CLIENT_NOT_CONNECTED);
+        }
+    }
+
+    private void checkOpen() throws MqttException {
+        if (this.closed) {
+            throw new MqttException(MqttException.REASON_CODE_CLIENT_CLOSED);
+        }
+    }
+
+    /*
+     * Creates a client and connects it to the broker, closing it if the connection fails
+     */
+    private MqttClient openClient() throws MqttException {
+        MqttClientPersistence persistence = this.inMemoryPersistence ? new MemoryPersistence() : new MqttDefaultFilePersistence();
+        MqttClient newClient = new MqttClient(this.serverUri, this.clientId, persistence);
+        newClient.setCallback(new ResubscribeCallback(newClient));
+
+        MqttConnectOptions options = new MqttConnectOptions();
+        options.setAutomaticReconnect(true);
+        options.setCleanSession(true);
+        options.setKeepAliveInterval(this.keepAlive);
+        options.setMaxInflight(this.maxInflight);
+        options.setConnectionTimeout(this.connectTimeout);
+
+        // The connection timeout only covers the socket, so the wait for the broker acknowledgement is bounded too
+        newClient.setTimeToWait(this.connectTimeout > 0 ? this.connectTimeout * 1000L : -1);
+        try {
+            newClient.connect(options);
+        } catch (MqttException e) {
+            try {
+                newClient.disconnectForcibly(0, 1, false);
+            } catch (MqttException ignored) {
+                // The connection was not established
+            }
+            newClient.close(true);
+            throw e;
+        }
+        newClient.setTimeToWait(-1);
+        return newClient;
+    }
+
+    /*
+     * Publishes a message on the session, connecting first if needed
+     *
+     * @param topic    The topic in which the message will be published
+     * @param payload  The content of the message
+     */
+    public void publish(String topic, byte[] payload) throws MqttException {
+        this.connectedClient().publish(topic, payload, this.qos, false);
+    }
+
+    /*
+     * Subscribes to a topic filter on the session, connecting first if needed. The subscription is kept until
+     * unsubscribe or close are called, and is renewed when the connection is re-established, even if this call failed.
+     * Messages are delivered to the listener on the single callback thread of the session, so it must not block.
+     *
+     * @param topicFilter  The topic filter, which may contain the wildcards + and #
+     * @param listener     The listener of the messages published on matching topics
+     */
+    public void subscribe(String topicFilter, IMqttMessageListener listener) throws MqttException {
+        synchronized (this) {
+            this.checkOpen();
+        }
+        this.subscriptions.put(topicFilter, listener);
+        this.connectedClient().subscribe(topicFilter, this.qos, listener);
+    }
+
+    /*
+     * @return  The client of the session, connecting first if needed
+     * @throws MqttException if the session is closed, even concurrently
+     */
+    private MqttClient connectedClient() throws MqttException {
+        this.connect();
+        MqttClient current = this.client;
+        if (current == null) {
+            throw new MqttException(MqttException.REASON_CODE_CLIENT_CLOSED);
+        }
+        return current;
+    }
+
+    /*
+     * @param topicFilter  The topic filter given to subscribe
+     */
+    public void unsubscribe(String topicFilter) throws MqttException {
+        if (this.subscriptions.remove(topicFilter) == null) {
+            return;
+        }
+        MqttClient current = this.client;
+        if (current != null && current.isConnected()) {
+            current.unsubscribe(topicFilter);
+        }
+    }
+
+    public boolean isConnected() {
+        MqttClient current = this.client;
+        return current != null && current.isConnected();
+    }
+
+    /*
+     * @return  True once the session is closed. A closed session fails every publication and subscription.
+     */
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    /*
+     * Disconnects from the broker and releases the session resources. The session cannot be used again.
+     */
+    @Override
+    public void close() throws IOException {
+        MqttClient current;
+        synchronized (this) {
+            this.closed = true;
+            current = this.client;
+            this.client = null;
+            this.subscriptions.clear();
+        }
+        if (current == null) {
+            return;
+        }
+
+        try {
+            if (current.isConnected()) {
+                current.disconnect();
+            }
+            current.close(true);
+        } catch (MqttException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /*
+     * Auxiliary method to release a client that is not used by the session
+     */
+    private static void closeClient(MqttClient client) {
+        try {
+            if (client.isConnected()) {
+                client.disconnect();
+            }
+            client.close(true);
+        } catch (MqttException e) {
+            LOG.warn(String.format("Could not close the MQTT client of %s", client.getServerURI()), e);
+        }
+    }
+
+    public String getServerUri() {
+        return serverUri;
+    }
+
+    public String getClientId() {
+        return clientId;
+    }
+
+    public int getQos() {
+        return qos;
+    }
+
+    public int getKeepAlive() {
+        return keepAlive;
+    }
+
+    public int getMaxInflight() {
+        return maxInflight;
+    }
+
+    public boolean isInMemoryPersistence() {
+        return inMemoryPersistence;
+    }
+
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    /*
+     * Renews the subscriptions of the session after an automatic reconnection, as the session is clean.
+     * Subscribing blocks until the broker acknowledges it, which must not happen on the callback thread,
+     * so it is done on a thread of its own.
+     */
+    private final class ResubscribeCallback implements MqttCallbackExtended {
+
+        private final MqttClient owner;
+
+        private ResubscribeCallback(MqttClient owner) {
+            this.owner = owner;
+        }
+
+        @Override
+        public void connectComplete(boolean reconnect, String serverURI) {
+            if (!reconnect || subscriptions.isEmpty()) {
+                return;
+            }
+            Thread thread = new Thread(() -> {
+                for (Map.Entry<String, IMqttMessageListener> subscription : subscriptions.entrySet()) {
+                    try {
+                        this.owner.subscribe(subscription.getKey(), qos, subscription.getValue());
+                    } catch (MqttException e) {
+                        LOG.warn(String.format("Could not renew the subscription to %s on %s", subscription.getKey(), serverUri), e);
+                    }
+                }
+            }, "fiot-mqtt-resubscribe");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        @Override
+        public void connectionLost(Throwable cause) {
+        }
+
+        @Override
+        public void messageArrived(String topic, MqttMessage message) {
+        }
+
+        @Override
+        public void deliveryComplete(IMqttDeliveryToken token) {
+        }
+
+    }
+
+}
@@ -0,0 +1,429 @@
+package br.ufrn.imd.fiotclient.iot;
+
+import br.ufrn.imd.fiotclient.logging.Log;
+import org.json.JSONObject;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/*
+ * Buffers measurement groups per device and sends them in batches, so a single publication (MQTT)
+ * or POST (UL-HTTP) carries many measurement groups joined on the UL payload.
+ *
+ * A device batch is sent when it reaches the maximum size, when its oldest measurement reaches the maximum age
+ * or when flush is called. Batches are sent by a fixed number of lanes, each with a single thread, and the batches
+ * of a device always go to the same lane. A batch is closed and queued on its lane holding the lock of its device,
+ * so the batches of a device are sent in the order their measurements were added.
+ *
+ * Each lane holds a bounded number of batches waiting to be sent. When the lane of a device is full, the thread
+ * closing a batch of that device (the caller of add or flush) blocks until a batch of the lane is sent, so producers
+ * are slowed down to the rate the backend accepts instead of filling the memory. Aged batches on a full lane are
+ * left for the next tick instead, so a slow lane never delays the batches of other lanes. Devices without pending
+ * measurements for the maximum age are forgotten. Adding after close fails with IllegalStateException.
+ * Measurements added before close are sent by it.
+ */
+public class ObservationBatcher implements Closeable {
+
+    private static final Log LOG = Log.getLog(ObservationBatcher.class);
+
+    public static final int DEFAULT_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors());
+    public static final int DEFAULT_QUEUE_SIZE = 1024;
+
+    private final FiwareIotClient client;
+    private final String protocol;
+    private final int maxBatchSize;
+    private final long maxAgeMillis;
+    private final boolean coalesce;
+
+    private final Map<String, DeviceBatch> batches = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService ticker;
+    private final Lane[] lanes;
+
+    private final AtomicLong sentBatches = new AtomicLong();
+    private final AtomicLong failedBatches = new AtomicLong();
+
+    // Held for reading by add, so close never runs in the middle of an add
+    private final ReadWriteLock closeLock = new ReentrantReadWriteLock();
+    private volatile boolean closed = false;
+
+    /*
+     * @param client        The client used to send the batches
+     * @param protocol      The transport protocol to be used to send measurements ('MQTT' or 'HTTP')
+     * @param maxBatchSize  The maximum number of measurement groups sent on a single batch
+     * @param maxAgeMillis  The maximum time a measurement waits on the buffer before being sent
+     * @param coalesce      If measurement groups of a batch are to be merged into a single group keeping only
+     *                      the latest value of each attribute
+     */
+    public ObservationBatcher(FiwareIotClient client, String protocol, int maxBatchSize, long maxAgeMillis, boolean coalesce) {
+        this(client, protocol, maxBatchSize, maxAgeMillis, coalesce, DEFAULT_THREADS, DEFAULT_QUEUE_SIZE);
+    }
+
+    /*
+     * @param client        The client used to send the batches
+     * @param protocol      The transport protocol to be used to send measurements ('MQTT' or 'HTTP')
+     * @param maxBatchSize  The maximum number of measurement groups sent on a single batch
+     * @param maxAgeMillis  The maximum time a measurement waits on the buffer before being sent
+     * @param coalesce      If measurement groups of a batch are to be merged into a single group keeping only
+     *                      the latest value of each attribute
+     * @param threads       The number of lanes sending batches, which is the maximum number of batches sent at a time
+     * @param queueSize     The maximum number of batches waiting to be sent, split among the lanes
+     */
+    public ObservationBatcher(FiwareIotClient client, String protocol, int maxBatchSize, long maxAgeMillis, boolean coalesce,
+                              int threads, int queueSize) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be at least 1");
+        }
+        if (threads < 1 || queueSize < 1) {
+            throw new IllegalArgumentException("Threads and queue size must be positive");
+        }
+
+        this.client = client;
+        this.protocol = protocol;
+        this.maxBatchSize = maxBatchSize;
+        this.maxAgeMillis = maxAgeMillis;
+        this.coalesce = coalesce;
+
+        int laneQueueSize = Math.max(1, queueSize / threads);
+        this.lanes = new Lane[threads];
+        for (int i = 0; i < threads; i++) {
+            this.lanes[i] = new Lane("fiot-observation-batcher-" + (i + 1), laneQueueSize);
+        }
+
+        this.ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "fiot-observation-batcher-ticker");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        long tick = Math.max(1, maxAgeMillis / 4);
+        this.ticker.scheduleWithFixedDelay(this::flushExpired, tick, tick, TimeUnit.MILLISECONDS);
+    }
+
+    /*
+     * Adds a measurement group of a device to its batch. Blocks while the lane of the device is full.
+     *
+     * @param deviceId          The id of the device in which the measurement was obtained
+     * @param measurementGroup  A measurement group (a map where keys are device attributes and values are measurements for each attribute)
+     * @throws IllegalStateException if the batcher is closed
+     */
+    public void add(String deviceId, Map<String, String> measurementGroup) {
+        this.closeLock.readLock().lock();
+        try {
+            if (this.closed) {
+                throw new IllegalStateException("Batcher is closed");
+            }
+
+            DeviceBatch batch;
+            boolean full;
+            while (true) {
+                batch = this.batches.computeIfAbsent(deviceId, id -> new DeviceBatch());
+                synchronized (batch) {
+                    if (batch.evicted) {
+                        // Forgotten by the ticker after being looked up, the next lookup creates a new one
+                        continue;
+                    }
+                    long now = System.currentTimeMillis();
+                    if (batch.groups.isEmpty()) {
+                        batch.firstAddedAt = now;
+                    }
+                    batch.lastAddedAt = now;
+                    batch.groups.add(measurementGroup);
+                    full = batch.groups.size() >= this.maxBatchSize;
+                }
+                break;
+            }
+
+            if (full) {
+                this.submit(deviceId, batch, true);
+            }
+        } finally {
+            this.closeLock.readLock().unlock();
+        }
+    }
+
+    /*
+     * Adds a single measurement of a device to its batch
+     *
+     * @param deviceId   The id of the device in which the measurement was obtained
+     * @param attribute  The device attribute measured
+     * @param value      The measured value
+     */
+    public void add(String deviceId, String attribute, String value) {
+        this.add(deviceId, Collections.singletonMap(attribute, value));
+    }
+
+    /*
+     * Sends the pending measurements of all devices
+     */
+    public void flush() {
+        this.batches.keySet().forEach(this::flush);
+    }
+
+    /*
+     * Sends the pending measurements of a device
+     *
+     * @param deviceId  The id of the device to be flushed
+     */
+    public void flush(String deviceId) {
+        DeviceBatch batch = this.batches.get(deviceId);
+        if (batch == null) {
+            return;
+        }
+
+        while (this.submit(deviceId, batch, true)) {
+            // More than a batch was pending
+        }
+    }
+
+    /*
+     * Sends the batches whose oldest measurement reached the maximum age and forgets the devices that went idle.
+     * Runs on the ticker, which never waits for a lane and stops for good on the first exception escaping it.
+     */
+    private void flushExpired() {
+        long now = System.currentTimeMillis();
+
+        try {
+            this.batches.forEach((deviceId, batch) -> {
+                synchronized (batch) {
+                    if (batch.groups.isEmpty()) {
+                        if (now - batch.lastAddedAt >= this.maxAgeMillis) {
+                            batch.evicted = true;
+                            this.batches.remove(deviceId, batch);
+                        }
+                        return;
+                    }
+                    if (now - batch.firstAddedAt < this.maxAgeMillis) {
+                        return;
+                    }
+                }
+                this.submit(deviceId, batch, false);
+            });
+        } catch (RuntimeException e) {
+            LOG.warn("Could not send the expired batches", e);
+        }
+    }
+
+    /*
+     * Closes the batch of a device, with up to maxBatchSize measurement groups, and queues it on the lane of the device.
+     * The space on the lane is taken first, without holding the lock of the device batch, while draining and
+     * queuing happen holding it, so the batches of a device reach its lane in the order they were closed.
+     *
+     * @param wait  If the caller waits for space on a full lane, instead of leaving the batch to a later attempt
+     * @return      True if measurement groups were left on the batch of the device after queuing a batch
+     * @throws IllegalStateException if the batcher was closed
+     */
+    private boolean submit(String deviceId, DeviceBatch batch, boolean wait) {
+        Lane lane = this.lanes[Math.floorMod(deviceId.hashCode(), this.lanes.length)];
+        if (!wait) {
+            if (!lane.capacity.tryAcquire()) {
+                LOG.debug(() -> String.format("The lane of device '%s' is full, its batch is left for the next tick", deviceId));
+                return false;
+            }
+        } else {
+            try {
+                lane.capacity.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                LOG.warn(String.format("Interrupted while waiting to send the batch of device '%s', the batch is left for the next flush", deviceId));
+                return false;
+            }
+        }
+
+        synchronized (batch) {
+            List<Map<String, String>> groups = batch.drain(this.maxBatchSize);
+            if (groups.isEmpty()) {
+                // Sent by another thread while waiting for the lane
+                lane.capacity.release();
+                return false;
+            }
+
+            try {
+                lane.executor.execute(() -> {
+                    try {
+                        this.send(deviceId, groups);
+                    } finally {
+                        lane.capacity.release();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                lane.capacity.release();
+                this.failedBatches.incrementAndGet();
+                throw new IllegalStateException("Batcher is closed");
+            }
+            return !batch.groups.isEmpty();
+        }
+    }
+
+    private void send(String deviceId, List<Map<String, String>> groups) {
+        List<Map<String, String>> toSend = this.coalesce ? coalesceGroups(groups) : groups;
+
+        String result;
+        try {
+            result = this.client.sendObservation(deviceId, toSend, this.protocol);
+        } catch (RuntimeException e) {
+            this.failedBatches.incrementAndGet();
+            LOG.warn(String.format("Could not send the batch of device '%s'", deviceId), e);
+            return;
+        }
+
+        // Batches kept on the observation journal are delivered later, so they are not failures
+        String status = new JSONObject(result).optString("result");
+        if (!"OK".equals(status) && !"QUEUED".equals(status)) {
+            this.failedBatches.incrementAndGet();
+        } else {
+            this.sentBatches.incrementAndGet();
+        }
+    }
+
+    /*
+     * Auxiliary method to merge a list of measurement groups into a single group with the latest value of each attribute
+     *
+     * @param groups  The measurement groups to be merged
+     * @return        A list with the merged measurement group
+     */
+    private static List<Map<String, String>> coalesceGroups(List<Map<String, String>> groups) {
+        Map<String, String> merged = new LinkedHashMap<>();
+        groups.forEach(merged::putAll);
+        return Collections.singletonList(merged);
+    }
+
+    /*
+     * Sends the pending measurements and stops the background threads
+     */
+    @Override
+    public void close() {
+        this.closeLock.writeLock().lock();
+        try {
+            if (this.closed) {
+                return;
+            }
+            this.closed = true;
+        } finally {
+            this.closeLock.writeLock().unlock();
+        }
+
+        long timeout = Math.max(this.maxAgeMillis, 1000) * 10;
+        try {
+            // A tick in progress may still be queuing expired batches, which must reach the lanes before they stop
+            this.ticker.shutdown();
+            this.ticker.awaitTermination(timeout, TimeUnit.MILLISECONDS);
+
+            this.flush();
+            for (Lane lane : this.lanes) {
+                lane.executor.shutdown();
+            }
+            for (Lane lane : this.lanes) {
+                lane.executor.awaitTermination(timeout, TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /*
+     * @return  The number of measurement groups waiting on the buffers
+     */
+    public int getPendingMeasurements() {
+        int pending = 0;
+        for (DeviceBatch batch : this.batches.values()) {
+            synchronized (batch) {
+                pending += batch.groups.size();
+            }
+        }
+        return pending;
+    }
+
+    /*
+     * @return  The number of batches waiting for a lane to send them
+     */
+    public int getQueuedBatches() {
+        int queued = 0;
+        for (Lane lane : this.lanes) {
+            queued += lane.executor.getQueue().size();
+        }
+        return queued;
+    }
+
+    public long getSentBatches() {
+        return sentBatches.get();
+    }
+
+    public long getFailedBatches() {
+        return failedBatches.get();
+    }
+
+    public String getProtocol() {
+        return protocol;
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    public long getMaxAgeMillis() {
+        return maxAgeMillis;
+    }
+
+    public boolean isCoalesce() {
+        return coalesce;
+    }
+
+    /*
+     * Single thread sending batches in order, with a bounded number of batches waiting
+     */
+    private static class Lane {
+        private final ThreadPoolExecutor executor;
+        private final Semaphore capacity;
+
+        private Lane(String threadName, int queueSize) {
+            // The queue is bounded by the semaphore, which makes producers wait instead of rejecting their batches
+            this.executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), r -> {
+                Thread thread = new Thread(r, threadName);
+                thread.setDaemon(true);
+                return thread;
+            });
+            // One more permit for the batch being sent
+            this.capacity = new Semaphore(queueSize + 1);
+        }
+    }
+
+    private static class DeviceBatch {
+        private List<Map<String, String>> groups = new ArrayList<>();
+        private long firstAddedAt;
+        private long lastAddedAt;
+        // Set when the batch is removed from the map, so an add that looked it up before retries on a new one
+        private boolean evicted;
+
+        /*
+         * @param max  The maximum number of measurement groups to be drained
+         * @return     The oldest measurement groups of the batch, which are removed from it
+         */
+        private List<Map<String, String>> drain(int max) {
+            if (this.groups.size() <= max) {
+                List<Map<String, String>> drained = this.groups;
+                this.groups = new ArrayList<>();
+                return drained;
+            }
+            List<Map<String, String>> head = this.groups.subList(0, max);
+            List<Map<String, String>> drained = new ArrayList<>(head);
+            head.clear();
+            return drained;
+        }
+    }
+
+}
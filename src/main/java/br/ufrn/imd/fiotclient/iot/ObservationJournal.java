@@ -0,0 +1,524 @@
+package br.ufrn.imd.fiotclient.iot;
+
+import br.ufrn.imd.fiotclient.logging.Log;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+
+/*
+ * Append-only store-and-forward journal of UL observations, kept on memory-mapped segment files.
+ *
+ * Observations that could not be delivered (or all observations, in write-ahead mode) are appended to the
+ * current segment, which costs a copy to memory and never waits for the network. A background thread
+ * replays the journal in order, stopping at the first failure and trying again later, and deletes each
+ * segment once all its observations are delivered. Observations refused by the platform are dropped and counted,
+ * so they do not block the ones behind them. When the journal reaches its maximum number of segments,
+ * the oldest segment is dropped to make room.
+ *
+ * Segment layout: an 8 byte header starting with the offset of the next observation to be replayed, followed by
+ * records made of length, CRC32, protocol, device id and payload. A zero length marks the end of the written data.
+ * Data written to a mapped segment survives a crash of the process; it is forced to disk on rotation and on close.
+ */
+public class ObservationJournal implements Closeable {
+
+    public enum Mode {
+        /* Observations are sent directly and journaled only when delivery fails */
+        ON_FAILURE,
+        /* Observations are always journaled and then delivered by the replay thread */
+        WRITE_AHEAD
+    }
+
+    public enum Delivery {
+        /* The observation was delivered */
+        DELIVERED,
+        /* The observation could not be delivered now, such as on a transport error, 429 or 5xx, and is kept for a later attempt */
+        RETRY,
+        /* The observation was refused and would be refused again, so it is dropped */
+        REJECTED
+    }
+
+    /*
+     * Delivers a journaled observation
+     */
+    public interface Sender {
+        Delivery send(String deviceId, byte[] payload, String protocol);
+    }
+
+    public static final int DEFAULT_SEGMENT_SIZE = 8 * 1024 * 1024;
+    public static final int DEFAULT_MAX_SEGMENTS = 16;
+    public static final long DEFAULT_REPLAY_INTERVAL_MILLIS = 5000;
+
+    private static final Log LOG = Log.getLog(ObservationJournal.class);
+
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final int HEADER_SIZE = 8;
+    private static final int RECORD_OVERHEAD = 4 + 4 + 1 + 2;
+
+    private static final String[] PROTOCOLS = {"MQTT", "HTTP"};
+
+    private final File directory;
+    private final Mode mode;
+    private final int segmentSize;
+    private final int maxSegments;
+    private final Sender sender;
+
+    private final Deque<Segment> segments = new ArrayDeque<>();
+    private long nextSequence;
+
+    private long pendingRecords;
+    private long droppedRecords;
+    private long rejectedRecords;
+    private long replayedRecords;
+
+    private final ScheduledExecutorService replayExecutor;
+    private final AtomicBoolean replayScheduled = new AtomicBoolean();
+    private volatile boolean closed;
+
+    /*
+     * Opens the journal on a directory, recovering the observations left by a previous run
+     *
+     * @param directory             The directory in which the segment files are kept
+     * @param mode                  When observations are written to the journal
+     * @param segmentSize           The size, in bytes, of each segment file
+     * @param maxSegments           The maximum number of segment files kept on the directory
+     * @param replayIntervalMillis  The interval between replay attempts while there are pending observations
+     * @param sender                The function used to deliver journaled observations
+     */
+    public ObservationJournal(File directory, Mode mode, int segmentSize, int maxSegments, long replayIntervalMillis,
+                              Sender sender) throws IOException {
+        if (segmentSize <= HEADER_SIZE + RECORD_OVERHEAD) {
+            throw new IllegalArgumentException("Segment size is too small");
+        }
+        if (maxSegments < 1) {
+            throw new IllegalArgumentException("Max segments must be at least 1");
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException(String.format("Could not create journal directory %s", directory));
+        }
+
+        this.directory = directory;
+        this.mode = mode;
+        this.segmentSize = segmentSize;
+        this.maxSegments = maxSegments;
+        this.sender = sender;
+
+        this.recover();
+
+        this.replayExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "fiot-observation-journal");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.replayExecutor.scheduleWithFixedDelay(this::replay, replayIntervalMillis, replayIntervalMillis,
+                                                   TimeUnit.MILLISECONDS);
+        if (this.pendingRecords > 0) {
+            this.requestReplay();
+        }
+    }
+
+    /*
+     * Opens the segments found on the directory, ordered by their sequence number
+     */
+    private void recover() throws IOException {
+        File[] files = this.directory.listFiles((dir, name) -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX));
+        if (files != null) {
+            Arrays.sort(files);
+            for (File file : files) {
+                Segment segment = Segment.open(file, sequenceOf(file), this.segmentSize);
+                if (segment.pendingRecords == 0 && segment.isFull(RECORD_OVERHEAD + 1)) {
+                    segment.delete();
+                    continue;
+                }
+                this.segments.addLast(segment);
+                this.pendingRecords += segment.pendingRecords;
+            }
+        }
+        this.nextSequence = this.segments.isEmpty() ? 0 : this.segments.getLast().sequence + 1;
+    }
+
+    private static long sequenceOf(File file) {
+        String name = file.getName();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    /*
+     * Appends an observation to the journal and wakes up the replay thread
+     *
+     * @param deviceId  The id of the device in which the measurements were obtained
+     * @param payload   The UL payload of the observation
+     * @param protocol  The transport protocol to be used to deliver the observation ('MQTT' or 'HTTP')
+     * @return          False if the observation is larger than a segment and cannot be journaled
+     */
+    public boolean append(String deviceId, byte[] payload, String protocol) throws IOException {
+        byte protocolCode = protocolCode(protocol);
+        byte[] id = deviceId.getBytes(StandardCharsets.UTF_8);
+        int bodyLength = 1 + 2 + id.length + payload.length;
+        if (id.length > Short.MAX_VALUE || HEADER_SIZE + 8 + bodyLength > this.segmentSize) {
+            return false;
+        }
+
+        synchronized (this) {
+            if (this.closed) {
+                throw new IOException("Journal is closed");
+            }
+
+            Segment segment = this.segments.peekLast();
+            if (segment == null || !segment.hasRoom(8 + bodyLength)) {
+                segment = this.rotate();
+            }
+            segment.append(protocolCode, id, payload);
+            this.pendingRecords++;
+        }
+
+        this.requestReplay();
+        return true;
+    }
+
+    /*
+     * Starts a new segment, dropping the oldest one when the journal is full
+     */
+    private Segment rotate() throws IOException {
+        Segment current = this.segments.peekLast();
+        if (current != null) {
+            current.force();
+        }
+
+        while (this.segments.size() >= this.maxSegments) {
+            Segment oldest = this.segments.pollFirst();
+            this.pendingRecords -= oldest.pendingRecords;
+            this.droppedRecords += oldest.pendingRecords;
+            oldest.delete();
+        }
+
+        File file = new File(this.directory, String.format("%s%020d%s", SEGMENT_PREFIX, this.nextSequence, SEGMENT_SUFFIX));
+        Segment segment = Segment.open(file, this.nextSequence++, this.segmentSize);
+        this.segments.addLast(segment);
+        return segment;
+    }
+
+    /*
+     * Asks the replay thread to run as soon as possible
+     */
+    public void requestReplay() {
+        if (!this.closed && this.replayScheduled.compareAndSet(false, true)) {
+            try {
+                this.replayExecutor.execute(this::replay);
+            } catch (RuntimeException e) {
+                this.replayScheduled.set(false);
+            }
+        }
+    }
+
+    /*
+     * Delivers the journaled observations in order, until the journal is empty or a delivery must be retried
+     */
+    private void replay() {
+        this.replayScheduled.set(false);
+
+        while (!this.closed) {
+            Segment segment;
+            Record record;
+            synchronized (this) {
+                segment = this.segments.peekFirst();
+                if (segment == null) {
+                    return;
+                }
+                record = segment.peek();
+                if (record == null) {
+                    if (segment == this.segments.peekLast()) {
+                        // Nothing left to replay, the segment keeps receiving appends
+                        return;
+                    }
+                    this.segments.pollFirst();
+                    try {
+                        segment.delete();
+                    } catch (IOException e) {
+                        LOG.warn("Could not delete a replayed journal segment", e);
+                    }
+                    continue;
+                }
+            }
+
+            Delivery delivery;
+            try {
+                delivery = this.sender.send(record.deviceId, record.payload, record.protocol);
+            } catch (RuntimeException e) {
+                delivery = Delivery.RETRY;
+            }
+            if (delivery == null || delivery == Delivery.RETRY) {
+                return;
+            }
+
+            synchronized (this) {
+                // The segment may have been dropped by a rotation while the record was being delivered
+                if (this.segments.peekFirst() == segment) {
+                    segment.consume(record);
+                    this.pendingRecords--;
+                    if (delivery == Delivery.DELIVERED) {
+                        this.replayedRecords++;
+                    } else {
+                        this.rejectedRecords++;
+                    }
+                }
+            }
+        }
+    }
+
+    private static byte protocolCode(String protocol) {
+        for (byte i = 0; i < PROTOCOLS.length; i++) {
+            if (PROTOCOLS[i].equals(protocol)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException(String.format("Unknown transport protocol '%s'", protocol));
+    }
+
+    /*
+     * @return  True if there are observations waiting to be delivered
+     */
+    public synchronized boolean hasPending() {
+        return this.pendingRecords > 0;
+    }
+
+    public synchronized long getPendingRecords() {
+        return pendingRecords;
+    }
+
+    /*
+     * @return  The number of observations lost because the journal was full
+     */
+    public synchronized long getDroppedRecords() {
+        return droppedRecords;
+    }
+
+    /*
+     * @return  The number of observations dropped because they were refused on replay
+     */
+    public synchronized long getRejectedRecords() {
+        return rejectedRecords;
+    }
+
+    public synchronized long getReplayedRecords() {
+        return replayedRecords;
+    }
+
+    public synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /*
+     * Stops the replay thread and closes the segments. Pending observations are kept on disk for the next run.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (this.closed) {
+                return;
+            }
+            this.closed = true;
+        }
+
+        this.replayExecutor.shutdown();
+        try {
+            this.replayExecutor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        synchronized (this) {
+            for (Segment segment : this.segments) {
+                segment.force();
+                segment.close();
+            }
+            this.segments.clear();
+        }
+    }
+
+    /*
+     * A journaled observation read from a segment
+     */
+    private static class Record {
+        private final String deviceId;
+        private final byte[] payload;
+        private final String protocol;
+        private final int nextOffset;
+
+        private Record(String deviceId, byte[] payload, String protocol, int nextOffset) {
+            this.deviceId = deviceId;
+            this.payload = payload;
+            this.protocol = protocol;
+            this.nextOffset = nextOffset;
+        }
+    }
+
+    /*
+     * A memory-mapped segment file. Accessed only while holding the journal lock.
+     */
+    private static class Segment {
+        private final File file;
+        private final long sequence;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+
+        private int readOffset;
+        private int writeOffset;
+        private long pendingRecords;
+
+        private Segment(File file, long sequence, FileChannel channel, MappedByteBuffer buffer) {
+            this.file = file;
+            this.sequence = sequence;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+
+        /*
+         * Maps a segment file, creating it if needed, and finds its read and write offsets
+         */
+        private static Segment open(File file, long sequence, int size) throws IOException {
+            FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                                                   StandardOpenOption.WRITE);
+            int mappedSize = (int) Math.max(size, channel.size());
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, mappedSize);
+
+            Segment segment = new Segment(file, sequence, channel, buffer);
+            segment.scan();
+            return segment;
+        }
+
+        /*
+         * Walks the records after the read offset, stopping at the end of data or at a record torn by a crash
+         */
+        private void scan() {
+            int readOffset = this.buffer.getInt(0);
+            if (readOffset < HEADER_SIZE || readOffset > this.buffer.capacity()) {
+                readOffset = HEADER_SIZE;
+            }
+            this.readOffset = readOffset;
+
+            int offset = readOffset;
+            while (true) {
+                int next = this.validRecordEnd(offset);
+                if (next < 0) {
+                    break;
+                }
+                offset = next;
+                this.pendingRecords++;
+            }
+            this.writeOffset = offset;
+        }
+
+        /*
+         * @return  The offset after the record starting at the given offset, or -1 if there is no valid record there
+         */
+        private int validRecordEnd(int offset) {
+            if (offset + 8 > this.buffer.capacity()) {
+                return -1;
+            }
+            int length = this.buffer.getInt(offset);
+            if (length < 3 || offset + 8 + length > this.buffer.capacity()) {
+                return -1;
+            }
+
+            CRC32 crc = new CRC32();
+            for (int i = offset + 8; i < offset + 8 + length; i++) {
+                crc.update(this.buffer.get(i));
+            }
+            return (int) crc.getValue() == this.buffer.getInt(offset + 4) ? offset + 8 + length : -1;
+        }
+
+        private boolean hasRoom(int recordLength) {
+            return this.writeOffset + recordLength <= this.buffer.capacity();
+        }
+
+        private boolean isFull(int recordLength) {
+            return !this.hasRoom(recordLength);
+        }
+
+        private void append(byte protocol, byte[] deviceId, byte[] payload) {
+            int bodyLength = 1 + 2 + deviceId.length + payload.length;
+
+            CRC32 crc = new CRC32();
+            crc.update(protocol);
+            crc.update((deviceId.length >>> 8) & 0xFF);
+            crc.update(deviceId.length & 0xFF);
+            crc.update(deviceId);
+            crc.update(payload);
+
+            int offset = this.writeOffset;
+            this.buffer.position(offset + 8);
+            this.buffer.put(protocol);
+            this.buffer.putShort((short) deviceId.length);
+            this.buffer.put(deviceId);
+            this.buffer.put(payload);
+            this.buffer.putInt(offset + 4, (int) crc.getValue());
+            // The length is written last, so a torn record is never taken as complete
+            this.buffer.putInt(offset, bodyLength);
+
+            this.writeOffset = offset + 8 + bodyLength;
+            this.pendingRecords++;
+        }
+
+        private Record peek() {
+            if (this.readOffset >= this.writeOffset) {
+                return null;
+            }
+
+            int offset = this.readOffset;
+            int length = this.buffer.getInt(offset);
+            String protocol = PROTOCOLS[this.buffer.get(offset + 8)];
+            int idLength = this.buffer.getShort(offset + 9);
+
+            byte[] id = new byte[idLength];
+            byte[] payload = new byte[length - 3 - idLength];
+            this.buffer.position(offset + 11);
+            this.buffer.get(id);
+            this.buffer.get(payload);
+
+            return new Record(new String(id, StandardCharsets.UTF_8), payload, protocol, offset + 8 + length);
+        }
+
+        private void consume(Record record) {
+            this.readOffset = record.nextOffset;
+            this.buffer.putInt(0, this.readOffset);
+            this.pendingRecords--;
+        }
+
+        private void force() {
+            this.buffer.force();
+        }
+
+        private void close() throws IOException {
+            this.channel.close();
+        }
+
+        private void delete() throws IOException {
+            this.close();
+            if (!this.file.delete()) {
+                this.file.deleteOnExit();
+            }
+        }
+    }
+
+}
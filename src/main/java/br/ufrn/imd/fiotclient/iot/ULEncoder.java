@@ -0,0 +1,259 @@
+package br.ufrn.imd.fiotclient.iot;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+ * Reusable encoder of UL 2.0 payloads that writes measurements directly into a byte buffer.
+ * Numeric and boolean values are written from primitives and attribute object ids are encoded once and reused,
+ * so encoding a measurement does not allocate once the buffer reached its working size.
+ *
+ * Usage: encoder.measurement("DISTANCE_SENSOR_001").put("d", 12.5).put("t", 1526578432L)
+ *
+ * An encoder instance is not thread safe and is meant to be reused by a single thread.
+ */
+public class ULEncoder {
+
+    public static final int DEFAULT_DECIMALS = 6;
+
+    private static final byte FIELD_SEPARATOR = '|';
+    private static final byte GROUP_SEPARATOR = '#';
+    private static final byte[] TRUE = "true".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] FALSE = "false".getBytes(StandardCharsets.US_ASCII);
+
+    private static final long[] POWERS_OF_TEN = {
+            1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L, 1000000000L
+    };
+
+    private final Map<String, byte[]> objectIds = new HashMap<>();
+    private final int decimals;
+    private final long scale;
+
+    private byte[] buffer;
+    private int length;
+    private boolean groupEmpty;
+    private String deviceId;
+
+    public ULEncoder() {
+        this(256, DEFAULT_DECIMALS);
+    }
+
+    /*
+     * @param initialCapacity  The initial size of the buffer, in bytes
+     * @param decimals         The maximum number of decimal places written for double values (0 to 9)
+     */
+    public ULEncoder(int initialCapacity, int decimals) {
+        if (decimals < 0 || decimals >= POWERS_OF_TEN.length) {
+            throw new IllegalArgumentException("Decimals must be between 0 and " + (POWERS_OF_TEN.length - 1));
+        }
+
+        this.buffer = new byte[Math.max(16, initialCapacity)];
+        this.decimals = decimals;
+        this.scale = POWERS_OF_TEN[decimals];
+        this.reset();
+    }
+
+    /*
+     * Starts a new payload for a device, discarding the current content
+     *
+     * @param deviceId  The id of the device in which the measurements were obtained
+     * @return          This encoder
+     */
+    public ULEncoder measurement(String deviceId) {
+        this.reset();
+        this.deviceId = deviceId;
+        return this;
+    }
+
+    /*
+     * Starts a new measurement group on the current payload
+     *
+     * @return  This encoder
+     */
+    public ULEncoder group() {
+        if (!this.groupEmpty) {
+            this.ensureCapacity(1);
+            this.buffer[this.length++] = GROUP_SEPARATOR;
+            this.groupEmpty = true;
+        }
+        return this;
+    }
+
+    public ULEncoder put(String objectId, double value) {
+        this.writeObjectId(objectId);
+        this.writeDouble(value);
+        return this;
+    }
+
+    public ULEncoder put(String objectId, long value) {
+        this.writeObjectId(objectId);
+        this.writeLong(value);
+        return this;
+    }
+
+    public ULEncoder put(String objectId, boolean value) {
+        this.writeObjectId(objectId);
+        this.writeBytes(value ? TRUE : FALSE);
+        return this;
+    }
+
+    public ULEncoder put(String objectId, String value) {
+        this.writeObjectId(objectId);
+        this.writeString(value);
+        return this;
+    }
+
+    /*
+     * Discards the current content, keeping the buffer and the encoded object ids
+     */
+    public void reset() {
+        this.length = 0;
+        this.groupEmpty = true;
+        this.deviceId = null;
+    }
+
+    public String getDeviceId() {
+        return deviceId;
+    }
+
+    /*
+     * @return  The number of bytes of the current payload
+     */
+    public int length() {
+        return length;
+    }
+
+    /*
+     * @return  The internal buffer, whose first length() bytes hold the current payload
+     */
+    public byte[] buffer() {
+        return buffer;
+    }
+
+    /*
+     * @return  A copy of the current payload
+     */
+    public byte[] toByteArray() {
+        return Arrays.copyOf(this.buffer, this.length);
+    }
+
+    public void writeTo(OutputStream outputStream) throws IOException {
+        outputStream.write(this.buffer, 0, this.length);
+    }
+
+    @Override
+    public String toString() {
+        return new String(this.buffer, 0, this.length, StandardCharsets.UTF_8);
+    }
+
+    private void writeObjectId(String objectId) {
+        byte[] encoded = this.objectIds.get(objectId);
+        if (encoded == null) {
+            encoded = objectId.getBytes(StandardCharsets.UTF_8);
+            this.objectIds.put(objectId, encoded);
+        }
+
+        this.ensureCapacity(encoded.length + 2);
+        if (!this.groupEmpty) {
+            this.buffer[this.length++] = FIELD_SEPARATOR;
+        }
+        System.arraycopy(encoded, 0, this.buffer, this.length, encoded.length);
+        this.length += encoded.length;
+        this.buffer[this.length++] = FIELD_SEPARATOR;
+        this.groupEmpty = false;
+    }
+
+    private void writeDouble(double value) {
+        double absolute = Math.abs(value);
+        if (Double.isNaN(value) || Double.isInfinite(value) || absolute >= Long.MAX_VALUE / this.scale) {
+            // Out of the fixed point range, rare enough to accept the allocation
+            this.writeString(Double.toString(value));
+            return;
+        }
+
+        long scaled = Math.round(absolute * this.scale);
+        if (value < 0 && scaled != 0) {
+            this.ensureCapacity(1);
+            this.buffer[this.length++] = '-';
+        }
+
+        this.writeLong(scaled / this.scale);
+
+        long fraction = scaled % this.scale;
+        if (fraction != 0) {
+            this.ensureCapacity(this.decimals + 1);
+            this.buffer[this.length++] = '.';
+
+            int end = this.length + this.decimals;
+            for (int i = end - 1; i >= this.length; i--) {
+                this.buffer[i] = (byte) ('0' + fraction % 10);
+                fraction /= 10;
+            }
+
+            // Drops trailing zeros of the fraction
+            while (this.buffer[end - 1] == '0') {
+                end--;
+            }
+            this.length = end;
+        }
+    }
+
+    private void writeLong(long value) {
+        if (value == Long.MIN_VALUE) {
+            this.writeString(Long.toString(value));
+            return;
+        }
+
+        this.ensureCapacity(20);
+        if (value < 0) {
+            this.buffer[this.length++] = '-';
+            value = -value;
+        }
+
+        int digits = 1;
+        for (long v = value; v >= 10; v /= 10) {
+            digits++;
+        }
+
+        int position = this.length + digits;
+        do {
+            this.buffer[--position] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+
+        this.length += digits;
+    }
+
+    private void writeString(String value) {
+        int size = value.length();
+        this.ensureCapacity(size);
+
+        for (int i = 0; i < size; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x80) {
+                // Non ASCII content, falls back to the charset encoder for the remaining characters
+                this.writeBytes(value.substring(i).getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            this.buffer[this.length++] = (byte) c;
+        }
+    }
+
+    private void writeBytes(byte[] bytes) {
+        this.ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, this.buffer, this.length, bytes.length);
+        this.length += bytes.length;
+    }
+
+    private void ensureCapacity(int additional) {
+        int required = this.length + additional;
+        if (required > this.buffer.length) {
+            this.buffer = Arrays.copyOf(this.buffer, Math.max(required, this.buffer.length * 2));
+        }
+    }
+
+}
@@ -0,0 +1,187 @@
+package br.ufrn.imd.fiotclient.logging;
+
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/*
+ * Leveled logger of the clients. Debug and trace messages are built by suppliers, which are only called when the
+ * level is enabled, so disabled messages cost a single comparison on the request path.
+ *
+ * The level is INFO by default, so requests and payloads, logged as DEBUG and TRACE, are not written.
+ * Payloads are truncated before being written, and debug and trace messages can be sampled to keep verbose
+ * logging affordable under load. Messages are written to the standard error by default, or to any LogSink.
+ *
+ * The defaults can be set with the system properties fiotclient.log.level, fiotclient.log.maxpayload and
+ * fiotclient.log.sampling.
+ *
+ * Usage:
+ *   private static final Log LOG = Log.getLog(MyClass.class);
+ *   LOG.debug(() -> String.format("Sending payload %s", Log.truncate(payload)));
+ */
+public final class Log {
+
+    public static final int DEFAULT_MAX_PAYLOAD_LENGTH = 512;
+
+    private static volatile LogLevel level = parseLevel(System.getProperty("fiotclient.log.level"), LogLevel.INFO);
+    private static volatile int maxPayloadLength = Integer.getInteger("fiotclient.log.maxpayload", DEFAULT_MAX_PAYLOAD_LENGTH);
+    private static volatile int sampling = Math.max(1, Integer.getInteger("fiotclient.log.sampling", 1));
+    private static volatile LogSink sink = Log::writeToStandardError;
+
+    private final String name;
+    private final AtomicLong verboseMessages = new AtomicLong();
+
+    private Log(String name) {
+        this.name = name;
+    }
+
+    /*
+     * @param type  The class that writes the messages
+     * @return      A logger named after the class
+     */
+    public static Log getLog(Class<?> type) {
+        return new Log(type.getName());
+    }
+
+    public boolean isEnabled(LogLevel messageLevel) {
+        return messageLevel != LogLevel.OFF && messageLevel.compareTo(level) >= 0;
+    }
+
+    /*
+     * @param message  The supplier of the message, called only if the message is written
+     */
+    public void trace(Supplier<String> message) {
+        this.verbose(LogLevel.TRACE, message);
+    }
+
+    /*
+     * @param message  The supplier of the message, called only if the message is written
+     */
+    public void debug(Supplier<String> message) {
+        this.verbose(LogLevel.DEBUG, message);
+    }
+
+    public void info(String message) {
+        if (this.isEnabled(LogLevel.INFO)) {
+            this.write(LogLevel.INFO, message, null);
+        }
+    }
+
+    public void warn(String message) {
+        this.warn(message, null);
+    }
+
+    public void warn(String message, Throwable error) {
+        if (this.isEnabled(LogLevel.WARN)) {
+            this.write(LogLevel.WARN, message, error);
+        }
+    }
+
+    public void error(String message, Throwable error) {
+        if (this.isEnabled(LogLevel.ERROR)) {
+            this.write(LogLevel.ERROR, message, error);
+        }
+    }
+
+    /*
+     * Writes a debug or trace message, keeping one of every sampling messages of this logger
+     */
+    private void verbose(LogLevel messageLevel, Supplier<String> message) {
+        if (!this.isEnabled(messageLevel)) {
+            return;
+        }
+        int every = sampling;
+        if (every > 1 && this.verboseMessages.getAndIncrement() % every != 0) {
+            return;
+        }
+        this.write(messageLevel, message.get(), null);
+    }
+
+    private void write(LogLevel messageLevel, String message, Throwable error) {
+        try {
+            sink.write(messageLevel, this.name, message, error);
+        } catch (RuntimeException e) {
+            // A failing sink must not fail the request being logged
+        }
+    }
+
+    /*
+     * @param payload  A payload or response body to be logged
+     * @return         The payload cut to the maximum payload length, with the number of characters left out
+     */
+    public static String truncate(CharSequence payload) {
+        if (payload == null) {
+            return "null";
+        }
+        int max = maxPayloadLength;
+        if (max < 0 || payload.length() <= max) {
+            return payload.toString();
+        }
+        return payload.subSequence(0, max) + String.format("... (%d more characters)", payload.length() - max);
+    }
+
+    private static void writeToStandardError(LogLevel messageLevel, String name, String message, Throwable error) {
+        PrintStream out = System.err;
+        out.println(String.format("%tF %<tT.%<tL %-5s [%s] %s - %s", System.currentTimeMillis(), messageLevel,
+                                  Thread.currentThread().getName(), name, message));
+        if (error != null) {
+            error.printStackTrace(out);
+        }
+    }
+
+    private static LogLevel parseLevel(String value, LogLevel defaultValue) {
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return LogLevel.valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return defaultValue;
+        }
+    }
+
+    public static LogLevel getLevel() {
+        return level;
+    }
+
+    /*
+     * @param newLevel  The least severe level written by all loggers
+     */
+    public static void setLevel(LogLevel newLevel) {
+        level = newLevel;
+    }
+
+    public static int getMaxPayloadLength() {
+        return maxPayloadLength;
+    }
+
+    /*
+     * @param length  The number of characters of payloads kept by truncate, or a negative value to keep them whole
+     */
+    public static void setMaxPayloadLength(int length) {
+        maxPayloadLength = length;
+    }
+
+    public static int getSampling() {
+        return sampling;
+    }
+
+    /*
+     * @param every  Only one of every such number of debug and trace messages of each logger is written. 1 writes all of them
+     */
+    public static void setSampling(int every) {
+        sampling = Math.max(1, every);
+    }
+
+    public static LogSink getSink() {
+        return sink;
+    }
+
+    /*
+     * @param newSink  The destination of the messages of all loggers
+     */
+    public static void setSink(LogSink newSink) {
+        sink = newSink != null ? newSink : Log::writeToStandardError;
+    }
+
+}
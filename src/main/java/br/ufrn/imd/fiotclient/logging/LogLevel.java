@@ -0,0 +1,13 @@
+package br.ufrn.imd.fiotclient.logging;
+
+/*
+ * Levels of the client log messages, from the most to the least verbose
+ */
+public enum LogLevel {
+    TRACE,
+    DEBUG,
+    INFO,
+    WARN,
+    ERROR,
+    OFF
+}
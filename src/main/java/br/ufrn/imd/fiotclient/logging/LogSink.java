@@ -0,0 +1,21 @@
+package br.ufrn.imd.fiotclient.logging;
+
+/*
+ * Destination of the client log messages. Only messages whose level is enabled reach the sink, already built,
+ * so a sink can forward them to any logging framework of the application.
+ *
+ * Usage:
+ *   Log.setSink((level, name, message, error) -> LoggerFactory.getLogger(name).info(message, error));
+ */
+@FunctionalInterface
+public interface LogSink {
+
+    /*
+     * @param level    The level of the message
+     * @param name     The name of the logger, which is the name of the class that wrote the message
+     * @param message  The message
+     * @param error    The error that caused the message, or null if there is none
+     */
+    void write(LogLevel level, String name, String message, Throwable error);
+
+}
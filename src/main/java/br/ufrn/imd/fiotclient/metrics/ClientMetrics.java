@@ -0,0 +1,100 @@
+package br.ufrn.imd.fiotclient.metrics;
+
+import br.ufrn.imd.fiotclient.transport.HttpTransport;
+
+import java.net.URI;
+import java.util.function.LongSupplier;
+
+/*
+ * Receives the measurements of the clients. Every attempt of a request is reported, including retries,
+ * on the thread that executed it, so implementations must be thread-safe and must not block.
+ *
+ * All methods do nothing by default. MetricsRegistry is the implementation provided by the library,
+ * and other implementations can forward the measurements to an existing monitoring system.
+ *
+ * Usage:
+ *   MetricsRegistry metrics = new MetricsRegistry();
+ *   client.setMetrics(metrics);
+ *   metrics.registerMBean("orion");
+ */
+public interface ClientMetrics {
+
+    ClientMetrics NONE = new ClientMetrics() {
+    };
+
+    /*
+     * Called before an attempt of an HTTP request is sent
+     *
+     * @param method  The HTTP method of the request
+     * @param uri     The uri of the request
+     */
+    default void requestStarted(String method, URI uri) {
+    }
+
+    /*
+     * Called when an attempt of an HTTP request receives a response
+     *
+     * @param method         The HTTP method of the request
+     * @param uri            The uri of the request
+     * @param statusCode     The status code of the response
+     * @param latencyNanos   The time from the start of the attempt to the end of the response
+     * @param bytesSent      The size of the request body
+     * @param bytesReceived  The size of the response body, or -1 if it is streamed to the caller and its size is unknown
+     */
+    default void requestCompleted(String method, URI uri, int statusCode, long latencyNanos, long bytesSent, long bytesReceived) {
+    }
+
+    /*
+     * Called when an attempt of an HTTP request fails without a response
+     *
+     * @param method        The HTTP method of the request
+     * @param uri           The uri of the request
+     * @param latencyNanos  The time from the start of the attempt to the failure
+     * @param bytesSent     The size of the request body
+     * @param error         The cause of the failure
+     */
+    default void requestFailed(String method, URI uri, long latencyNanos, long bytesSent, Throwable error) {
+    }
+
+    /*
+     * Called when a publication to the MQTT broker completes
+     *
+     * @param serverUri     The URI of the broker
+     * @param latencyNanos  The time taken by the publication, including the acknowledgement for QoS 1 and 2
+     * @param bytesSent     The size of the payload
+     * @param success       False if the publication failed
+     */
+    default void publishCompleted(String serverUri, long latencyNanos, long bytesSent, boolean success) {
+    }
+
+    /*
+     * Called when a command received by a device from the MQTT broker is executed and acknowledged
+     *
+     * @param serverUri     The URI of the broker
+     * @param command       The name of the command
+     * @param latencyNanos  The time from the arrival of the command to the publication of its acknowledgement
+     * @param success       False if the command failed or its acknowledgement could not be published
+     */
+    default void commandCompleted(String serverUri, String command, long latencyNanos, boolean success) {
+    }
+
+    /*
+     * Registers a value read whenever the measurements are collected, such as the size of a queue.
+     * A gauge registered with the name of an existing one replaces it.
+     *
+     * @param name   The name of the gauge
+     * @param gauge  The function reading the current value
+     */
+    default void registerGauge(String name, LongSupplier gauge) {
+    }
+
+    /*
+     * Called when the metrics are set on a client, so the in-flight window and the connection pool of its
+     * transport can be measured
+     *
+     * @param transport  The transport of the client
+     */
+    default void bindTransport(HttpTransport transport) {
+    }
+
+}
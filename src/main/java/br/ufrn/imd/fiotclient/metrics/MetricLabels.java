@@ -0,0 +1,63 @@
+package br.ufrn.imd.fiotclient.metrics;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/*
+ * Builds the labels under which requests are recorded. Operations are named by method and path template, so
+ * requests to different entities or devices share a histogram instead of creating one per id.
+ *
+ * Examples:
+ *   GET http://orion:1026/v2/entities/ROOM_1?type=Room  ->  operation "GET /v2/entities/{id}", target "orion:1026"
+ *   POST http://iota:7896/iot/d?k=KEY&i=DEVICE_1        ->  operation "POST /iot/d", target "iota:7896"
+ */
+public final class MetricLabels {
+
+    // Path segments followed by an id on the FIWARE APIs
+    private static final Set<String> COLLECTIONS = new HashSet<>(Arrays.asList(
+            "entities", "devices", "subscriptions", "registrations", "types", "rules", "type", "id", "attributes"));
+
+    private MetricLabels() {
+    }
+
+    /*
+     * @param method  The HTTP method of the request
+     * @param uri     The uri of the request
+     * @return        The method and the path of the request, with ids replaced by {id}
+     */
+    public static String operation(String method, URI uri) {
+        String path = uri.getRawPath();
+        if (path == null || path.isEmpty()) {
+            return method + " /";
+        }
+
+        StringBuilder operation = new StringBuilder(method.length() + path.length() + 1).append(method).append(' ');
+        String previous = "";
+        int start = path.startsWith("/") ? 1 : 0;
+        while (start <= path.length()) {
+            int end = path.indexOf('/', start);
+            if (end < 0) {
+                end = path.length();
+            }
+            String segment = path.substring(start, end);
+            if (COLLECTIONS.contains(previous) && !segment.isEmpty()) {
+                segment = "{id}";
+            }
+            operation.append('/').append(segment);
+            previous = segment;
+            start = end + 1;
+        }
+        return operation.toString();
+    }
+
+    /*
+     * @param uri  The uri of the request
+     * @return     The host and port the request is sent to
+     */
+    public static String target(URI uri) {
+        return uri.getPort() < 0 ? String.valueOf(uri.getHost()) : uri.getHost() + ":" + uri.getPort();
+    }
+
+}
@@ -0,0 +1,29 @@
+package br.ufrn.imd.fiotclient.metrics;
+
+import java.util.Map;
+
+/*
+ * JMX view of a MetricsRegistry. Latencies are keyed by "OPERATION @ TARGET", such as "GET /v2/entities/{id} @ orion:1026".
+ */
+public interface MetricsMXBean {
+
+    Map<String, Long> getCounters();
+
+    Map<String, Long> getGauges();
+
+    Map<String, Long> getRequestCounts();
+
+    Map<String, Double> getMeanLatencyMillis();
+
+    Map<String, Double> getP99LatencyMillis();
+
+    Map<String, Double> getMaxLatencyMillis();
+
+    /*
+     * @return  The whole snapshot of the registry as JSON
+     */
+    String getSnapshot();
+
+    void reset();
+
+}
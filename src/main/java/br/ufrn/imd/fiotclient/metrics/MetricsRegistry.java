@@ -0,0 +1,277 @@
+package br.ufrn.imd.fiotclient.metrics;
+
+import br.ufrn.imd.fiotclient.transport.HttpTransport;
+import org.apache.http.pool.PoolStats;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.ToDoubleFunction;
+
+/*
+ * In-memory implementation of ClientMetrics, without dependencies on a monitoring framework.
+ * Measurements are recorded on lock-free histograms and counters and read through snapshot() or JMX.
+ * A registry can be shared by any number of clients, whose measurements are then aggregated.
+ *
+ * Counters:
+ *   http.requests, http.status.CODE, http.errors, http.errors.EXCEPTION, http.bytes.sent, http.bytes.received,
+ *   mqtt.publications, mqtt.errors, mqtt.bytes.sent, mqtt.commands, mqtt.commands.failed
+ *
+ * Gauges:
+ *   http.requests.active, and once bound to a transport, http.async.inflight, http.async.queued, http.async.maxinflight,
+ *   http.pool.leased, http.pool.available, http.pool.pending, http.pool.max and http.pool.utilization (percent) of
+ *   the blocking and asynchronous pools together, and http.pool.sync.leased and http.pool.async.leased
+ */
+public class MetricsRegistry implements ClientMetrics {
+
+    public static final String JMX_DOMAIN = "br.ufrn.imd.fiotclient";
+
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+    private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+    private final AtomicLong activeRequests = new AtomicLong();
+
+    private volatile ObjectName objectName;
+
+    public MetricsRegistry() {
+        this.gauges.put("http.requests.active", this.activeRequests::get);
+    }
+
+    @Override
+    public void requestStarted(String method, URI uri) {
+        this.activeRequests.incrementAndGet();
+    }
+
+    @Override
+    public void requestCompleted(String method, URI uri, int statusCode, long latencyNanos, long bytesSent, long bytesReceived) {
+        this.activeRequests.decrementAndGet();
+        this.timer(MetricLabels.operation(method, uri), MetricLabels.target(uri)).histogram.record(latencyNanos, TimeUnit.NANOSECONDS);
+
+        this.increment("http.requests", 1);
+        this.increment("http.status." + statusCode, 1);
+        this.increment("http.bytes.sent", bytesSent);
+        if (bytesReceived > 0) {
+            this.increment("http.bytes.received", bytesReceived);
+        }
+    }
+
+    @Override
+    public void requestFailed(String method, URI uri, long latencyNanos, long bytesSent, Throwable error) {
+        this.activeRequests.decrementAndGet();
+        this.timer(MetricLabels.operation(method, uri), MetricLabels.target(uri)).histogram.record(latencyNanos, TimeUnit.NANOSECONDS);
+
+        this.increment("http.requests", 1);
+        this.increment("http.errors", 1);
+        this.increment("http.errors." + error.getClass().getSimpleName(), 1);
+        this.increment("http.bytes.sent", bytesSent);
+    }
+
+    @Override
+    public void publishCompleted(String serverUri, long latencyNanos, long bytesSent, boolean success) {
+        this.timer("MQTT PUBLISH", serverUri.replaceFirst("^[a-z]+://", "")).histogram.record(latencyNanos, TimeUnit.NANOSECONDS);
+
+        this.increment("mqtt.publications", 1);
+        if (success) {
+            this.increment("mqtt.bytes.sent", bytesSent);
+        } else {
+            this.increment("mqtt.errors", 1);
+        }
+    }
+
+    @Override
+    public void commandCompleted(String serverUri, String command, long latencyNanos, boolean success) {
+        this.timer("MQTT COMMAND " + command, serverUri.replaceFirst("^[a-z]+://", "")).histogram.record(latencyNanos, TimeUnit.NANOSECONDS);
+
+        this.increment("mqtt.commands", 1);
+        if (!success) {
+            this.increment("mqtt.commands.failed", 1);
+        }
+    }
+
+    @Override
+    public void registerGauge(String name, LongSupplier gauge) {
+        this.gauges.put(name, gauge);
+    }
+
+    /*
+     * Registers the gauges of the in-flight window and of the connection pool of a transport.
+     * Binding another transport replaces them.
+     *
+     * @param transport  The transport to be measured
+     */
+    @Override
+    public void bindTransport(HttpTransport transport) {
+        this.registerGauge("http.async.inflight", transport::getInFlight);
+        this.registerGauge("http.async.queued", transport::getQueued);
+        this.registerGauge("http.async.maxinflight", transport::getMaxInFlight);
+        this.registerGauge("http.pool.leased", () -> transport.getTotalStats().getLeased());
+        this.registerGauge("http.pool.available", () -> transport.getTotalStats().getAvailable());
+        this.registerGauge("http.pool.pending", () -> transport.getTotalStats().getPending());
+        this.registerGauge("http.pool.max", () -> transport.getTotalStats().getMax());
+        this.registerGauge("http.pool.utilization", () -> {
+            PoolStats stats = transport.getTotalStats();
+            return stats.getMax() == 0 ? 0 : 100L * stats.getLeased() / stats.getMax();
+        });
+        this.registerGauge("http.pool.sync.leased", () -> transport.getSyncStats().getLeased());
+        this.registerGauge("http.pool.async.leased", () -> transport.getAsyncStats().getLeased());
+    }
+
+    /*
+     * @return  The current value of all histograms, counters and gauges
+     */
+    public MetricsSnapshot snapshot() {
+        List<MetricsSnapshot.Timer> timerSnapshots = new ArrayList<>(this.timers.size());
+        for (Timer timer : this.timers.values()) {
+            LatencyHistogram histogram = timer.histogram;
+            long[] percentiles = histogram.getPercentilesMicros(PERCENTILES);
+            timerSnapshots.add(new MetricsSnapshot.Timer(timer.operation, timer.target, histogram.getCount(),
+                                                         histogram.getMeanMicros(), percentiles[0], percentiles[1],
+                                                         percentiles[2], percentiles[3], histogram.getMaxMicros()));
+        }
+        timerSnapshots.sort(Comparator.comparing(MetricsSnapshot.Timer::getTarget).thenComparing(MetricsSnapshot.Timer::getOperation));
+
+        return new MetricsSnapshot(System.currentTimeMillis(), timerSnapshots, this.counterValues(), this.gaugeValues());
+    }
+
+    private Map<String, Long> counterValues() {
+        Map<String, Long> values = new TreeMap<>();
+        this.counters.forEach((name, counter) -> values.put(name, counter.sum()));
+        return values;
+    }
+
+    private Map<String, Long> gaugeValues() {
+        Map<String, Long> values = new TreeMap<>();
+        this.gauges.forEach((name, gauge) -> values.put(name, gauge.getAsLong()));
+        return values;
+    }
+
+    /*
+     * Discards the recorded latencies and counters. Gauges are kept.
+     */
+    public void reset() {
+        this.timers.clear();
+        this.counters.clear();
+    }
+
+    /*
+     * Exposes the registry on the platform MBean server, as br.ufrn.imd.fiotclient:type=ClientMetrics,name=NAME
+     *
+     * @param name  The name that identifies the registry on JMX
+     * @return      The name under which the registry was registered
+     */
+    public synchronized ObjectName registerMBean(String name) throws JMException {
+        this.unregisterMBean();
+
+        ObjectName newName = new ObjectName(JMX_DOMAIN + ":type=ClientMetrics,name=" + ObjectName.quote(name));
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        server.registerMBean(new StandardMBean(new MXBean(), MetricsMXBean.class, true), newName);
+
+        this.objectName = newName;
+        return newName;
+    }
+
+    /*
+     * Removes the registry from the platform MBean server, if it was registered
+     */
+    public synchronized void unregisterMBean() throws JMException {
+        if (this.objectName != null) {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(this.objectName);
+            this.objectName = null;
+        }
+    }
+
+    private Timer timer(String operation, String target) {
+        String key = operation + " @ " + target;
+        Timer timer = this.timers.get(key);
+        if (timer == null) {
+            timer = this.timers.computeIfAbsent(key, k -> new Timer(operation, target));
+        }
+        return timer;
+    }
+
+    private void increment(String name, long value) {
+        LongAdder counter = this.counters.get(name);
+        if (counter == null) {
+            counter = this.counters.computeIfAbsent(name, n -> new LongAdder());
+        }
+        counter.add(value);
+    }
+
+    private static final class Timer {
+        private final String operation;
+        private final String target;
+        private final LatencyHistogram histogram = new LatencyHistogram();
+
+        private Timer(String operation, String target) {
+            this.operation = operation;
+            this.target = target;
+        }
+    }
+
+    private class MXBean implements MetricsMXBean {
+
+        @Override
+        public Map<String, Long> getCounters() {
+            return counterValues();
+        }
+
+        @Override
+        public Map<String, Long> getGauges() {
+            return gaugeValues();
+        }
+
+        @Override
+        public Map<String, Long> getRequestCounts() {
+            Map<String, Long> counts = new TreeMap<>();
+            timers.forEach((key, timer) -> counts.put(key, timer.histogram.getCount()));
+            return counts;
+        }
+
+        @Override
+        public Map<String, Double> getMeanLatencyMillis() {
+            return this.latencies(histogram -> histogram.getMeanMicros() / 1000.0);
+        }
+
+        @Override
+        public Map<String, Double> getP99LatencyMillis() {
+            return this.latencies(histogram -> histogram.getPercentileMicros(99) / 1000.0);
+        }
+
+        @Override
+        public Map<String, Double> getMaxLatencyMillis() {
+            return this.latencies(histogram -> histogram.getMaxMicros() / 1000.0);
+        }
+
+        @Override
+        public String getSnapshot() {
+            return snapshot().toString();
+        }
+
+        @Override
+        public void reset() {
+            MetricsRegistry.this.reset();
+        }
+
+        private Map<String, Double> latencies(ToDoubleFunction<LatencyHistogram> value) {
+            Map<String, Double> latencies = new TreeMap<>();
+            timers.forEach((key, timer) -> latencies.put(key, value.applyAsDouble(timer.histogram)));
+            return latencies;
+        }
+    }
+
+}
@@ -0,0 +1,171 @@
+package br.ufrn.imd.fiotclient.metrics;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Immutable reading of a MetricsRegistry. Latencies are in microseconds, counters are cumulative since the
+ * registry was created or reset, and gauges hold the value read when the snapshot was taken.
+ */
+public final class MetricsSnapshot {
+
+    private final long timestamp;
+    private final List<Timer> timers;
+    private final Map<String, Long> counters;
+    private final Map<String, Long> gauges;
+
+    /*
+     * @param timestamp  The time the snapshot was taken, in milliseconds since the epoch
+     * @param timers     The latencies of each operation and target
+     * @param counters   The counters, by name
+     * @param gauges     The gauges, by name
+     */
+    public MetricsSnapshot(long timestamp, List<Timer> timers, Map<String, Long> counters, Map<String, Long> gauges) {
+        this.timestamp = timestamp;
+        this.timers = Collections.unmodifiableList(timers);
+        this.counters = Collections.unmodifiableMap(counters);
+        this.gauges = Collections.unmodifiableMap(gauges);
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public List<Timer> getTimers() {
+        return timers;
+    }
+
+    public Map<String, Long> getCounters() {
+        return counters;
+    }
+
+    public Map<String, Long> getGauges() {
+        return gauges;
+    }
+
+    /*
+     * @param name  The name of a counter, such as http.status.200
+     * @return      The value of the counter, or 0 if it was never incremented
+     */
+    public long getCounter(String name) {
+        return counters.getOrDefault(name, 0L);
+    }
+
+    /*
+     * @param operation  The operation, such as "GET /v2/entities/{id}"
+     * @param target     The host and port of the target
+     * @return           The latencies of the operation on the target, or null if none was recorded
+     */
+    public Timer getTimer(String operation, String target) {
+        for (Timer timer : this.timers) {
+            if (timer.operation.equals(operation) && timer.target.equals(target)) {
+                return timer;
+            }
+        }
+        return null;
+    }
+
+    /*
+     * @return  The snapshot as a JSON object, to be served or logged by the application
+     */
+    public JSONObject toJSON() {
+        JSONArray timersJSON = new JSONArray();
+        for (Timer timer : this.timers) {
+            timersJSON.put(timer.toJSON());
+        }
+
+        JSONObject snapshotJSON = new JSONObject();
+        snapshotJSON.put("timestamp", this.timestamp);
+        snapshotJSON.put("timers", timersJSON);
+        snapshotJSON.put("counters", new JSONObject(this.counters));
+        snapshotJSON.put("gauges", new JSONObject(this.gauges));
+        return snapshotJSON;
+    }
+
+    @Override
+    public String toString() {
+        return this.toJSON().toString();
+    }
+
+    /*
+     * Latencies of an operation on a target, in microseconds
+     */
+    public static final class Timer {
+        private final String operation;
+        private final String target;
+        private final long count;
+        private final double mean;
+        private final long p50;
+        private final long p90;
+        private final long p99;
+        private final long p999;
+        private final long max;
+
+        public Timer(String operation, String target, long count, double mean, long p50, long p90, long p99, long p999, long max) {
+            this.operation = operation;
+            this.target = target;
+            this.count = count;
+            this.mean = mean;
+            this.p50 = p50;
+            this.p90 = p90;
+            this.p99 = p99;
+            this.p999 = p999;
+            this.max = max;
+        }
+
+        public String getOperation() {
+            return operation;
+        }
+
+        public String getTarget() {
+            return target;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public double getMean() {
+            return mean;
+        }
+
+        public long getP50() {
+            return p50;
+        }
+
+        public long getP90() {
+            return p90;
+        }
+
+        public long getP99() {
+            return p99;
+        }
+
+        public long getP999() {
+            return p999;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        public JSONObject toJSON() {
+            JSONObject timerJSON = new JSONObject();
+            timerJSON.put("operation", this.operation);
+            timerJSON.put("target", this.target);
+            timerJSON.put("count", this.count);
+            timerJSON.put("mean_us", this.mean);
+            timerJSON.put("p50_us", this.p50);
+            timerJSON.put("p90_us", this.p90);
+            timerJSON.put("p99_us", this.p99);
+            timerJSON.put("p999_us", this.p999);
+            timerJSON.put("max_us", this.max);
+            return timerJSON;
+        }
+    }
+
+}
@@ -0,0 +1,83 @@
+package br.ufrn.imd.fiotclient.transport;
+
+/*
+ * Circuit breaker of a single target host.
+ * After a number of consecutive failures the circuit opens and requests fail immediately. Once the open
+ * period elapses, a single trial request is let through: its success closes the circuit and its failure opens it again.
+ */
+public class CircuitBreaker {
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final String target;
+    private final int failureThreshold;
+    private final long openMillis;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private boolean trialInProgress;
+
+    /*
+     * @param target            The host, on format HOST:PORT, protected by the breaker
+     * @param failureThreshold  The number of consecutive failures that opens the circuit
+     * @param openMillis        How long the circuit stays open before a trial request is allowed
+     */
+    public CircuitBreaker(String target, int failureThreshold, long openMillis) {
+        this.target = target;
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+    }
+
+    /*
+     * @return  True if a request can be sent to the target
+     */
+    public synchronized boolean allowRequest() {
+        switch (this.state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (System.currentTimeMillis() - this.openedAt < this.openMillis) {
+                    return false;
+                }
+                this.state = State.HALF_OPEN;
+                this.trialInProgress = true;
+                return true;
+            default: //case HALF_OPEN:
+                if (this.trialInProgress) {
+                    return false;
+                }
+                this.trialInProgress = true;
+                return true;
+        }
+    }
+
+    public synchronized void recordSuccess() {
+        this.state = State.CLOSED;
+        this.consecutiveFailures = 0;
+        this.trialInProgress = false;
+    }
+
+    public synchronized void recordFailure() {
+        this.consecutiveFailures++;
+        this.trialInProgress = false;
+
+        if (this.state == State.HALF_OPEN || this.consecutiveFailures >= this.failureThreshold) {
+            this.state = State.OPEN;
+            this.openedAt = System.currentTimeMillis();
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public synchronized int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    public String getTarget() {
+        return target;
+    }
+
+}
@@ -0,0 +1,69 @@
+package br.ufrn.imd.fiotclient.transport;
+
+import br.ufrn.imd.fiotclient.utils.ConfigParser;
+
+import java.net.URI;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * Circuit breakers of the target hosts (Orion, IoT Agent, STH, Perseo...), created on first request to each host
+ */
+public class CircuitBreakerRegistry {
+
+    public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+    public static final long DEFAULT_OPEN_MILLIS = 30000;
+
+    private final int failureThreshold;
+    private final long openMillis;
+
+    private final Map<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+
+    public CircuitBreakerRegistry() {
+        this(DEFAULT_FAILURE_THRESHOLD, DEFAULT_OPEN_MILLIS);
+    }
+
+    /*
+     * @param failureThreshold  The number of consecutive failures that opens the circuit of a host
+     * @param openMillis        How long a circuit stays open before a trial request is allowed
+     */
+    public CircuitBreakerRegistry(int failureThreshold, long openMillis) {
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+    }
+
+    /*
+     * Creates a registry using the circuit breaker settings found on a configuration map
+     *
+     * @param configMap  The configuration map as returned by ConfigParser
+     * @return           The configured registry
+     */
+    public static CircuitBreakerRegistry fromConfig(Map<String, String> configMap) {
+        return new CircuitBreakerRegistry(
+                ConfigParser.getInt(configMap, "breaker_failure_threshold", DEFAULT_FAILURE_THRESHOLD),
+                ConfigParser.getLong(configMap, "breaker_open_time", DEFAULT_OPEN_MILLIS));
+    }
+
+    /*
+     * @param uri  The uri of a request
+     * @return     The circuit breaker of the request target host
+     */
+    public CircuitBreaker get(URI uri) {
+        String target = uri.getHost() + ":" + uri.getPort();
+        return this.breakers.computeIfAbsent(target, t -> new CircuitBreaker(t, this.failureThreshold, this.openMillis));
+    }
+
+    public Collection<CircuitBreaker> getAll() {
+        return breakers.values();
+    }
+
+    public int getFailureThreshold() {
+        return failureThreshold;
+    }
+
+    public long getOpenMillis() {
+        return openMillis;
+    }
+
+}
@@ -0,0 +1,26 @@
+package br.ufrn.imd.fiotclient.transport;
+
+import java.io.IOException;
+
+/*
+ * Signals that a request was not sent because the circuit breaker of its target host is open
+ */
+public class CircuitOpenException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String target;
+
+    /*
+     * @param target  The host, on format HOST:PORT, whose circuit is open
+     */
+    public CircuitOpenException(String target) {
+        super(String.format("Circuit open for %s", target));
+        this.target = target;
+    }
+
+    public String getTarget() {
+        return target;
+    }
+
+}
@@ -0,0 +1,107 @@
+package br.ufrn.imd.fiotclient.transport;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Point in time by which an operation must be finished, including all its attempts and the waits between them.
+ *
+ * A deadline can be passed explicitly to SimpleClient.execute, or set for every request made by the current
+ * thread within a block with Deadline.call, which also covers high level operations such as
+ * getHistoricalData or sendCommand. Nested blocks keep the earliest deadline.
+ */
+public final class Deadline {
+
+    private static final ThreadLocal<Deadline> CURRENT = new ThreadLocal<>();
+
+    private final long expiresAtNanos;
+
+    private Deadline(long expiresAtNanos) {
+        this.expiresAtNanos = expiresAtNanos;
+    }
+
+    /*
+     * @param timeout  The time from now until the deadline
+     * @param unit     The unit of the timeout
+     * @return         The deadline
+     */
+    public static Deadline after(long timeout, TimeUnit unit) {
+        return new Deadline(System.nanoTime() + unit.toNanos(timeout));
+    }
+
+    public static Deadline afterMillis(long timeoutMillis) {
+        return after(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /*
+     * @return  The deadline set for the current thread, or null if there is none
+     */
+    public static Deadline current() {
+        return CURRENT.get();
+    }
+
+    /*
+     * Runs a task with a deadline applied to all the requests it makes on the current thread
+     *
+     * @param deadline  The deadline of the task
+     * @param task      The task to be run
+     * @return          The result of the task
+     */
+    public static <T> T call(Deadline deadline, Callable<T> task) throws Exception {
+        Deadline previous = CURRENT.get();
+        CURRENT.set(earliest(previous, deadline));
+        try {
+            return task.call();
+        } finally {
+            if (previous == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+        }
+    }
+
+    /*
+     * @return  The earliest of two deadlines, any of which may be null
+     */
+    public static Deadline earliest(Deadline first, Deadline second) {
+        if (first == null) {
+            return second;
+        }
+        if (second == null) {
+            return first;
+        }
+        return first.expiresAtNanos - second.expiresAtNanos <= 0 ? first : second;
+    }
+
+    public long remainingMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(this.expiresAtNanos - System.nanoTime());
+    }
+
+    public boolean isExpired() {
+        return this.expiresAtNanos - System.nanoTime() <= 0;
+    }
+
+    /*
+     * @param delayMillis  A wait to be made before the next attempt
+     * @return             True if the wait ends before the deadline
+     */
+    public boolean allows(long delayMillis) {
+        return delayMillis < this.remainingMillis();
+    }
+
+    /*
+     * @throws DeadlineExceededException  If the deadline has already expired
+     */
+    public void check() throws DeadlineExceededException {
+        if (this.isExpired()) {
+            throw new DeadlineExceededException();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Deadline[remaining=%dms]", this.remainingMillis());
+    }
+
+}
@@ -0,0 +1,16 @@
+package br.ufrn.imd.fiotclient.transport;
+
+import java.io.InterruptedIOException;
+
+/*
+ * Signals that an operation was abandoned because its deadline expired
+ */
+public class DeadlineExceededException extends InterruptedIOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public DeadlineExceededException() {
+        super("Deadline exceeded");
+    }
+
+}
@@ -0,0 +1,424 @@
+package br.ufrn.imd.fiotclient.transport;
+
+import br.ufrn.imd.fiotclient.utils.ConfigParser;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.HttpContext;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URI;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/*
+ * Shared HTTP transport backed by a pooled connection manager.
+ * A single instance can be used by any number of clients, so that connections to
+ * Orion, IoT Agent, STH and Perseo are kept alive and reused between requests.
+ *
+ * Asynchronous requests are executed by a non-blocking engine started on first use. The number of
+ * asynchronous requests in flight is bounded: requests over the limit wait in a queue, without holding a thread.
+ */
+public class HttpTransport implements Closeable {
+
+    public static final int DEFAULT_MAX_TOTAL = 200;
+    public static final int DEFAULT_MAX_PER_ROUTE = 50;
+    public static final long DEFAULT_KEEP_ALIVE_MILLIS = 30000;
+    public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 60000;
+    public static final int DEFAULT_MAX_IN_FLIGHT = 256;
+
+    private final int maxTotal;
+    private final int maxPerRoute;
+    private final long keepAliveMillis;
+    private final int maxInFlight;
+    private final Timeouts timeouts;
+
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final CloseableHttpClient httpClient;
+
+    private volatile CloseableHttpAsyncClient asyncHttpClient;
+    private volatile PoolingNHttpClientConnectionManager asyncConnectionManager;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final Queue<PendingRequest> pendingRequests = new ConcurrentLinkedQueue<>();
+    // Number of drain requests not yet served. The thread that moves it off zero runs the drain loop for all of them
+    private final AtomicInteger drainRequests = new AtomicInteger();
+
+    private volatile CircuitBreakerRegistry circuitBreakers = new CircuitBreakerRegistry();
+    private volatile ScheduledExecutorService scheduler;
+
+    public HttpTransport() {
+        this(DEFAULT_MAX_TOTAL, DEFAULT_MAX_PER_ROUTE, DEFAULT_KEEP_ALIVE_MILLIS, DEFAULT_IDLE_TIMEOUT_MILLIS);
+    }
+
+    /*
+     * @param maxTotal           The maximum number of pooled connections
+     * @param maxPerRoute        The maximum number of pooled connections to a single host
+     * @param keepAliveMillis    How long an idle connection is kept alive when the server does not specify it
+     * @param idleTimeoutMillis  How long a connection may stay idle in the pool before being evicted
+     */
+    public HttpTransport(int maxTotal, int maxPerRoute, long keepAliveMillis, long idleTimeoutMillis) {
+        this(maxTotal, maxPerRoute, keepAliveMillis, idleTimeoutMillis, DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    /*
+     * @param maxTotal           The maximum number of pooled connections
+     * @param maxPerRoute        The maximum number of pooled connections to a single host
+     * @param keepAliveMillis    How long an idle connection is kept alive when the server does not specify it
+     * @param idleTimeoutMillis  How long a connection may stay idle in the pool before being evicted
+     * @param maxInFlight        The maximum number of asynchronous requests executing at the same time
+     */
+    public HttpTransport(int maxTotal, int maxPerRoute, long keepAliveMillis, long idleTimeoutMillis, int maxInFlight) {
+        this(maxTotal, maxPerRoute, keepAliveMillis, idleTimeoutMillis, maxInFlight, Timeouts.DEFAULT);
+    }
+
+    /*
+     * @param maxTotal           The maximum number of pooled connections
+     * @param maxPerRoute        The maximum number of pooled connections to a single host
+     * @param keepAliveMillis    How long an idle connection is kept alive when the server does not specify it
+     * @param idleTimeoutMillis  How long a connection may stay idle in the pool before being evicted
+     * @param maxInFlight        The maximum number of asynchronous requests executing at the same time
+     * @param timeouts           The timeouts of requests that do not specify their own
+     */
+    public HttpTransport(int maxTotal, int maxPerRoute, long keepAliveMillis, long idleTimeoutMillis, int maxInFlight,
+                         Timeouts timeouts) {
+        this.maxTotal = maxTotal;
+        this.maxPerRoute = maxPerRoute;
+        this.keepAliveMillis = keepAliveMillis;
+        this.maxInFlight = maxInFlight;
+        this.timeouts = timeouts;
+
+        this.connectionManager = new PoolingHttpClientConnectionManager();
+        this.connectionManager.setMaxTotal(maxTotal);
+        this.connectionManager.setDefaultMaxPerRoute(maxPerRoute);
+        this.connectionManager.setValidateAfterInactivity(2000);
+
+        this.httpClient = HttpClients.custom()
+                .setConnectionManager(this.connectionManager)
+                .setKeepAliveStrategy(keepAliveStrategy(keepAliveMillis))
+                .setDefaultRequestConfig(timeouts.toRequestConfig())
+                .evictExpiredConnections()
+                .evictIdleConnections(idleTimeoutMillis, TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    /*
+     * Creates a transport using the pool settings found on a configuration map
+     *
+     * @param configMap  The configuration map as returned by ConfigParser
+     * @return           The configured transport
+     */
+    public static HttpTransport fromConfig(Map<String, String> configMap) {
+        HttpTransport transport = new HttpTransport(
+                ConfigParser.getInt(configMap, "http_max_total", DEFAULT_MAX_TOTAL),
+                ConfigParser.getInt(configMap, "http_max_per_route", DEFAULT_MAX_PER_ROUTE),
+                ConfigParser.getLong(configMap, "http_keep_alive", DEFAULT_KEEP_ALIVE_MILLIS),
+                ConfigParser.getLong(configMap, "http_idle_timeout", DEFAULT_IDLE_TIMEOUT_MILLIS),
+                ConfigParser.getInt(configMap, "http_max_in_flight", DEFAULT_MAX_IN_FLIGHT),
+                Timeouts.fromConfig(configMap));
+        transport.setCircuitBreakers(CircuitBreakerRegistry.fromConfig(configMap));
+        return transport;
+    }
+
+    /*
+     * Executes a request using a pooled connection. The caller must close the returned
+     * response so that the connection is released back to the pool.
+     *
+     * @param request  The request to be executed
+     * @return         The response of the request
+     */
+    public CloseableHttpResponse execute(HttpUriRequest request) throws IOException {
+        return this.httpClient.execute(request);
+    }
+
+    /*
+     * Executes a request on the non-blocking engine. The response entity is fully buffered when the future completes.
+     * Futures are completed on the engine I/O threads, so dependent stages must not block.
+     * Cancelling the future aborts the request, or drops it if it is still queued, freeing its slot on the window.
+     *
+     * @param request  The request to be executed
+     * @return         A future completed with the response of the request
+     */
+    public CompletableFuture<HttpResponse> executeAsync(HttpUriRequest request) {
+        CompletableFuture<HttpResponse> future = new CompletableFuture<>();
+        AtomicReference<Future<HttpResponse>> exchange = new AtomicReference<>();
+        future.whenComplete((response, error) -> {
+            if (future.isCancelled()) {
+                Future<HttpResponse> started = exchange.get();
+                if (started != null) {
+                    started.cancel(true);
+                }
+            }
+        });
+
+        this.queued.incrementAndGet();
+        this.pendingRequests.add(new PendingRequest(request, future, exchange));
+        this.drainPendingRequests();
+
+        return future;
+    }
+
+    /*
+     * Starts as many queued requests as the in-flight window allows.
+     * A single thread runs the loop at a time: a call made while another thread, or the same thread through a
+     * request that completed or failed at once, is draining only asks it for another pass, so draining never nests.
+     */
+    private void drainPendingRequests() {
+        if (this.drainRequests.getAndIncrement() != 0) {
+            return;
+        }
+
+        int served = 1;
+        do {
+            this.startPendingRequests();
+            served = this.drainRequests.addAndGet(-served);
+        } while (served != 0);
+    }
+
+    /*
+     * One pass of the drain loop. Only the draining thread takes slots, so the window cannot be overrun
+     * between the check and the increment.
+     */
+    private void startPendingRequests() {
+        while (this.inFlight.get() < this.maxInFlight) {
+            PendingRequest pending = this.pendingRequests.poll();
+            if (pending == null) {
+                return;
+            }
+            this.queued.decrementAndGet();
+
+            if (pending.future.isDone()) {
+                // Cancelled while waiting on the queue
+                continue;
+            }
+            this.inFlight.incrementAndGet();
+            this.dispatch(pending.request, pending.future, pending.exchange);
+        }
+    }
+
+    private void dispatch(HttpUriRequest request, CompletableFuture<HttpResponse> future,
+                          AtomicReference<Future<HttpResponse>> exchange) {
+        FutureCallback<HttpResponse> callback = new FutureCallback<HttpResponse>() {
+            @Override
+            public void completed(HttpResponse response) {
+                release();
+                future.complete(response);
+            }
+
+            @Override
+            public void failed(Exception e) {
+                release();
+                future.completeExceptionally(e);
+            }
+
+            @Override
+            public void cancelled() {
+                release();
+                future.completeExceptionally(new CancellationException("Request cancelled"));
+            }
+        };
+
+        try {
+            exchange.set(this.getAsyncHttpClient().execute(request, callback));
+        } catch (RuntimeException e) {
+            callback.failed(e);
+            return;
+        }
+        if (future.isCancelled()) {
+            // Cancelled while the request was being started, before the exchange could be seen by the canceller
+            exchange.get().cancel(true);
+        }
+    }
+
+    /*
+     * Frees the slot of a request and signals the drain loop, which may be running on this very thread
+     */
+    private void release() {
+        this.inFlight.decrementAndGet();
+        this.drainPendingRequests();
+    }
+
+    private CloseableHttpAsyncClient getAsyncHttpClient() {
+        if (this.asyncHttpClient == null) {
+            synchronized (this) {
+                if (this.asyncHttpClient == null) {
+                    PoolingNHttpClientConnectionManager manager;
+                    try {
+                        manager = new PoolingNHttpClientConnectionManager(new DefaultConnectingIOReactor(IOReactorConfig.DEFAULT));
+                    } catch (IOReactorException e) {
+                        throw new IllegalStateException("Could not start the asynchronous engine", e);
+                    }
+                    manager.setMaxTotal(this.maxTotal);
+                    manager.setDefaultMaxPerRoute(this.maxPerRoute);
+
+                    CloseableHttpAsyncClient client = HttpAsyncClients.custom()
+                            .setConnectionManager(manager)
+                            .setKeepAliveStrategy(keepAliveStrategy(this.keepAliveMillis))
+                            .setDefaultRequestConfig(this.timeouts.toRequestConfig())
+                            .build();
+                    client.start();
+                    this.asyncConnectionManager = manager;
+                    this.asyncHttpClient = client;
+                }
+            }
+        }
+        return this.asyncHttpClient;
+    }
+
+    /*
+     * Runs a task after a delay on a background thread of the transport, without blocking the caller.
+     * Used to wait between attempts of asynchronous requests.
+     *
+     * @param task         The task to be run
+     * @param delayMillis  The delay before running the task
+     * @return             A future that can be used to cancel the task
+     */
+    public ScheduledFuture<?> schedule(Runnable task, long delayMillis) {
+        if (this.scheduler == null) {
+            synchronized (this) {
+                if (this.scheduler == null) {
+                    this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                        Thread thread = new Thread(r, "fiot-http-scheduler");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                }
+            }
+        }
+        return this.scheduler.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /*
+     * @param uri  The uri of a request
+     * @return     The circuit breaker of the request target host, shared by all clients using this transport
+     */
+    public CircuitBreaker getCircuitBreaker(URI uri) {
+        return circuitBreakers.get(uri);
+    }
+
+    public CircuitBreakerRegistry getCircuitBreakers() {
+        return circuitBreakers;
+    }
+
+    public void setCircuitBreakers(CircuitBreakerRegistry circuitBreakers) {
+        this.circuitBreakers = circuitBreakers;
+    }
+
+    public CloseableHttpClient getHttpClient() {
+        return httpClient;
+    }
+
+    /*
+     * @return  The connections of both pools, the one of blocking requests and the one of asynchronous requests
+     */
+    public PoolStats getTotalStats() {
+        PoolStats sync = this.getSyncStats();
+        PoolStats async = this.getAsyncStats();
+        return new PoolStats(sync.getLeased() + async.getLeased(), sync.getPending() + async.getPending(),
+                             sync.getAvailable() + async.getAvailable(), sync.getMax() + async.getMax());
+    }
+
+    /*
+     * @return  The connections of the pool used by blocking requests
+     */
+    public PoolStats getSyncStats() {
+        return connectionManager.getTotalStats();
+    }
+
+    /*
+     * @return  The connections of the pool used by asynchronous requests, empty until the first asynchronous request
+     */
+    public PoolStats getAsyncStats() {
+        PoolingNHttpClientConnectionManager manager = this.asyncConnectionManager;
+        return manager != null ? manager.getTotalStats() : new PoolStats(0, 0, 0, this.maxTotal);
+    }
+
+    public Timeouts getTimeouts() {
+        return timeouts;
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    /*
+     * @return  The number of asynchronous requests currently executing
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /*
+     * @return  The number of asynchronous requests waiting for a free slot on the in-flight window
+     */
+    public int getQueued() {
+        return queued.get();
+    }
+
+    /*
+     * Closes the pools and all their connections
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            this.httpClient.close();
+        } finally {
+            synchronized (this) {
+                if (this.scheduler != null) {
+                    this.scheduler.shutdownNow();
+                }
+                if (this.asyncHttpClient != null) {
+                    this.asyncHttpClient.close();
+                }
+            }
+        }
+    }
+
+    /*
+     * An asynchronous request waiting for a free slot on the in-flight window
+     */
+    private static final class PendingRequest {
+        private final HttpUriRequest request;
+        private final CompletableFuture<HttpResponse> future;
+        private final AtomicReference<Future<HttpResponse>> exchange;
+
+        private PendingRequest(HttpUriRequest request, CompletableFuture<HttpResponse> future,
+                               AtomicReference<Future<HttpResponse>> exchange) {
+            this.request = request;
+            this.future = future;
+            this.exchange = exchange;
+        }
+    }
+
+    private static ConnectionKeepAliveStrategy keepAliveStrategy(final long keepAliveMillis) {
+        return (HttpResponse response, HttpContext context) -> {
+            long duration = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+            return duration > 0 ? duration : keepAliveMillis;
+        };
+    }
+
+}
@@ -0,0 +1,173 @@
+package br.ufrn.imd.fiotclient.transport;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/*
+ * Shares the result of identical requests made at the same time, so a burst of callers asking for the same
+ * resource costs a single request to the backend. The first caller of a key executes the request, and the callers
+ * arriving while it is in flight wait for its result. Nothing is kept after the request completes.
+ *
+ * Each caller keeps its own deadline. A caller whose deadline expires stops waiting without affecting the others,
+ * and callers whose shared request failed only because the deadline of the first caller expired execute it again.
+ */
+public final class RequestCoalescer<T> {
+
+    private final Map<String, CompletableFuture<T>> inFlight = new ConcurrentHashMap<>();
+    private final LongAdder coalesced = new LongAdder();
+
+    /*
+     * Executes a request on the calling thread, or waits for the identical request already in flight
+     *
+     * @param key       The identity of the request, such as its url and headers
+     * @param request   The request, executed if there is no identical one in flight
+     * @param deadline  The deadline of the caller, or null if there is none
+     * @return          The result of the request
+     * @throws DeadlineExceededException if the deadline expires while waiting for the request in flight
+     */
+    public T execute(String key, Request<T> request, Deadline deadline) throws IOException {
+        while (true) {
+            CompletableFuture<T> own = new CompletableFuture<>();
+            CompletableFuture<T> shared = this.inFlight.putIfAbsent(key, own);
+
+            if (shared == null) {
+                T result;
+                try {
+                    result = request.execute();
+                } catch (Throwable e) {
+                    this.complete(key, own, null, e);
+                    throw e;
+                }
+                this.complete(key, own, result, null);
+                return result;
+            }
+
+            this.coalesced.increment();
+            try {
+                return deadline == null ? shared.get() : shared.get(Math.max(0, deadline.remainingMillis()), TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                throw new DeadlineExceededException();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for a coalesced request");
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (isForeignDeadline(cause, deadline)) {
+                    continue;
+                }
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                throw new IOException(cause);
+            }
+        }
+    }
+
+    /*
+     * Starts a request, or joins the identical request already in flight
+     *
+     * @param key       The identity of the request, such as its url and headers
+     * @param request   The request, started if there is no identical one in flight
+     * @param deadline  The deadline of the caller, or null if there is none. It is not applied to the returned future
+     * @return          A future of the caller, completed with the result of the request
+     */
+    public CompletableFuture<T> executeAsync(String key, Supplier<CompletableFuture<T>> request, Deadline deadline) {
+        CompletableFuture<T> own = new CompletableFuture<>();
+        CompletableFuture<T> existing = this.inFlight.putIfAbsent(key, own);
+        boolean leader = existing == null;
+
+        if (leader) {
+            CompletableFuture<T> started;
+            try {
+                started = request.get();
+            } catch (RuntimeException e) {
+                started = new CompletableFuture<>();
+                started.completeExceptionally(e);
+            }
+            started.whenComplete((result, error) -> this.complete(key, own, result, error));
+        } else {
+            this.coalesced.increment();
+        }
+
+        CompletableFuture<T> caller = new CompletableFuture<>();
+        (leader ? own : existing).whenComplete((result, error) -> {
+            if (error == null) {
+                caller.complete(result);
+            } else if (!leader && isForeignDeadline(unwrap(error), deadline)) {
+                this.executeAsync(key, request, deadline).whenComplete((retried, retryError) -> {
+                    if (retryError != null) {
+                        caller.completeExceptionally(unwrap(retryError));
+                    } else {
+                        caller.complete(retried);
+                    }
+                });
+            } else {
+                caller.completeExceptionally(unwrap(error));
+            }
+        });
+        return caller;
+    }
+
+    /*
+     * Auxiliary method to publish the result of a request to the callers waiting for it.
+     * The request leaves the in flight map first, so a caller that executes it again after a foreign deadline
+     * starts a new request instead of joining the completed one.
+     */
+    private void complete(String key, CompletableFuture<T> own, T result, Throwable error) {
+        this.inFlight.remove(key, own);
+        if (error != null) {
+            own.completeExceptionally(unwrap(error));
+        } else {
+            own.complete(result);
+        }
+    }
+
+    /*
+     * @return  True if the request failed on the deadline of the caller that executed it, while the deadline
+     *          of this caller has not expired
+     */
+    private static boolean isForeignDeadline(Throwable error, Deadline deadline) {
+        return error instanceof DeadlineExceededException && (deadline == null || !deadline.isExpired());
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+
+    /*
+     * @return  The number of callers that shared a request made by another caller
+     */
+    public long getCoalescedCount() {
+        return coalesced.sum();
+    }
+
+    /*
+     * @return  The number of distinct requests in flight
+     */
+    public int getInFlight() {
+        return inFlight.size();
+    }
+
+    /*
+     * A request that can be executed on the calling thread
+     */
+    @FunctionalInterface
+    public interface Request<T> {
+
+        T execute() throws IOException;
+
+    }
+
+}
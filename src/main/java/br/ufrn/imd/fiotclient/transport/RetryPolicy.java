@@ -0,0 +1,133 @@
+package br.ufrn.imd.fiotclient.transport;
+
+import br.ufrn.imd.fiotclient.utils.ConfigParser;
+
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/*
+ * Policy of retries of failed requests, with exponential backoff and full jitter.
+ * Only idempotent methods (GET, PUT and DELETE) are retried, unless retries of POST requests are enabled
+ * or the request is known to be idempotent, as a query sent as POST.
+ * A request is retried when it fails with an I/O error or when the server answers 429, 502, 503 or 504.
+ */
+public class RetryPolicy {
+
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+    public static final long DEFAULT_BASE_DELAY_MILLIS = 100;
+    public static final long DEFAULT_MAX_DELAY_MILLIS = 5000;
+
+    public static final RetryPolicy NONE = new RetryPolicy(1, 0, 0, false);
+
+    private final int maxAttempts;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+    private final boolean retryNonIdempotent;
+
+    public RetryPolicy() {
+        this(DEFAULT_MAX_ATTEMPTS, DEFAULT_BASE_DELAY_MILLIS, DEFAULT_MAX_DELAY_MILLIS, false);
+    }
+
+    /*
+     * @param maxAttempts         The maximum number of attempts of a request, including the first one
+     * @param baseDelayMillis     The delay before the first retry, doubled on each following retry
+     * @param maxDelayMillis      The maximum delay between attempts
+     * @param retryNonIdempotent  If POST requests are also to be retried
+     */
+    public RetryPolicy(int maxAttempts, long baseDelayMillis, long maxDelayMillis, boolean retryNonIdempotent) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("Max attempts must be at least 1");
+        }
+
+        this.maxAttempts = maxAttempts;
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.retryNonIdempotent = retryNonIdempotent;
+    }
+
+    /*
+     * Creates a policy using the retry settings found on a configuration map
+     *
+     * @param configMap  The configuration map as returned by ConfigParser
+     * @return           The configured policy
+     */
+    public static RetryPolicy fromConfig(Map<String, String> configMap) {
+        return new RetryPolicy(
+                ConfigParser.getInt(configMap, "retry_max_attempts", DEFAULT_MAX_ATTEMPTS),
+                ConfigParser.getLong(configMap, "retry_base_delay", DEFAULT_BASE_DELAY_MILLIS),
+                ConfigParser.getLong(configMap, "retry_max_delay", DEFAULT_MAX_DELAY_MILLIS),
+                "yes".equals(configMap.get("retry_post")));
+    }
+
+    /*
+     * @param method   The method of the request
+     * @param attempt  The number of attempts already made
+     * @return         True if another attempt is allowed for the request
+     */
+    public boolean canRetry(String method, int attempt) {
+        return this.canRetry(isIdempotent(method), attempt);
+    }
+
+    /*
+     * @param idempotent  If the request can be repeated without changing the result, whatever its method
+     * @param attempt     The number of attempts already made
+     * @return            True if another attempt is allowed for the request
+     */
+    public boolean canRetry(boolean idempotent, int attempt) {
+        if (attempt >= this.maxAttempts) {
+            return false;
+        }
+        return this.retryNonIdempotent || idempotent;
+    }
+
+    /*
+     * @param method  The method of the request
+     * @return        True if requests of the method can be repeated without changing the result
+     */
+    public static boolean isIdempotent(String method) {
+        return !"POST".equals(method);
+    }
+
+    /*
+     * @param statusCode  The status code of the response
+     * @return            True if the status code indicates a transient failure
+     */
+    public boolean isRetryableStatus(int statusCode) {
+        return statusCode == 429 || statusCode == 502 || statusCode == 503 || statusCode == 504;
+    }
+
+    /*
+     * Computes the delay before the next attempt, as a random value between zero and the exponential backoff
+     *
+     * @param attempt  The number of attempts already made
+     * @return         The delay, in milliseconds
+     */
+    public long delayMillis(int attempt) {
+        if (this.baseDelayMillis <= 0) {
+            return 0;
+        }
+
+        long backoff = this.baseDelayMillis << Math.min(attempt - 1, 30);
+        if (backoff <= 0 || backoff > this.maxDelayMillis) {
+            backoff = this.maxDelayMillis;
+        }
+        return ThreadLocalRandom.current().nextLong(backoff + 1);
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public long getBaseDelayMillis() {
+        return baseDelayMillis;
+    }
+
+    public long getMaxDelayMillis() {
+        return maxDelayMillis;
+    }
+
+    public boolean isRetryNonIdempotent() {
+        return retryNonIdempotent;
+    }
+
+}
@@ -0,0 +1,113 @@
+package br.ufrn.imd.fiotclient.transport;
+
+import br.ufrn.imd.fiotclient.utils.ConfigParser;
+import org.apache.http.client.config.RequestConfig;
+
+import java.util.Map;
+
+/*
+ * Timeouts of a single HTTP attempt: establishing the connection, waiting for data on the socket
+ * and waiting for a free connection on the pool. A value of zero means no timeout.
+ */
+public class Timeouts {
+
+    public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 5000;
+    public static final int DEFAULT_READ_TIMEOUT_MILLIS = 30000;
+    public static final int DEFAULT_POOL_TIMEOUT_MILLIS = 10000;
+
+    public static final Timeouts DEFAULT = new Timeouts(DEFAULT_CONNECT_TIMEOUT_MILLIS, DEFAULT_READ_TIMEOUT_MILLIS,
+                                                        DEFAULT_POOL_TIMEOUT_MILLIS);
+
+    private final int connectTimeoutMillis;
+    private final int readTimeoutMillis;
+    private final int poolTimeoutMillis;
+
+    /*
+     * @param connectTimeoutMillis  The maximum time to establish a connection
+     * @param readTimeoutMillis     The maximum time of inactivity while waiting for data from the server
+     * @param poolTimeoutMillis     The maximum time waiting for a connection from the pool
+     */
+    public Timeouts(int connectTimeoutMillis, int readTimeoutMillis, int poolTimeoutMillis) {
+        if (connectTimeoutMillis < 0 || readTimeoutMillis < 0 || poolTimeoutMillis < 0) {
+            throw new IllegalArgumentException("Timeouts must not be negative");
+        }
+
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.readTimeoutMillis = readTimeoutMillis;
+        this.poolTimeoutMillis = poolTimeoutMillis;
+    }
+
+    /*
+     * Creates the timeouts found on a configuration map
+     *
+     * @param configMap  The configuration map as returned by ConfigParser
+     * @return           The configured timeouts
+     */
+    public static Timeouts fromConfig(Map<String, String> configMap) {
+        return new Timeouts(
+                ConfigParser.getInt(configMap, "http_connect_timeout", DEFAULT_CONNECT_TIMEOUT_MILLIS),
+                ConfigParser.getInt(configMap, "http_read_timeout", DEFAULT_READ_TIMEOUT_MILLIS),
+                ConfigParser.getInt(configMap, "http_pool_timeout", DEFAULT_POOL_TIMEOUT_MILLIS));
+    }
+
+    /*
+     * Shortens the timeouts so that an attempt does not outlive the given deadline
+     *
+     * @param deadline  The deadline of the operation, or null if there is none
+     * @return          The timeouts bounded by the remaining time of the deadline
+     */
+    public Timeouts boundedBy(Deadline deadline) {
+        if (deadline == null) {
+            return this;
+        }
+
+        // Never returns zero, which would disable the timeout
+        int remaining = (int) Math.max(1, Math.min(Integer.MAX_VALUE, deadline.remainingMillis()));
+        return new Timeouts(bound(this.connectTimeoutMillis, remaining),
+                            bound(this.readTimeoutMillis, remaining),
+                            bound(this.poolTimeoutMillis, remaining));
+    }
+
+    private static int bound(int timeout, int remaining) {
+        return timeout == 0 ? remaining : Math.min(timeout, remaining);
+    }
+
+    public RequestConfig toRequestConfig() {
+        return RequestConfig.custom()
+                .setConnectTimeout(this.connectTimeoutMillis)
+                .setSocketTimeout(this.readTimeoutMillis)
+                .setConnectionRequestTimeout(this.poolTimeoutMillis)
+                .build();
+    }
+
+    public Timeouts withConnectTimeout(int connectTimeoutMillis) {
+        return new Timeouts(connectTimeoutMillis, this.readTimeoutMillis, this.poolTimeoutMillis);
+    }
+
+    public Timeouts withReadTimeout(int readTimeoutMillis) {
+        return new Timeouts(this.connectTimeoutMillis, readTimeoutMillis, this.poolTimeoutMillis);
+    }
+
+    public Timeouts withPoolTimeout(int poolTimeoutMillis) {
+        return new Timeouts(this.connectTimeoutMillis, this.readTimeoutMillis, poolTimeoutMillis);
+    }
+
+    public int getConnectTimeoutMillis() {
+        return connectTimeoutMillis;
+    }
+
+    public int getReadTimeoutMillis() {
+        return readTimeoutMillis;
+    }
+
+    public int getPoolTimeoutMillis() {
+        return poolTimeoutMillis;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Timeouts[connect=%d, read=%d, pool=%d]",
+                             this.connectTimeoutMillis, this.readTimeoutMillis, this.poolTimeoutMillis);
+    }
+
+}
@@ -0,0 +1,108 @@
+package br.ufrn.imd.fiotclient.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/*
+ * Bounded, lock-free queue for any number of producers and consumers, on a ring of preallocated slots.
+ * Each slot has a sequence number telling whether it is free for the producer or filled for the consumer of a
+ * given position, so offer and poll only contend on a compare-and-set of their position. A full queue rejects
+ * new elements instead of growing, which lets callers apply backpressure.
+ */
+public final class BoundedRingQueue<E> {
+
+    private final int mask;
+    private final AtomicReferenceArray<E> elements;
+    private final AtomicLongArray sequences;
+    private final AtomicLong producerPosition = new AtomicLong();
+    private final AtomicLong consumerPosition = new AtomicLong();
+
+    /*
+     * @param capacity  The maximum number of elements, rounded up to a power of two
+     */
+    public BoundedRingQueue(int capacity) {
+        if (capacity < 1 || capacity > (1 << 30)) {
+            throw new IllegalArgumentException("Capacity must be between 1 and 2^30");
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+
+        this.mask = size - 1;
+        this.elements = new AtomicReferenceArray<>(size);
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            this.sequences.set(i, i);
+        }
+    }
+
+    /*
+     * @param element  The element to be added
+     * @return         False if the queue is full
+     */
+    public boolean offer(E element) {
+        if (element == null) {
+            throw new NullPointerException();
+        }
+
+        while (true) {
+            long position = this.producerPosition.get();
+            int index = (int) position & this.mask;
+            long difference = this.sequences.get(index) - position;
+
+            if (difference == 0) {
+                if (this.producerPosition.compareAndSet(position, position + 1)) {
+                    this.elements.lazySet(index, element);
+                    // Publishes the element to the consumer of this position
+                    this.sequences.set(index, position + 1);
+                    return true;
+                }
+            } else if (difference < 0) {
+                // The slot still holds the element of the previous lap
+                return false;
+            }
+        }
+    }
+
+    /*
+     * @return  The oldest element, or null if the queue is empty
+     */
+    public E poll() {
+        while (true) {
+            long position = this.consumerPosition.get();
+            int index = (int) position & this.mask;
+            long difference = this.sequences.get(index) - (position + 1);
+
+            if (difference == 0) {
+                if (this.consumerPosition.compareAndSet(position, position + 1)) {
+                    E element = this.elements.get(index);
+                    this.elements.lazySet(index, null);
+                    // Frees the slot for the producer of the next lap
+                    this.sequences.set(index, position + this.mask + 1);
+                    return element;
+                }
+            } else if (difference < 0) {
+                return null;
+            }
+        }
+    }
+
+    /*
+     * @return  The number of elements, which may be stale when used concurrently
+     */
+    public int size() {
+        long size = this.producerPosition.get() - this.consumerPosition.get();
+        return (int) Math.max(0, Math.min(size, this.capacity()));
+    }
+
+    public boolean isEmpty() {
+        return this.size() == 0;
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+
+}
@@ -7,9 +7,83 @@ import java.io.File;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Properties;
+import java.util.function.BiFunction;
 
 public class ConfigParser {
 
+    /*
+     * Attributes of the configuration map and the section and option in which each one is read.
+     * Sections http, cache, journal and notifications are optional, defaults are applied by their users when absent.
+     */
+    private static final String[][] ATTRIBUTES = {
+            {"fiware_service", "service", "fiware-service"},
+            {"fiware_service_path", "service", "fiware-service-path"},
+
+            {"cb_host", "contextbroker", "host"},
+            {"cb_port", "contextbroker", "port"},
+
+            {"idas_aaa", "idas", "OAuth"},
+            {"idas_host", "idas", "host"},
+            {"idas_admin_port", "idas", "adminport"},
+            {"idas_ul20_port", "idas", "ul20port"},
+            {"api_key", "idas", "apikey"},
+
+            {"mosquitto_host", "mosquitto", "host"},
+            {"mosquitto_port", "mosquitto", "port"},
+            {"mosquitto_client_id", "mosquitto", "clientid"},
+            {"mosquitto_qos", "mosquitto", "qos"},
+            {"mosquitto_keep_alive", "mosquitto", "keepalive"},
+            {"mosquitto_max_inflight", "mosquitto", "maxinflight"},
+            {"mosquitto_connect_timeout", "mosquitto", "connecttimeout"},
+            {"mosquitto_persistence", "mosquitto", "persistence"},
+            {"mosquitto_command_threads", "mosquitto", "commandthreads"},
+            {"mosquitto_command_queue_size", "mosquitto", "commandqueuesize"},
+
+            {"sth_host", "sthcomet", "host"},
+            {"sth_port", "sthcomet", "port"},
+
+            {"cygnus_host", "cygnus", "host"},
+            {"cygnus_notification_host", "cygnus", "notification_host"},
+            {"cygnus_port", "cygnus", "port"},
+
+            {"perseo_host", "perseo", "host"},
+            {"perseo_port", "perseo", "port"},
+
+            {"host_id", "local", "host_id"},
+
+            {"http_max_total", "http", "maxconnections"},
+            {"http_max_per_route", "http", "maxperroute"},
+            {"http_keep_alive", "http", "keepalive"},
+            {"http_idle_timeout", "http", "idletimeout"},
+            {"http_max_in_flight", "http", "maxinflight"},
+            {"http_connect_timeout", "http", "connecttimeout"},
+            {"http_read_timeout", "http", "readtimeout"},
+            {"http_pool_timeout", "http", "pooltimeout"},
+            {"retry_max_attempts", "http", "retries"},
+            {"retry_base_delay", "http", "retrybasedelay"},
+            {"retry_max_delay", "http", "retrymaxdelay"},
+            {"retry_post", "http", "retrypost"},
+            {"http_coalesce", "http", "coalesce"},
+            {"breaker_failure_threshold", "http", "breakerthreshold"},
+            {"breaker_open_time", "http", "breakeropentime"},
+
+            {"cache_max_size", "cache", "maxsize"},
+            {"cache_ttl", "cache", "ttl"},
+
+            {"journal_dir", "journal", "directory"},
+            {"journal_mode", "journal", "mode"},
+            {"journal_segment_size", "journal", "segmentsize"},
+            {"journal_max_segments", "journal", "maxsegments"},
+            {"journal_replay_interval", "journal", "replayinterval"},
+
+            {"notification_host", "notifications", "host"},
+            {"notification_port", "notifications", "port"},
+            {"notification_path", "notifications", "path"},
+            {"notification_workers", "notifications", "workers"},
+            {"notification_queue_size", "notifications", "queuesize"},
+    };
+
     /*
      * Load configuration file and creates a map with the necessary attributes
      *
@@ -18,44 +92,76 @@ public class ConfigParser {
      */
     public static Map<String, String> readConfigFile(String configFile) throws InvalidFileFormatException, IOException {
         Wini ini = new Wini(new File(configFile));
+        return readAttributes(ini::get);
+    }
 
-        Map<String, String> configMap = new HashMap<>();
-        configMap.put("fiware_service", ini.get("service", "fiware-service"));
-        configMap.put("fiware_service_path", ini.get("service", "fiware-service-path"));
-
-        configMap.put("cb_host", ini.get("contextbroker", "host"));
-        configMap.put("cb_port", ini.get("contextbroker", "port"));
-
-        configMap.put("idas_aaa", ini.get("idas", "OAuth"));
-        configMap.put("idas_host", ini.get("idas", "host"));
-        configMap.put("idas_admin_port", ini.get("idas", "adminport"));
-        configMap.put("idas_ul20_port", ini.get("idas", "ul20port"));
-        configMap.put("api_key", ini.get("idas", "apikey"));
-
-        configMap.put("mosquitto_host", ini.get("mosquitto", "host"));
-        configMap.put("mosquitto_port", ini.get("mosquitto", "port"));
-
-        configMap.put("sth_host", ini.get("sthcomet", "host"));
-        configMap.put("sth_port", ini.get("sthcomet", "port"));
+    /*
+     * Creates a map with the necessary attributes from properties named as SECTION.OPTION of the configuration file,
+     * such as contextbroker.host
+     *
+     * @param properties  The properties to be read
+     * @return            A map with the attributes read from the properties
+     */
+    public static Map<String, String> readProperties(Properties properties) {
+        return readAttributes((section, option) -> properties.getProperty(section + "." + option));
+    }
 
-        configMap.put("cygnus_host", ini.get("cygnus", "host"));
-        configMap.put("cygnus_notification_host", ini.get("cygnus", "notification_host"));
-        configMap.put("cygnus_port", ini.get("cygnus", "port"));
+    /*
+     * Creates a map with the necessary attributes from environment variables named as FIWARE_SECTION_OPTION,
+     * in upper case and with dashes replaced by underscores, such as FIWARE_CONTEXTBROKER_HOST
+     *
+     * @param environment  The environment variables, usually System.getenv()
+     * @return             A map with the attributes read from the environment
+     */
+    public static Map<String, String> readEnvironment(Map<String, String> environment) {
+        return readAttributes((section, option) ->
+                environment.get(String.format("FIWARE_%s_%s", section, option).toUpperCase().replace('-', '_')));
+    }
 
-        configMap.put("perseo_host", ini.get("perseo", "host"));
-        configMap.put("perseo_port", ini.get("perseo", "port"));
+    /*
+     * Auxiliary method to fill the configuration map from any source of SECTION/OPTION values
+     */
+    private static Map<String, String> readAttributes(BiFunction<String, String, String> source) {
+        Map<String, String> configMap = new HashMap<>();
+        for (String[] attribute : ATTRIBUTES) {
+            configMap.put(attribute[0], source.apply(attribute[1], attribute[2]));
+        }
 
-        if (configMap.get("idas_aaa").equals("yes")) {
-            configMap.put("token", ini.get("user", "token"));
+        if ("yes".equals(configMap.get("idas_aaa"))) {
+            configMap.put("token", source.apply("user", "token"));
             configMap.put("token_show", "*****");
         } else {
             configMap.put("token", "NULL");
             configMap.put("token_show", "NULL");
         }
 
-        configMap.put("host_id", ini.get("local", "host_id"));
-
         return configMap;
     }
 
+    /*
+     * Reads an optional integer attribute from a configuration map
+     *
+     * @param configMap     The map with the attributes read from the file
+     * @param key           The attribute to be read
+     * @param defaultValue  The value to be used when the attribute is absent
+     * @return              The attribute value or the default value
+     */
+    public static int getInt(Map<String, String> configMap, String key, int defaultValue) {
+        String value = configMap.get(key);
+        return value == null || value.trim().isEmpty() ? defaultValue : Integer.parseInt(value.trim());
+    }
+
+    /*
+     * Reads an optional long attribute from a configuration map
+     *
+     * @param configMap     The map with the attributes read from the file
+     * @param key           The attribute to be read
+     * @param defaultValue  The value to be used when the attribute is absent
+     * @return              The attribute value or the default value
+     */
+    public static long getLong(Map<String, String> configMap, String key, long defaultValue) {
+        String value = configMap.get(key);
+        return value == null || value.trim().isEmpty() ? defaultValue : Long.parseLong(value.trim());
+    }
+
 }
@@ -0,0 +1,395 @@
+package br.ufrn.imd.fiotclient.utils;
+
+import br.ufrn.imd.fiotclient.context.EntityCache;
+import br.ufrn.imd.fiotclient.context.NotificationReceiver;
+import br.ufrn.imd.fiotclient.iot.CommandSubscriber;
+import br.ufrn.imd.fiotclient.iot.MqttSession;
+import br.ufrn.imd.fiotclient.iot.ObservationJournal;
+import br.ufrn.imd.fiotclient.transport.HttpTransport;
+import br.ufrn.imd.fiotclient.transport.RetryPolicy;
+import br.ufrn.imd.fiotclient.transport.Timeouts;
+import org.ini4j.InvalidFileFormatException;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/*
+ * Immutable configuration of FIWARE clients, parsed once and shared by any number of clients.
+ * Creating a client from a FiwareConfig does not read any file, so clients can be created per tenant
+ * or per worker at the cost of a few field assignments.
+ *
+ * Usage:
+ *   FiwareConfig config = FiwareConfig.fromFile("config.ini");
+ *   HttpTransport transport = config.createTransport();
+ *   FiwareContextClient contextClient = new FiwareContextClient(config, transport);
+ *   FiwareIotClient iotClient = new FiwareIotClient(config, transport);
+ */
+public final class FiwareConfig {
+
+    private final Map<String, String> attributes;
+
+    private final String fiwareService;
+    private final String fiwareServicePath;
+    private final String cbHost;
+    private final String cbPort;
+    private final String idasAAA;
+    private final String token;
+    private final String hostId;
+
+    private final String idasHost;
+    private final String idasAdminPort;
+    private final String idasUL20Port;
+    private final String apiKey;
+
+    private final String mosquittoHost;
+    private final String mosquittoPort;
+    private final String mosquittoClientId;
+    private final int mosquittoQos;
+    private final int mosquittoKeepAlive;
+    private final int mosquittoMaxInflight;
+    private final int mosquittoConnectTimeout;
+    private final boolean mosquittoInMemoryPersistence;
+    private final int mosquittoCommandThreads;
+    private final int mosquittoCommandQueueSize;
+
+    private final String sthHost;
+    private final String sthPort;
+    private final String cygnusHost;
+    private final String cygnusNotificationHost;
+    private final String cygnusPort;
+    private final String perseoHost;
+    private final String perseoPort;
+
+    private final RetryPolicy retryPolicy;
+    private final Timeouts timeouts;
+    private final boolean httpCoalesce;
+
+    private final int cacheMaxSize;
+    private final long cacheTtl;
+
+    private final File journalDirectory;
+    private final ObservationJournal.Mode journalMode;
+    private final int journalSegmentSize;
+    private final int journalMaxSegments;
+    private final long journalReplayInterval;
+
+    private final String notificationHost;
+    private final int notificationPort;
+    private final String notificationPath;
+    private final int notificationWorkers;
+    private final int notificationQueueSize;
+
+    /*
+     * @param configMap  The configuration map as returned by ConfigParser. The map is copied.
+     */
+    public FiwareConfig(Map<String, String> configMap) {
+        this.attributes = Collections.unmodifiableMap(new HashMap<>(configMap));
+
+        this.fiwareService = configMap.get("fiware_service");
+        this.fiwareServicePath = configMap.get("fiware_service_path");
+        this.cbHost = configMap.get("cb_host");
+        this.cbPort = configMap.get("cb_port");
+        this.idasAAA = configMap.get("idas_aaa");
+        this.token = configMap.get("token");
+        this.hostId = configMap.get("host_id");
+
+        this.idasHost = configMap.get("idas_host");
+        this.idasAdminPort = configMap.get("idas_admin_port");
+        this.idasUL20Port = configMap.get("idas_ul20_port");
+        this.apiKey = configMap.get("api_key");
+
+        this.mosquittoHost = configMap.get("mosquitto_host");
+        this.mosquittoPort = configMap.get("mosquitto_port");
+        this.mosquittoClientId = configMap.get("mosquitto_client_id");
+        this.mosquittoQos = ConfigParser.getInt(configMap, "mosquitto_qos", MqttSession.DEFAULT_QOS);
+        this.mosquittoKeepAlive = ConfigParser.getInt(configMap, "mosquitto_keep_alive", MqttSession.DEFAULT_KEEP_ALIVE);
+        this.mosquittoMaxInflight = ConfigParser.getInt(configMap, "mosquitto_max_inflight", MqttSession.DEFAULT_MAX_INFLIGHT);
+        this.mosquittoConnectTimeout = ConfigParser.getInt(configMap, "mosquitto_connect_timeout", MqttSession.DEFAULT_CONNECT_TIMEOUT);
+        this.mosquittoInMemoryPersistence = !"file".equals(configMap.get("mosquitto_persistence"));
+        this.mosquittoCommandThreads = ConfigParser.getInt(configMap, "mosquitto_command_threads", CommandSubscriber.DEFAULT_THREADS);
+        this.mosquittoCommandQueueSize = ConfigParser.getInt(configMap, "mosquitto_command_queue_size", CommandSubscriber.DEFAULT_QUEUE_SIZE);
+
+        this.sthHost = configMap.get("sth_host");
+        this.sthPort = configMap.get("sth_port");
+        this.cygnusHost = configMap.get("cygnus_host");
+        this.cygnusNotificationHost = configMap.get("cygnus_notification_host");
+        this.cygnusPort = configMap.get("cygnus_port");
+        this.perseoHost = configMap.get("perseo_host");
+        this.perseoPort = configMap.get("perseo_port");
+
+        this.retryPolicy = RetryPolicy.fromConfig(configMap);
+        this.timeouts = Timeouts.fromConfig(configMap);
+        this.httpCoalesce = "yes".equals(configMap.get("http_coalesce"));
+
+        this.cacheMaxSize = ConfigParser.getInt(configMap, "cache_max_size", 0);
+        this.cacheTtl = ConfigParser.getLong(configMap, "cache_ttl", EntityCache.DEFAULT_TTL_MILLIS);
+
+        String journalDirectory = configMap.get("journal_dir");
+        this.journalDirectory = journalDirectory == null || journalDirectory.isEmpty() ? null : new File(journalDirectory);
+        this.journalMode = "writeahead".equals(configMap.get("journal_mode"))
+                ? ObservationJournal.Mode.WRITE_AHEAD : ObservationJournal.Mode.ON_FAILURE;
+        this.journalSegmentSize = ConfigParser.getInt(configMap, "journal_segment_size", ObservationJournal.DEFAULT_SEGMENT_SIZE);
+        this.journalMaxSegments = ConfigParser.getInt(configMap, "journal_max_segments", ObservationJournal.DEFAULT_MAX_SEGMENTS);
+        this.journalReplayInterval = ConfigParser.getLong(configMap, "journal_replay_interval",
+                                                          ObservationJournal.DEFAULT_REPLAY_INTERVAL_MILLIS);
+
+        String notificationHost = configMap.get("notification_host");
+        this.notificationHost = notificationHost == null || notificationHost.isEmpty() ? null : notificationHost;
+        this.notificationPort = ConfigParser.getInt(configMap, "notification_port", 0);
+        String notificationPath = configMap.get("notification_path");
+        this.notificationPath = notificationPath == null || notificationPath.isEmpty() ? NotificationReceiver.DEFAULT_PATH : notificationPath;
+        this.notificationWorkers = ConfigParser.getInt(configMap, "notification_workers", NotificationReceiver.DEFAULT_WORKERS);
+        this.notificationQueueSize = ConfigParser.getInt(configMap, "notification_queue_size", NotificationReceiver.DEFAULT_QUEUE_SIZE);
+    }
+
+    /*
+     * @param configFile  The configuration file to be read
+     * @return            The configuration read from the file
+     */
+    public static FiwareConfig fromFile(String configFile) throws InvalidFileFormatException, IOException {
+        return new FiwareConfig(ConfigParser.readConfigFile(configFile));
+    }
+
+    /*
+     * @param properties  Properties named as SECTION.OPTION of the configuration file, such as contextbroker.host
+     * @return            The configuration read from the properties
+     */
+    public static FiwareConfig fromProperties(Properties properties) {
+        return new FiwareConfig(ConfigParser.readProperties(properties));
+    }
+
+    /*
+     * @return  The configuration read from environment variables named as FIWARE_SECTION_OPTION, such as FIWARE_CONTEXTBROKER_HOST
+     */
+    public static FiwareConfig fromEnvironment() {
+        return new FiwareConfig(ConfigParser.readEnvironment(System.getenv()));
+    }
+
+    /*
+     * Creates a new transport with the pool, timeout and circuit breaker settings of this configuration.
+     * The transport can be shared by all the clients created from this configuration and must be closed by the caller.
+     *
+     * @return  The configured transport
+     */
+    public HttpTransport createTransport() {
+        return HttpTransport.fromConfig(this.attributes);
+    }
+
+    /*
+     * @param key  The attribute of the configuration map, such as cb_host
+     * @return     The value of the attribute, or null if it is absent
+     */
+    public String get(String key) {
+        return attributes.get(key);
+    }
+
+    public int getInt(String key, int defaultValue) {
+        return ConfigParser.getInt(this.attributes, key, defaultValue);
+    }
+
+    public long getLong(String key, long defaultValue) {
+        return ConfigParser.getLong(this.attributes, key, defaultValue);
+    }
+
+    /*
+     * @return  An unmodifiable view of the configuration map
+     */
+    public Map<String, String> asMap() {
+        return attributes;
+    }
+
+    public String getFiwareService() {
+        return fiwareService;
+    }
+
+    public String getFiwareServicePath() {
+        return fiwareServicePath;
+    }
+
+    public String getCbHost() {
+        return cbHost;
+    }
+
+    public String getCbPort() {
+        return cbPort;
+    }
+
+    public String getIdasAAA() {
+        return idasAAA;
+    }
+
+    public String getToken() {
+        return token;
+    }
+
+    public String getHostId() {
+        return hostId;
+    }
+
+    public String getIdasHost() {
+        return idasHost;
+    }
+
+    public String getIdasAdminPort() {
+        return idasAdminPort;
+    }
+
+    public String getIdasUL20Port() {
+        return idasUL20Port;
+    }
+
+    public String getApiKey() {
+        return apiKey;
+    }
+
+    public String getMosquittoHost() {
+        return mosquittoHost;
+    }
+
+    public String getMosquittoPort() {
+        return mosquittoPort;
+    }
+
+    public String getMosquittoClientId() {
+        return mosquittoClientId;
+    }
+
+    public int getMosquittoQos() {
+        return mosquittoQos;
+    }
+
+    public int getMosquittoKeepAlive() {
+        return mosquittoKeepAlive;
+    }
+
+    public int getMosquittoMaxInflight() {
+        return mosquittoMaxInflight;
+    }
+
+    /*
+     * @return  How long, in seconds, a connection attempt to the broker waits for it
+     */
+    public int getMosquittoConnectTimeout() {
+        return mosquittoConnectTimeout;
+    }
+
+    /*
+     * @return  False if the MQTT session state must be kept on files, as set by persistence = file
+     */
+    public boolean isMosquittoInMemoryPersistence() {
+        return mosquittoInMemoryPersistence;
+    }
+
+    public int getMosquittoCommandThreads() {
+        return mosquittoCommandThreads;
+    }
+
+    public int getMosquittoCommandQueueSize() {
+        return mosquittoCommandQueueSize;
+    }
+
+    public String getSthHost() {
+        return sthHost;
+    }
+
+    public String getSthPort() {
+        return sthPort;
+    }
+
+    public String getCygnusHost() {
+        return cygnusHost;
+    }
+
+    public String getCygnusNotificationHost() {
+        return cygnusNotificationHost;
+    }
+
+    public String getCygnusPort() {
+        return cygnusPort;
+    }
+
+    public String getPerseoHost() {
+        return perseoHost;
+    }
+
+    public String getPerseoPort() {
+        return perseoPort;
+    }
+
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    public Timeouts getTimeouts() {
+        return timeouts;
+    }
+
+    public boolean isHttpCoalesce() {
+        return httpCoalesce;
+    }
+
+    /*
+     * @return  The maximum number of entities on the entity cache, or 0 if the cache is disabled
+     */
+    public int getCacheMaxSize() {
+        return cacheMaxSize;
+    }
+
+    public long getCacheTtl() {
+        return cacheTtl;
+    }
+
+    /*
+     * @return  The directory of the observation journal, or null if the journal is disabled
+     */
+    public File getJournalDirectory() {
+        return journalDirectory;
+    }
+
+    public ObservationJournal.Mode getJournalMode() {
+        return journalMode;
+    }
+
+    public int getJournalSegmentSize() {
+        return journalSegmentSize;
+    }
+
+    public int getJournalMaxSegments() {
+        return journalMaxSegments;
+    }
+
+    public long getJournalReplayInterval() {
+        return journalReplayInterval;
+    }
+
+    /*
+     * @return  The address on which notifications are received, or null to receive them on all addresses
+     */
+    public String getNotificationHost() {
+        return notificationHost;
+    }
+
+    /*
+     * @return  The port on which notifications are received, or 0 for an ephemeral port
+     */
+    public int getNotificationPort() {
+        return notificationPort;
+    }
+
+    public String getNotificationPath() {
+        return notificationPath;
+    }
+
+    public int getNotificationWorkers() {
+        return notificationWorkers;
+    }
+
+    public int getNotificationQueueSize() {
+        return notificationQueueSize;
+    }
+
+}
@@ -0,0 +1,187 @@
+package br.ufrn.imd.fiotclient.utils;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/*
+ * JSON document with placeholders on format [NAME] (e.g. [ENTITY_ID], [DEVICE_ID]), compiled once to be rendered many times.
+ * The document is validated when compiled and the placeholder positions are precomputed, so rendering is a single
+ * pass that appends literal parts and values to a presized buffer.
+ *
+ * Placeholders without a value on rendering are kept as they are.
+ */
+public class JsonTemplate {
+
+    private static final Pattern PLACEHOLDER = Pattern.compile("\\[([A-Z][A-Z0-9_]*)\\]");
+
+    private static final Map<Path, CachedTemplate> FILE_CACHE = new ConcurrentHashMap<>();
+
+    private final String source;
+    private final String[] literals;
+    private final String[] placeholders;
+    private final Set<String> placeholderNames;
+    private final int literalsLength;
+
+    private JsonTemplate(String source, String[] literals, String[] placeholders) {
+        this.source = source;
+        this.literals = literals;
+        this.placeholders = placeholders;
+
+        Set<String> names = new HashSet<>();
+        Collections.addAll(names, placeholders);
+        this.placeholderNames = Collections.unmodifiableSet(names);
+
+        int length = 0;
+        for (String literal : literals) {
+            length += literal.length();
+        }
+        this.literalsLength = length;
+    }
+
+    /*
+     * Compiles a template from a JSON string
+     *
+     * @param source  The JSON string with placeholders
+     * @return        The compiled template
+     * @throws JSONException if the string is not a valid JSON document
+     */
+    public static JsonTemplate compile(String source) throws JSONException {
+        //Tests if content is a valid JSON (or throws JSONException)
+        new JSONObject(source);
+
+        List<String> literals = new ArrayList<>();
+        List<String> placeholders = new ArrayList<>();
+
+        Matcher matcher = PLACEHOLDER.matcher(source);
+        int start = 0;
+        while (matcher.find()) {
+            literals.add(source.substring(start, matcher.start()));
+            placeholders.add(matcher.group(1));
+            start = matcher.end();
+        }
+        literals.add(source.substring(start));
+
+        return new JsonTemplate(source, literals.toArray(new String[0]), placeholders.toArray(new String[0]));
+    }
+
+    /*
+     * Loads a template from a file. Compiled templates are cached by file path and reused while the
+     * file modification time and size do not change.
+     *
+     * @param filePath  The path to the JSON file
+     * @return          The compiled template
+     * @throws JSONException if the file content is not a valid JSON document
+     */
+    public static JsonTemplate fromFile(String filePath) throws IOException, JSONException {
+        Path path = Paths.get(filePath).toAbsolutePath().normalize();
+        FileTime modifiedAt = Files.getLastModifiedTime(path);
+        long size = Files.size(path);
+
+        CachedTemplate cached = FILE_CACHE.get(path);
+        if (cached != null && cached.modifiedAt.equals(modifiedAt) && cached.size == size) {
+            return cached.template;
+        }
+
+        byte[] fileBytes = Files.readAllBytes(path);
+        JsonTemplate template = compile(new String(fileBytes, Charset.defaultCharset()));
+
+        FILE_CACHE.put(path, new CachedTemplate(template, modifiedAt, size));
+        return template;
+    }
+
+    /*
+     * Removes all templates loaded from files from the cache
+     */
+    public static void clearFileCache() {
+        FILE_CACHE.clear();
+    }
+
+    /*
+     * Renders the template replacing its placeholders
+     *
+     * @param values  A map where keys are placeholder names (without brackets) and values are their replacements
+     * @return        The rendered document
+     */
+    public String render(Map<String, String> values) {
+        int size = this.literalsLength;
+        for (String name : this.placeholders) {
+            String value = values.get(name);
+            size += value != null ? value.length() : name.length() + 2;
+        }
+
+        StringBuilder builder = new StringBuilder(size);
+        for (int i = 0; i < this.placeholders.length; i++) {
+            builder.append(this.literals[i]);
+
+            String value = values.get(this.placeholders[i]);
+            if (value != null) {
+                builder.append(value);
+            } else {
+                builder.append('[').append(this.placeholders[i]).append(']');
+            }
+        }
+        builder.append(this.literals[this.literals.length - 1]);
+
+        return builder.toString();
+    }
+
+    /*
+     * Renders the template replacing a single placeholder
+     *
+     * @param name   The placeholder name, without brackets
+     * @param value  The replacement of the placeholder
+     * @return       The rendered document
+     */
+    public String render(String name, String value) {
+        return this.render(Collections.singletonMap(name, value));
+    }
+
+    public boolean hasPlaceholder(String name) {
+        return placeholderNames.contains(name);
+    }
+
+    /*
+     * @param text  The text to be searched
+     * @return      True if the template source contains the text
+     */
+    public boolean contains(String text) {
+        return source.contains(text);
+    }
+
+    public Set<String> getPlaceholderNames() {
+        return placeholderNames;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    private static class CachedTemplate {
+        private final JsonTemplate template;
+        private final FileTime modifiedAt;
+        private final long size;
+
+        private CachedTemplate(JsonTemplate template, FileTime modifiedAt, long size) {
+            this.template = template;
+            this.modifiedAt = modifiedAt;
+            this.size = size;
+        }
+    }
+
+}
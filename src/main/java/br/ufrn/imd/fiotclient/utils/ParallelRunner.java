@@ -0,0 +1,111 @@
+package br.ufrn.imd.fiotclient.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+public class ParallelRunner {
+
+    /*
+     * Runs asynchronous tasks keeping at most a given number of them running at the same time.
+     * A task is only started when a previous one completes, so no thread is held while waiting.
+     *
+     * @param tasks        The tasks to be run, each one starting its work when called
+     * @param parallelism  The maximum number of tasks running at the same time
+     * @return             A future completed with the task results, in the same order of the tasks.
+     *                     If any task fails, the future fails with the first failure after all tasks finish.
+     */
+    public static <T> CompletableFuture<List<T>> runBounded(List<Supplier<CompletableFuture<T>>> tasks, int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1");
+        }
+
+        CompletableFuture<List<T>> result = new CompletableFuture<>();
+        if (tasks.isEmpty()) {
+            result.complete(new ArrayList<>());
+            return result;
+        }
+
+        Object[] results = new Object[tasks.size()];
+        AtomicInteger nextTask = new AtomicInteger();
+        AtomicInteger remainingTasks = new AtomicInteger(tasks.size());
+        AtomicReference<Throwable> firstFailure = new AtomicReference<>();
+
+        // Slots freed and not filled yet. Only the thread that moves it from zero starts tasks, in a loop, so tasks
+        // completing on the thread that started them free their slot without nesting another start on the stack
+        AtomicInteger slotsToFill = new AtomicInteger();
+
+        Runnable[] fillSlot = new Runnable[1];
+        Runnable startNext = () -> {
+            int index = nextTask.getAndIncrement();
+            if (index >= tasks.size()) {
+                return;
+            }
+
+            CompletableFuture<T> future;
+            try {
+                future = tasks.get(index).get();
+            } catch (RuntimeException e) {
+                future = new CompletableFuture<>();
+                future.completeExceptionally(e);
+            }
+
+            future.whenComplete((value, error) -> {
+                if (error != null) {
+                    firstFailure.compareAndSet(null, error);
+                } else {
+                    results[index] = value;
+                }
+
+                if (remainingTasks.decrementAndGet() == 0) {
+                    if (firstFailure.get() != null) {
+                        result.completeExceptionally(firstFailure.get());
+                    } else {
+                        @SuppressWarnings("unchecked")
+                        List<T> values = (List<T>) new ArrayList<>(Arrays.asList(results));
+                        result.complete(values);
+                    }
+                } else {
+                    fillSlot[0].run();
+                }
+            });
+        };
+        fillSlot[0] = () -> {
+            if (slotsToFill.getAndIncrement() == 0) {
+                do {
+                    startNext.run();
+                } while (slotsToFill.decrementAndGet() > 0);
+            }
+        };
+
+        for (int i = 0; i < Math.min(parallelism, tasks.size()); i++) {
+            fillSlot[0].run();
+        }
+
+        return result;
+    }
+
+    /*
+     * Splits a list in consecutive chunks of at most a given size
+     *
+     * @param items      The list to be split
+     * @param chunkSize  The maximum size of each chunk
+     * @return           The list of chunks, which are views of the original list
+     */
+    public static <T> List<List<T>> chunk(List<T> items, int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("Chunk size must be at least 1");
+        }
+
+        List<List<T>> chunks = new ArrayList<>();
+        for (int start = 0; start < items.size(); start += chunkSize) {
+            chunks.add(items.subList(start, Math.min(items.size(), start + chunkSize)));
+        }
+        return chunks;
+    }
+
+}
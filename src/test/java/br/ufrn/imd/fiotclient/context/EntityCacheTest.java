@@ -0,0 +1,87 @@
+package br.ufrn.imd.fiotclient.context;
+
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class EntityCacheTest {
+
+    @Test
+    public void storesAndReadsEntitiesByServiceTypeAndId() {
+        EntityCache cache = new EntityCache(10, 60000);
+        cache.put("s", "/", "Room", "R1", "v1", cache.getGeneration());
+
+        assertEquals("v1", cache.get("s", "/", "Room", "R1"));
+        assertNull(cache.get("s", "/", "Car", "R1"));
+        assertNull(cache.get("other", "/", "Room", "R1"));
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    public void discardsReadsThatStartedBeforeAnInvalidation() {
+        EntityCache cache = new EntityCache(10, 60000);
+
+        long staleRead = cache.getGeneration();
+        cache.invalidate("s", "/", Collections.singleton("R1"));
+        assertFalse(cache.put("s", "/", "Room", "R1", "stale", staleRead));
+        assertNull(cache.get("s", "/", "Room", "R1"));
+
+        long freshRead = cache.getGeneration();
+        assertTrue(cache.put("s", "/", "Room", "R1", "fresh", freshRead));
+        // A slower read that started before the invalidation must not replace the fresh value either
+        assertFalse(cache.put("s", "/", "Room", "R1", "stale", staleRead));
+        assertEquals("fresh", cache.get("s", "/", "Room", "R1"));
+    }
+
+    @Test
+    public void invalidationsOfOtherEntitiesDoNotDiscardReads() {
+        EntityCache cache = new EntityCache(10, 60000);
+
+        long read = cache.getGeneration();
+        cache.invalidate("s", "/", Collections.singleton("R2"));
+        assertTrue(cache.put("s", "/", "Room", "R1", "v1", read));
+    }
+
+    @Test
+    public void discardsStaleReadsAfterTheTombstoneIsEvicted() {
+        EntityCache cache = new EntityCache(2, 60000);
+
+        long staleRead = cache.getGeneration();
+        cache.invalidate("s", "/", Collections.singleton("R1"));
+        cache.put("s", "/", "Room", "R2", "v2", cache.getGeneration());
+        cache.put("s", "/", "Room", "R3", "v3", cache.getGeneration());
+
+        assertFalse(cache.put("s", "/", "Room", "R1", "stale", staleRead));
+    }
+
+    @Test
+    public void evictsTheLeastRecentlyUsedEntity() {
+        EntityCache cache = new EntityCache(2, 60000);
+        cache.put("s", "/", "Room", "R1", "v1", cache.getGeneration());
+        cache.put("s", "/", "Room", "R2", "v2", cache.getGeneration());
+        cache.get("s", "/", "Room", "R1");
+        cache.put("s", "/", "Room", "R3", "v3", cache.getGeneration());
+
+        assertEquals("v1", cache.get("s", "/", "Room", "R1"));
+        assertNull(cache.get("s", "/", "Room", "R2"));
+        assertEquals(1, cache.getEvictions());
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void expiresEntitiesAfterTheirTimeToLive() throws InterruptedException {
+        EntityCache cache = new EntityCache(10, 5);
+        cache.put("s", "/", "Room", "R1", "v1", cache.getGeneration());
+        Thread.sleep(20);
+
+        assertNull(cache.get("s", "/", "Room", "R1"));
+        assertEquals(1, cache.getExpirations());
+    }
+
+}
@@ -0,0 +1,88 @@
+package br.ufrn.imd.fiotclient.context;
+
+import br.ufrn.imd.fiotclient.metrics.ClientMetrics;
+import br.ufrn.imd.fiotclient.transport.RetryPolicy;
+import br.ufrn.imd.fiotclient.utils.FiwareConfig;
+import com.sun.net.httpserver.HttpServer;
+import org.json.JSONArray;
+import org.junit.Test;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class FiwareContextClientTest {
+
+    @Test
+    public void viewsFollowSettingsChangedOnTheirClient() throws Exception {
+        try (FiwareContextClient client = new FiwareContextClient(new FiwareConfig(new HashMap<>()), null)) {
+            FiwareContextClient view = client.forService("tenant", "/");
+            FiwareContextClient viewOfView = view.forService("other", "/");
+
+            client.enableEntityCache(10, 60000);
+            client.enableRequestCoalescing();
+            ClientMetrics metrics = new ClientMetrics() { };
+            client.setMetrics(metrics);
+            client.setRetryPolicy(RetryPolicy.NONE);
+
+            for (FiwareContextClient shared : new FiwareContextClient[] {view, viewOfView}) {
+                assertSame(client.getEntityCache(), shared.getEntityCache());
+                assertSame(client.getRequestCoalescer(), shared.getRequestCoalescer());
+                assertSame(metrics, shared.getMetrics());
+                assertSame(RetryPolicy.NONE, shared.getRetryPolicy());
+            }
+
+            client.disableEntityCache();
+            client.disableRequestCoalescing();
+            assertNull(view.getEntityCache());
+            assertNull(viewOfView.getRequestCoalescer());
+            assertNotNull(view.getTimeouts());
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void viewsCannotChangeSharedSettings() throws Exception {
+        try (FiwareContextClient client = new FiwareContextClient(new FiwareConfig(new HashMap<>()), null)) {
+            client.forService("tenant", "/").enableEntityCache(10, 60000);
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void batchQueryIsRetriedAlthoughSentAsPost() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/v2/op/query", exchange -> {
+            boolean unavailable = attempts.incrementAndGet() == 1;
+            byte[] body = (unavailable ? "{}" : "[{\"id\":\"ROOM_1\",\"type\":\"Room\"}]").getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(unavailable ? 503 : 200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+
+        Map<String, String> config = new HashMap<>();
+        config.put("cb_host", "127.0.0.1");
+        config.put("cb_port", String.valueOf(server.getAddress().getPort()));
+        config.put("retry_base_delay", "1");
+        try (FiwareContextClient client = new FiwareContextClient(new FiwareConfig(config), null)) {
+            JSONArray entities = client.batchQuery(Collections.singletonList(EntitySelector.byId("ROOM_1", "Room")),
+                                                   null, false, 10, 1);
+
+            assertEquals(1, entities.length());
+            assertEquals(2, attempts.get());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+}
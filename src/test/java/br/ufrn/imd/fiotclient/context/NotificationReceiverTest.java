@@ -0,0 +1,155 @@
+package br.ufrn.imd.fiotclient.context;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class NotificationReceiverTest {
+
+    private static final String BODY = "{\"subscriptionId\":\"s1\",\"data\":[{\"id\":\"ROOM_1\",\"type\":\"Room\"}]}";
+
+    @Test(timeout = 30000)
+    public void dispatchesEveryAcceptedNotification() throws Exception {
+        int senders = 8;
+        int perSender = 100;
+        AtomicInteger notified = new AtomicInteger();
+
+        try (NotificationReceiver receiver = new NotificationReceiver(new InetSocketAddress("127.0.0.1", 0),
+                                                                      NotificationReceiver.DEFAULT_PATH, 4, 4096, 4,
+                                                                      NotificationReceiver.DEFAULT_MAX_BODY_SIZE)) {
+            receiver.addListener(notification -> notified.incrementAndGet());
+            String url = receiver.getNotificationUrl("127.0.0.1");
+
+            ExecutorService executor = Executors.newFixedThreadPool(senders);
+            try {
+                List<Future<Integer>> accepted = new ArrayList<>();
+                for (int s = 0; s < senders; s++) {
+                    accepted.add(executor.submit(() -> {
+                        int ok = 0;
+                        for (int i = 0; i < perSender; i++) {
+                            if (post(url, BODY) == 200) {
+                                ok++;
+                            }
+                        }
+                        return ok;
+                    }));
+                }
+                int total = 0;
+                for (Future<Integer> future : accepted) {
+                    total += future.get();
+                }
+
+                assertEquals(senders * perSender, total);
+                while (receiver.getDispatchedCount() < total) {
+                    Thread.sleep(5);
+                }
+                assertEquals(total, notified.get());
+                assertEquals(0, receiver.getFailedCount());
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void closeDispatchesQueuedNotifications() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger notified = new AtomicInteger();
+
+        NotificationReceiver receiver = new NotificationReceiver(new InetSocketAddress("127.0.0.1", 0),
+                                                                 NotificationReceiver.DEFAULT_PATH, 1, 64);
+        receiver.addListener(notification -> {
+            await(release);
+            notified.incrementAndGet();
+        });
+
+        String url = receiver.getNotificationUrl("127.0.0.1");
+        for (int i = 0; i < 10; i++) {
+            assertEquals(200, post(url, BODY));
+        }
+
+        release.countDown();
+        receiver.close();
+
+        assertEquals(10, notified.get());
+        assertEquals(10, receiver.getDispatchedCount());
+    }
+
+    @Test(timeout = 30000)
+    public void shedsNotificationsWhenQueueIsFull() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+
+        try (NotificationReceiver receiver = new NotificationReceiver(new InetSocketAddress("127.0.0.1", 0),
+                                                                      NotificationReceiver.DEFAULT_PATH, 1, 2)) {
+            receiver.addListener(notification -> await(release));
+            String url = receiver.getNotificationUrl("127.0.0.1");
+
+            // One notification blocks the worker and two fill the queue
+            int accepted = 0;
+            for (int i = 0; i < 6; i++) {
+                if (post(url, BODY) == 200) {
+                    accepted++;
+                }
+            }
+            release.countDown();
+
+            assertTrue(accepted <= 3);
+            assertEquals(6 - accepted, receiver.getRejectedCount());
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void answersErrorsForInvalidRequests() throws Exception {
+        try (NotificationReceiver receiver = new NotificationReceiver(new InetSocketAddress("127.0.0.1", 0),
+                                                                      NotificationReceiver.DEFAULT_PATH, 1, 16, 1, 16)) {
+            String url = receiver.getNotificationUrl("127.0.0.1");
+
+            HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+            assertEquals(405, connection.getResponseCode());
+            connection.disconnect();
+
+            assertEquals(404, post(url + "/other", BODY));
+            assertEquals(413, post(url, BODY));
+        }
+    }
+
+    private static int post(String url, String body) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        try {
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", "application/json");
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(body.getBytes(StandardCharsets.UTF_8));
+            }
+            return connection.getResponseCode();
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
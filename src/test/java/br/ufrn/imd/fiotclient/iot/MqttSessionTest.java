@@ -0,0 +1,145 @@
+package br.ufrn.imd.fiotclient.iot;
+
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MqttSessionTest {
+
+    // A broker that accepts connections but never answers CONNECT, so each attempt lasts the connect timeout
+    private ServerSocket silentBroker;
+    private final AtomicInteger connections = new AtomicInteger();
+    private final List<Socket> sockets = new CopyOnWriteArrayList<>();
+
+    @Before
+    public void startBroker() throws IOException {
+        this.silentBroker = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(() -> {
+            while (!this.silentBroker.isClosed()) {
+                try {
+                    this.sockets.add(this.silentBroker.accept());
+                    this.connections.incrementAndGet();
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    @After
+    public void stopBroker() throws IOException {
+        this.silentBroker.close();
+        for (Socket socket : this.sockets) {
+            socket.close();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void closedSessionNeverConnectsAgain() throws Exception {
+        MqttSession session = newSession();
+        session.close();
+
+        assertTrue(session.isClosed());
+        assertClosed(() -> session.publish("/key/device/attrs", new byte[]{1}));
+        assertClosed(() -> session.subscribe("/key/device/cmd", (topic, message) -> { }));
+        assertClosed(session::connect);
+        assertEquals(0, this.connections.get());
+    }
+
+    @Test(timeout = 20000)
+    public void concurrentCallersShareOneConnectionAttempt() throws Exception {
+        MqttSession session = newSession();
+        int callers = 8;
+        CountDownLatch done = new CountDownLatch(callers);
+        List<Throwable> failures = new CopyOnWriteArrayList<>();
+
+        long start = System.nanoTime();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < callers; i++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    session.publish("/key/device/attrs", new byte[]{1});
+                } catch (MqttException e) {
+                    failures.add(e);
+                } finally {
+                    done.countDown();
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        done.await();
+        long elapsedMillis = (System.nanoTime() - start) / 1000000;
+
+        assertEquals(callers, failures.size());
+        assertEquals(1, this.connections.get());
+        // One timeout for everybody, instead of one after another
+        assertTrue("Took " + elapsedMillis + " ms", elapsedMillis < 4000);
+        session.close();
+    }
+
+    @Test(timeout = 20000)
+    public void closeDuringConnectionAttemptDoesNotWait() throws Exception {
+        MqttSession session = newSession();
+        CountDownLatch attempted = new CountDownLatch(1);
+        Thread publisher = new Thread(() -> {
+            try {
+                attempted.countDown();
+                session.publish("/key/device/attrs", new byte[]{1});
+            } catch (MqttException e) {
+                // expected, the broker never answers
+            }
+        });
+        publisher.start();
+        attempted.await();
+        while (this.connections.get() == 0) {
+            Thread.sleep(5);
+        }
+
+        long start = System.nanoTime();
+        session.close();
+        assertTrue((System.nanoTime() - start) / 1000000 < 1000);
+
+        publisher.join();
+        assertClosed(() -> session.publish("/key/device/attrs", new byte[]{1}));
+        assertFalse(session.isConnected());
+        assertEquals(1, this.connections.get());
+    }
+
+    private MqttSession newSession() {
+        String serverUri = "tcp://127.0.0.1:" + this.silentBroker.getLocalPort();
+        return new MqttSession(serverUri, null, 0, 60, 10, true, 2);
+    }
+
+    private static void assertClosed(MqttCall call) {
+        try {
+            call.run();
+            fail("Expected the session to be closed");
+        } catch (MqttException e) {
+            assertEquals(MqttException.REASON_CODE_CLIENT_CLOSED, e.getReasonCode());
+        }
+    }
+
+    private interface MqttCall {
+        void run() throws MqttException;
+    }
+
+}
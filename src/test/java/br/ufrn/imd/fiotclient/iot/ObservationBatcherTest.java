@@ -0,0 +1,139 @@
+package br.ufrn.imd.fiotclient.iot;
+
+import br.ufrn.imd.fiotclient.utils.FiwareConfig;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ObservationBatcherTest {
+
+    private final Map<String, List<Integer>> sent = new ConcurrentHashMap<>();
+    private volatile Predicate<String> blocked = deviceId -> false;
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    private RecordingClient client;
+
+    @Before
+    public void createClient() throws IOException {
+        this.client = new RecordingClient();
+    }
+
+    @After
+    public void closeClient() throws IOException {
+        this.release.countDown();
+        this.client.close();
+    }
+
+    @Test(timeout = 30000)
+    public void keepsOrderOfDeviceBatches() throws Exception {
+        int devices = 8;
+        int perDevice = 5000;
+
+        // Batches are closed both by producers, when full, and by the ticker, when aged
+        ObservationBatcher batcher = new ObservationBatcher(this.client, "MQTT", 7, 1, false, 2, 4);
+        List<Thread> producers = new ArrayList<>();
+        for (int d = 0; d < devices; d++) {
+            String deviceId = "DEVICE_" + d;
+            producers.add(new Thread(() -> {
+                for (int i = 0; i < perDevice; i++) {
+                    batcher.add(deviceId, "seq", String.valueOf(i));
+                }
+            }));
+        }
+        producers.forEach(Thread::start);
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        batcher.close();
+
+        assertEquals(devices, this.sent.size());
+        for (List<Integer> sequence : this.sent.values()) {
+            assertEquals(perDevice, sequence.size());
+            for (int i = 0; i < perDevice; i++) {
+                assertEquals(i, sequence.get(i).intValue());
+            }
+        }
+        assertEquals(0, batcher.getFailedBatches());
+    }
+
+    @Test(timeout = 30000)
+    public void slowLaneDoesNotDelayAgedBatchesOfOtherLanes() throws Exception {
+        String slowDevice = deviceOnLane(0);
+        String otherDevice = deviceOnLane(1);
+        this.blocked = slowDevice::equals;
+
+        // Two lanes holding one batch being sent and one waiting each
+        ObservationBatcher batcher = new ObservationBatcher(this.client, "MQTT", 100, 20, false, 2, 2);
+        batcher.add(slowDevice, "seq", "0");
+        awaitQueued(batcher, 0);
+        batcher.add(slowDevice, "seq", "1");
+        awaitQueued(batcher, 1);
+        // The ticker finds the lane full for this one
+        batcher.add(slowDevice, "seq", "2");
+        Thread.sleep(100);
+
+        batcher.add(otherDevice, "seq", "0");
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!this.sent.containsKey(otherDevice) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertTrue(this.sent.containsKey(otherDevice));
+
+        this.release.countDown();
+        batcher.close();
+        assertEquals(3, this.sent.get(slowDevice).size());
+    }
+
+    private static void awaitQueued(ObservationBatcher batcher, int queued) throws InterruptedException {
+        while (batcher.getQueuedBatches() != queued || batcher.getPendingMeasurements() != 0) {
+            Thread.sleep(1);
+        }
+    }
+
+    private static String deviceOnLane(int lane) {
+        for (int i = 0; ; i++) {
+            String deviceId = "DEVICE_" + i;
+            if (Math.floorMod(deviceId.hashCode(), 2) == lane) {
+                return deviceId;
+            }
+        }
+    }
+
+    private final class RecordingClient extends FiwareIotClient {
+
+        private RecordingClient() throws IOException {
+            super(new FiwareConfig(Collections.emptyMap()), null);
+        }
+
+        @Override
+        public String sendObservation(String deviceId, List<Map<String, String>> measurementGroups, String protocol) {
+            if (blocked.test(deviceId)) {
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            List<Integer> sequence = sent.computeIfAbsent(deviceId, id -> Collections.synchronizedList(new ArrayList<>()));
+            for (Map<String, String> group : measurementGroups) {
+                sequence.add(Integer.valueOf(group.get("seq")));
+            }
+            return "{\"result\":\"OK\"}";
+        }
+
+    }
+
+}
@@ -0,0 +1,197 @@
+package br.ufrn.imd.fiotclient.iot;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ObservationJournalTest {
+
+    private static final int SEGMENT_SIZE = 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test(timeout = 10000)
+    public void replaysInOrderOnceDeliveryRecovers() throws Exception {
+        RecordingSender sender = new RecordingSender();
+        sender.available = false;
+        File directory = folder.newFolder();
+
+        try (ObservationJournal journal = new ObservationJournal(directory, ObservationJournal.Mode.ON_FAILURE,
+                                                                 SEGMENT_SIZE, 4, 20, sender)) {
+            for (int i = 0; i < 5; i++) {
+                assertTrue(journal.append("device" + i, payload(i), "HTTP"));
+            }
+            await(() -> sender.attempts() >= 3);
+            assertEquals(5, journal.getPendingRecords());
+            assertTrue(sender.delivered().isEmpty());
+
+            sender.available = true;
+            await(() -> !journal.hasPending());
+
+            assertEquals(Arrays.asList("device0", "device1", "device2", "device3", "device4"), sender.delivered());
+            assertEquals(5, journal.getReplayedRecords());
+            assertEquals(0, journal.getRejectedRecords());
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void rejectedObservationDoesNotBlockTheOthers() throws Exception {
+        RecordingSender sender = new RecordingSender();
+        sender.rejectedDevice = "bad";
+        File directory = folder.newFolder();
+
+        try (ObservationJournal journal = new ObservationJournal(directory, ObservationJournal.Mode.WRITE_AHEAD,
+                                                                 SEGMENT_SIZE, 4, 60000, sender)) {
+            journal.append("device0", payload(0), "HTTP");
+            journal.append("bad", payload(1), "HTTP");
+            journal.append("device2", payload(2), "MQTT");
+
+            await(() -> !journal.hasPending());
+
+            assertEquals(Arrays.asList("device0", "device2"), sender.delivered());
+            assertEquals(2, journal.getReplayedRecords());
+            assertEquals(1, journal.getRejectedRecords());
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void failingSenderKeepsObservations() throws Exception {
+        RecordingSender sender = new RecordingSender();
+        sender.available = false;
+        sender.throwing = true;
+        File directory = folder.newFolder();
+
+        try (ObservationJournal journal = new ObservationJournal(directory, ObservationJournal.Mode.ON_FAILURE,
+                                                                 SEGMENT_SIZE, 4, 20, sender)) {
+            journal.append("device0", payload(0), "HTTP");
+            await(() -> sender.attempts() >= 3);
+
+            assertEquals(1, journal.getPendingRecords());
+            assertEquals(0, journal.getRejectedRecords());
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void rotationDropsOldestSegmentWhenFull() throws Exception {
+        RecordingSender sender = new RecordingSender();
+        sender.available = false;
+        File directory = folder.newFolder();
+
+        try (ObservationJournal journal = new ObservationJournal(directory, ObservationJournal.Mode.ON_FAILURE,
+                                                                 SEGMENT_SIZE, 2, 60000, sender)) {
+            for (int i = 0; i < 100; i++) {
+                assertTrue(journal.append("device" + i, payload(i), "HTTP"));
+            }
+
+            assertEquals(2, journal.getSegmentCount());
+            assertTrue(journal.getDroppedRecords() > 0);
+            assertEquals(100, journal.getPendingRecords() + journal.getDroppedRecords());
+            assertEquals(2, directory.listFiles().length);
+
+            sender.available = true;
+            journal.requestReplay();
+            await(() -> !journal.hasPending());
+
+            // The newest observations are kept, in order
+            List<String> delivered = sender.delivered();
+            assertEquals("device99", delivered.get(delivered.size() - 1));
+            assertEquals(100 - journal.getDroppedRecords(), delivered.size());
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void pendingObservationsSurviveReopening() throws Exception {
+        RecordingSender sender = new RecordingSender();
+        sender.available = false;
+        File directory = folder.newFolder();
+
+        ObservationJournal journal = new ObservationJournal(directory, ObservationJournal.Mode.ON_FAILURE,
+                                                            SEGMENT_SIZE, 4, 60000, sender);
+        journal.append("device0", payload(0), "HTTP");
+        journal.append("device1", payload(1), "MQTT");
+        journal.close();
+
+        RecordingSender reopenedSender = new RecordingSender();
+        try (ObservationJournal reopened = new ObservationJournal(directory, ObservationJournal.Mode.ON_FAILURE,
+                                                                  SEGMENT_SIZE, 4, 60000, reopenedSender)) {
+            await(() -> !reopened.hasPending());
+
+            assertEquals(Arrays.asList("device0", "device1"), reopenedSender.delivered());
+            assertEquals(Arrays.asList("HTTP", "MQTT"), reopenedSender.protocols());
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void observationLargerThanSegmentIsRefused() throws Exception {
+        try (ObservationJournal journal = new ObservationJournal(folder.newFolder(), ObservationJournal.Mode.ON_FAILURE,
+                                                                 SEGMENT_SIZE, 4, 60000, new RecordingSender())) {
+            assertFalse(journal.append("device0", new byte[SEGMENT_SIZE], "HTTP"));
+            assertFalse(journal.hasPending());
+        }
+    }
+
+    private static byte[] payload(int i) {
+        return String.format("t|%d#h|%d", i, i * 2).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        while (!condition.getAsBoolean()) {
+            Thread.sleep(5);
+        }
+    }
+
+    private static class RecordingSender implements ObservationJournal.Sender {
+
+        private volatile boolean available = true;
+        private volatile boolean throwing;
+        private volatile String rejectedDevice;
+
+        private final List<String> delivered = new ArrayList<>();
+        private final List<String> protocols = new ArrayList<>();
+        private int attempts;
+
+        @Override
+        public synchronized ObservationJournal.Delivery send(String deviceId, byte[] payload, String protocol) {
+            this.attempts++;
+            if (deviceId.equals(this.rejectedDevice)) {
+                return ObservationJournal.Delivery.REJECTED;
+            }
+            if (!this.available) {
+                if (this.throwing) {
+                    throw new IllegalStateException("Sender failure");
+                }
+                return ObservationJournal.Delivery.RETRY;
+            }
+            this.delivered.add(deviceId);
+            this.protocols.add(protocol);
+            return ObservationJournal.Delivery.DELIVERED;
+        }
+
+        private synchronized int attempts() {
+            return attempts;
+        }
+
+        private synchronized List<String> delivered() {
+            return Collections.unmodifiableList(new ArrayList<>(delivered));
+        }
+
+        private synchronized List<String> protocols() {
+            return new ArrayList<>(protocols);
+        }
+
+    }
+
+}
@@ -0,0 +1,145 @@
+package br.ufrn.imd.fiotclient.transport;
+
+import br.ufrn.imd.fiotclient.SimpleClient;
+import br.ufrn.imd.fiotclient.metrics.ClientMetrics;
+import br.ufrn.imd.fiotclient.utils.FiwareConfig;
+import org.junit.Test;
+
+import java.net.URI;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CircuitBreakerTest {
+
+    private static final String URL = "http://127.0.0.1:9/v2/entities";
+
+    @Test
+    public void opensAfterConsecutiveFailures() {
+        CircuitBreaker breaker = new CircuitBreaker("host:1026", 3, 60000);
+
+        breaker.recordFailure();
+        breaker.recordFailure();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.allowRequest());
+
+        breaker.recordFailure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest());
+    }
+
+    @Test
+    public void successResetsFailureCount() {
+        CircuitBreaker breaker = new CircuitBreaker("host:1026", 2, 60000);
+
+        breaker.recordFailure();
+        breaker.recordSuccess();
+        breaker.recordFailure();
+
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(1, breaker.getConsecutiveFailures());
+    }
+
+    @Test(timeout = 5000)
+    public void halfOpenAllowsSingleTrial() throws Exception {
+        CircuitBreaker breaker = openBreaker(20);
+
+        assertTrue(breaker.allowRequest());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest());
+    }
+
+    @Test(timeout = 5000)
+    public void successfulTrialClosesCircuit() throws Exception {
+        CircuitBreaker breaker = openBreaker(20);
+
+        assertTrue(breaker.allowRequest());
+        breaker.recordSuccess();
+
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.allowRequest());
+        assertTrue(breaker.allowRequest());
+    }
+
+    @Test(timeout = 5000)
+    public void failedTrialReopensCircuit() throws Exception {
+        CircuitBreaker breaker = openBreaker(20);
+
+        assertTrue(breaker.allowRequest());
+        breaker.recordFailure();
+
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest());
+
+        Thread.sleep(40);
+        assertTrue(breaker.allowRequest());
+    }
+
+    @Test(timeout = 10000)
+    public void trialThrowingRuntimeExceptionDoesNotWedgeCircuit() throws Exception {
+        try (HttpTransport transport = new HttpTransport()) {
+            transport.setCircuitBreakers(new CircuitBreakerRegistry(1, 20));
+            SimpleClient client = new SimpleClient(new FiwareConfig(new HashMap<>()), transport);
+            client.setMetrics(new FailingMetrics());
+
+            CircuitBreaker breaker = transport.getCircuitBreaker(URI.create(URL));
+            breaker.recordFailure();
+            Thread.sleep(40);
+
+            try {
+                client.execute(URL, "", SimpleClient.GET, Collections.emptyMap());
+                fail("Expected the failure of the metrics");
+            } catch (IllegalStateException e) {
+                // expected
+            }
+            assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+            Thread.sleep(40);
+            try {
+                client.executeStreaming(URL, "", SimpleClient.GET, Collections.emptyMap());
+                fail("Expected the failure of the metrics");
+            } catch (IllegalStateException e) {
+                // expected
+            }
+            assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+            Thread.sleep(40);
+            CompletableFuture<?> future = client.executeAsync(URL, "", SimpleClient.GET, Collections.emptyMap());
+            try {
+                future.get();
+                fail("Expected the failure of the metrics");
+            } catch (ExecutionException e) {
+                assertSame(IllegalStateException.class, e.getCause().getClass());
+            }
+            assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+            Thread.sleep(40);
+            assertTrue(breaker.allowRequest());
+        }
+    }
+
+    private static CircuitBreaker openBreaker(long openMillis) throws InterruptedException {
+        CircuitBreaker breaker = new CircuitBreaker("host:1026", 1, openMillis);
+        breaker.recordFailure();
+        assertFalse(breaker.allowRequest());
+        Thread.sleep(openMillis * 2);
+        return breaker;
+    }
+
+    private static class FailingMetrics implements ClientMetrics {
+
+        @Override
+        public void requestStarted(String method, URI uri) {
+            throw new IllegalStateException("Metrics failure");
+        }
+
+    }
+
+}
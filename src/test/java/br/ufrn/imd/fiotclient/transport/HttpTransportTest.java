@@ -0,0 +1,147 @@
+package br.ufrn.imd.fiotclient.transport;
+
+import com.sun.net.httpserver.HttpServer;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class HttpTransportTest {
+
+    private static final int BACKLOG = 20000;
+
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final AtomicInteger served = new AtomicInteger();
+
+    @Before
+    public void startServer() throws Exception {
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        this.server.createContext("/", exchange -> {
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            served.incrementAndGet();
+            byte[] body = "{}".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        this.serverExecutor = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r);
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.server.setExecutor(this.serverExecutor);
+        this.server.start();
+    }
+
+    @After
+    public void stopServer() {
+        release.countDown();
+        this.server.stop(0);
+        this.serverExecutor.shutdownNow();
+    }
+
+    @Test(timeout = 30000)
+    public void boundsRequestsInFlight() throws Exception {
+        try (HttpTransport transport = new HttpTransport(10, 10, 1000, 1000, 2)) {
+            List<CompletableFuture<HttpResponse>> futures = new ArrayList<>();
+            for (int i = 0; i < 6; i++) {
+                futures.add(transport.executeAsync(new HttpGet(url())));
+            }
+
+            assertEquals(2, transport.getInFlight());
+            assertEquals(4, transport.getQueued());
+            // The asynchronous pool is part of the transport stats
+            while (transport.getAsyncStats().getLeased() < 2) {
+                Thread.sleep(1);
+            }
+            assertEquals(2, transport.getTotalStats().getLeased());
+            assertEquals(0, transport.getSyncStats().getLeased());
+
+            release.countDown();
+            for (CompletableFuture<HttpResponse> future : futures) {
+                assertEquals(200, future.get().getStatusLine().getStatusCode());
+            }
+            assertEquals(0, transport.getInFlight());
+            assertEquals(0, transport.getQueued());
+            assertEquals(6, served.get());
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void drainsBacklogOfCancelledRequestsWithoutNesting() throws Exception {
+        try (HttpTransport transport = new HttpTransport(10, 10, 1000, 1000, 1)) {
+            CompletableFuture<HttpResponse> first = transport.executeAsync(new HttpGet(url()));
+
+            List<CompletableFuture<HttpResponse>> cancelled = new ArrayList<>();
+            for (int i = 0; i < BACKLOG; i++) {
+                cancelled.add(transport.executeAsync(new HttpGet(url())));
+            }
+            CompletableFuture<HttpResponse> last = transport.executeAsync(new HttpGet(url()));
+            assertEquals(BACKLOG + 1, transport.getQueued());
+
+            cancelled.forEach(future -> future.cancel(false));
+            release.countDown();
+
+            assertEquals(200, first.get().getStatusLine().getStatusCode());
+            assertEquals(200, last.get().getStatusLine().getStatusCode());
+            assertEquals(0, transport.getQueued());
+            assertEquals(0, transport.getInFlight());
+            assertEquals(2, served.get());
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void failsBacklogAfterCloseWithoutNesting() throws Exception {
+        HttpTransport transport = new HttpTransport(10, 10, 1000, 1000, 1);
+        CompletableFuture<HttpResponse> first = transport.executeAsync(new HttpGet(url()));
+        List<CompletableFuture<HttpResponse>> backlog = new ArrayList<>();
+        for (int i = 0; i < BACKLOG; i++) {
+            backlog.add(transport.executeAsync(new HttpGet(url())));
+        }
+
+        transport.close();
+
+        for (CompletableFuture<HttpResponse> future : backlog) {
+            try {
+                future.get();
+                fail("Expected the request to fail on a closed transport");
+            } catch (ExecutionException e) {
+                assertFalse(e.getCause() instanceof StackOverflowError);
+            }
+        }
+        assertTrue(first.isDone());
+        assertEquals(0, transport.getQueued());
+        assertEquals(0, transport.getInFlight());
+    }
+
+    private String url() {
+        return "http://127.0.0.1:" + this.server.getAddress().getPort() + "/v2/entities";
+    }
+
+}
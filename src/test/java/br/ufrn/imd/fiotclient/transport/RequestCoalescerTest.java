@@ -0,0 +1,245 @@
+package br.ufrn.imd.fiotclient.transport;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RequestCoalescerTest {
+
+    private static final String KEY = "GET http://orion:1026/v2/entities/ROOM_1";
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @After
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Test(timeout = 10000)
+    public void identicalRequestsShareOneExecution() throws Exception {
+        RequestCoalescer<String> coalescer = new RequestCoalescer<>();
+        AtomicInteger executions = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+
+        RequestCoalescer.Request<String> request = () -> {
+            executions.incrementAndGet();
+            await(release);
+            return "value";
+        };
+
+        List<Future<String>> callers = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            callers.add(executor.submit(() -> coalescer.execute(KEY, request, null)));
+        }
+        awaitCoalesced(coalescer, 9);
+        release.countDown();
+
+        for (Future<String> caller : callers) {
+            assertEquals("value", caller.get());
+        }
+        assertEquals(1, executions.get());
+        assertEquals(0, coalescer.getInFlight());
+    }
+
+    @Test(timeout = 10000)
+    public void distinctKeysAreNotCoalesced() throws Exception {
+        RequestCoalescer<String> coalescer = new RequestCoalescer<>();
+
+        assertEquals("a", coalescer.execute("a", () -> "a", null));
+        assertEquals("b", coalescer.execute("b", () -> "b", null));
+
+        assertEquals(0, coalescer.getCoalescedCount());
+        assertEquals(0, coalescer.getInFlight());
+    }
+
+    @Test(timeout = 10000)
+    public void failureIsPropagatedToFollowers() throws Exception {
+        RequestCoalescer<String> coalescer = new RequestCoalescer<>();
+        IOException failure = new IOException("Connection refused");
+        CountDownLatch release = new CountDownLatch(1);
+
+        Future<String> leader = executor.submit(() -> coalescer.execute(KEY, () -> {
+            await(release);
+            throw failure;
+        }, null));
+        awaitInFlight(coalescer);
+        Future<String> follower = executor.submit(() -> coalescer.execute(KEY, () -> "unexpected", null));
+        awaitCoalesced(coalescer, 1);
+        release.countDown();
+
+        assertSame(failure, causeOf(leader));
+        assertSame(failure, causeOf(follower));
+    }
+
+    @Test(timeout = 10000)
+    public void followersRetryWhenLeaderDeadlineExpires() throws Exception {
+        RequestCoalescer<String> coalescer = new RequestCoalescer<>();
+        AtomicInteger executions = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+
+        RequestCoalescer.Request<String> request = () -> {
+            if (executions.incrementAndGet() == 1) {
+                // The first execution fails on the deadline of the caller that made it
+                await(release);
+                throw new DeadlineExceededException();
+            }
+            return "value";
+        };
+
+        Future<String> leader = executor.submit(() -> coalescer.execute(KEY, request, null));
+        awaitInFlight(coalescer);
+        List<Future<String>> followers = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            followers.add(executor.submit(() -> coalescer.execute(KEY, request, Deadline.afterMillis(5000))));
+        }
+        awaitCoalesced(coalescer, 5);
+        release.countDown();
+
+        assertTrue(causeOf(leader) instanceof DeadlineExceededException);
+        for (Future<String> follower : followers) {
+            assertEquals("value", follower.get());
+        }
+        assertTrue(executions.get() >= 2);
+    }
+
+    @Test(timeout = 10000)
+    public void followerStopsWaitingOnItsOwnDeadline() throws Exception {
+        RequestCoalescer<String> coalescer = new RequestCoalescer<>();
+        CountDownLatch release = new CountDownLatch(1);
+
+        Future<String> leader = executor.submit(() -> coalescer.execute(KEY, () -> {
+            await(release);
+            return "value";
+        }, null));
+        awaitInFlight(coalescer);
+
+        try {
+            coalescer.execute(KEY, () -> "unexpected", Deadline.afterMillis(50));
+            fail("Expected the deadline of the follower to expire");
+        } catch (DeadlineExceededException e) {
+            // expected
+        }
+
+        release.countDown();
+        assertEquals("value", leader.get());
+    }
+
+    @Test(timeout = 10000)
+    public void asyncRequestsShareOneExecution() throws Exception {
+        RequestCoalescer<String> coalescer = new RequestCoalescer<>();
+        AtomicInteger executions = new AtomicInteger();
+        CompletableFuture<String> response = new CompletableFuture<>();
+
+        List<CompletableFuture<String>> callers = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            callers.add(coalescer.executeAsync(KEY, () -> {
+                executions.incrementAndGet();
+                return response;
+            }, null));
+        }
+        response.complete("value");
+
+        for (CompletableFuture<String> caller : callers) {
+            assertEquals("value", caller.get());
+        }
+        assertEquals(1, executions.get());
+        assertEquals(9, coalescer.getCoalescedCount());
+        assertEquals(0, coalescer.getInFlight());
+    }
+
+    @Test(timeout = 10000)
+    public void asyncFollowersRetryWhenLeaderDeadlineExpires() throws Exception {
+        RequestCoalescer<String> coalescer = new RequestCoalescer<>();
+        AtomicInteger executions = new AtomicInteger();
+        CompletableFuture<String> expired = new CompletableFuture<>();
+
+        CompletableFuture<String> leader = coalescer.executeAsync(KEY, () -> {
+            executions.incrementAndGet();
+            return expired;
+        }, Deadline.afterMillis(10));
+        CompletableFuture<String> follower = coalescer.executeAsync(KEY, () -> {
+            executions.incrementAndGet();
+            return CompletableFuture.completedFuture("value");
+        }, Deadline.afterMillis(5000));
+
+        expired.completeExceptionally(new DeadlineExceededException());
+
+        assertTrue(causeOf(leader) instanceof DeadlineExceededException);
+        assertEquals("value", follower.get());
+        assertEquals(2, executions.get());
+        assertEquals(0, coalescer.getInFlight());
+    }
+
+    @Test(timeout = 10000)
+    public void asyncFailureIsPropagatedToFollowers() throws Exception {
+        RequestCoalescer<String> coalescer = new RequestCoalescer<>();
+        IOException failure = new IOException("Connection refused");
+        CompletableFuture<String> response = new CompletableFuture<>();
+
+        CompletableFuture<String> leader = coalescer.executeAsync(KEY, () -> response, null);
+        CompletableFuture<String> follower = coalescer.executeAsync(KEY, () -> response, null);
+        response.completeExceptionally(failure);
+
+        assertSame(failure, causeOf(leader));
+        assertSame(failure, causeOf(follower));
+    }
+
+    @Test(timeout = 10000)
+    public void asyncRequestThrowingOnStartFailsItsCallers() throws Exception {
+        RequestCoalescer<String> coalescer = new RequestCoalescer<>();
+        IllegalStateException failure = new IllegalStateException("Transport is closed");
+
+        CompletableFuture<String> caller = coalescer.executeAsync(KEY, () -> {
+            throw failure;
+        }, null);
+
+        assertSame(failure, causeOf(caller));
+        assertEquals(0, coalescer.getInFlight());
+    }
+
+    private static Throwable causeOf(Future<?> future) throws InterruptedException {
+        try {
+            future.get();
+        } catch (ExecutionException e) {
+            return e.getCause();
+        }
+        throw new AssertionError("Expected a failure");
+    }
+
+    private static void awaitInFlight(RequestCoalescer<?> coalescer) throws InterruptedException {
+        while (coalescer.getInFlight() == 0) {
+            Thread.sleep(1);
+        }
+    }
+
+    private static void awaitCoalesced(RequestCoalescer<?> coalescer, long count) throws InterruptedException {
+        while (coalescer.getCoalescedCount() < count) {
+            Thread.sleep(1);
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
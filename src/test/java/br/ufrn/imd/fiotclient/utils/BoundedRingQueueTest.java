@@ -0,0 +1,137 @@
+package br.ufrn.imd.fiotclient.utils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class BoundedRingQueueTest {
+
+    @Test
+    public void roundsCapacityUpToPowerOfTwo() {
+        assertEquals(1, new BoundedRingQueue<String>(1).capacity());
+        assertEquals(8, new BoundedRingQueue<String>(5).capacity());
+        assertEquals(8, new BoundedRingQueue<String>(8).capacity());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInvalidCapacity() {
+        new BoundedRingQueue<String>(0);
+    }
+
+    @Test
+    public void keepsOrderAcrossLaps() {
+        BoundedRingQueue<Integer> queue = new BoundedRingQueue<>(4);
+
+        for (int lap = 0; lap < 10; lap++) {
+            for (int i = 0; i < 3; i++) {
+                assertTrue(queue.offer(lap * 10 + i));
+            }
+            for (int i = 0; i < 3; i++) {
+                assertEquals(Integer.valueOf(lap * 10 + i), queue.poll());
+            }
+            assertNull(queue.poll());
+            assertTrue(queue.isEmpty());
+        }
+    }
+
+    @Test
+    public void rejectsElementsWhenFull() {
+        BoundedRingQueue<Integer> queue = new BoundedRingQueue<>(4);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(queue.offer(i));
+        }
+
+        assertFalse(queue.offer(4));
+        assertEquals(4, queue.size());
+
+        assertEquals(Integer.valueOf(0), queue.poll());
+        assertTrue(queue.offer(4));
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void rejectsNullElements() {
+        new BoundedRingQueue<String>(4).offer(null);
+    }
+
+    /*
+     * Same hand-off as NotificationReceiver: producers release a permit after each offer and consumers poll after
+     * taking one. A permit may be taken before the slot of its element is published by a slower producer, so the
+     * consumer waits for it instead of dropping the permit, or an element would be stranded on the queue.
+     */
+    @Test(timeout = 30000)
+    public void permitsHandOffEveryElementToConsumers() throws Exception {
+        int producers = 4;
+        int consumers = 4;
+        int perProducer = 50000;
+        int total = producers * perProducer;
+
+        BoundedRingQueue<Integer> queue = new BoundedRingQueue<>(1024);
+        Semaphore permits = new Semaphore(0);
+        AtomicIntegerArray seen = new AtomicIntegerArray(total);
+        AtomicLong consumed = new AtomicLong();
+        CountDownLatch start = new CountDownLatch(1);
+
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            int first = p * perProducer;
+            threads.add(new Thread(() -> {
+                await(start);
+                for (int i = first; i < first + perProducer; i++) {
+                    while (!queue.offer(i)) {
+                        Thread.yield();
+                    }
+                    permits.release();
+                }
+            }));
+        }
+        for (int c = 0; c < consumers; c++) {
+            threads.add(new Thread(() -> {
+                await(start);
+                while (consumed.get() < total) {
+                    if (!permits.tryAcquire()) {
+                        Thread.yield();
+                        continue;
+                    }
+                    Integer element = queue.poll();
+                    while (element == null) {
+                        Thread.yield();
+                        element = queue.poll();
+                    }
+                    seen.incrementAndGet(element);
+                    consumed.incrementAndGet();
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(total, consumed.get());
+        for (int i = 0; i < total; i++) {
+            assertEquals(1, seen.get(i));
+        }
+        assertEquals(0, permits.availablePermits());
+        assertTrue(queue.isEmpty());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
@@ -0,0 +1,124 @@
+package br.ufrn.imd.fiotclient.utils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ParallelRunnerTest {
+
+    @Test(timeout = 10000)
+    public void keepsResultsInOrderAndBoundsConcurrency() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+
+        List<Supplier<CompletableFuture<Integer>>> tasks = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            int value = i;
+            tasks.add(() -> CompletableFuture.supplyAsync(() -> {
+                int current = running.incrementAndGet();
+                maxRunning.accumulateAndGet(current, Math::max);
+                sleep(1);
+                running.decrementAndGet();
+                return value;
+            }, executor));
+        }
+
+        try {
+            List<Integer> results = ParallelRunner.runBounded(tasks, 3).get(5, TimeUnit.SECONDS);
+            for (int i = 0; i < 200; i++) {
+                assertEquals(i, (int) results.get(i));
+            }
+            assertTrue("At most 3 tasks may run at a time, but " + maxRunning.get() + " did", maxRunning.get() <= 3);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void synchronouslyCompletedTasksDoNotGrowTheStack() throws Exception {
+        // Enough tasks to overflow the stack if each completion started the next task recursively
+        List<Supplier<CompletableFuture<Integer>>> tasks = new ArrayList<>();
+        for (int i = 0; i < 200000; i++) {
+            int value = i;
+            tasks.add(() -> CompletableFuture.completedFuture(value));
+        }
+
+        List<Integer> results = ParallelRunner.runBounded(tasks, 4).get();
+        assertEquals(200000, results.size());
+        assertEquals(199999, (int) results.get(199999));
+    }
+
+    @Test(timeout = 10000)
+    public void failsWithTheFirstFailureAfterAllTasksFinish() throws Exception {
+        AtomicInteger started = new AtomicInteger();
+        IllegalStateException thrown = new IllegalStateException("payload");
+
+        List<Supplier<CompletableFuture<Integer>>> tasks = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            int value = i;
+            tasks.add(() -> {
+                started.incrementAndGet();
+                if (value == 10) {
+                    throw thrown;
+                }
+                CompletableFuture<Integer> future = new CompletableFuture<>();
+                if (value == 20) {
+                    future.completeExceptionally(new RuntimeException("later"));
+                } else {
+                    future.complete(value);
+                }
+                return future;
+            });
+        }
+
+        try {
+            ParallelRunner.runBounded(tasks, 2).get();
+            fail("The run should fail");
+        } catch (ExecutionException e) {
+            assertSame(thrown, e.getCause());
+        }
+        assertEquals(50, started.get());
+    }
+
+    @Test
+    public void completesEmptyRunsImmediately() throws Exception {
+        List<Supplier<CompletableFuture<Integer>>> tasks = Collections.emptyList();
+        assertTrue(ParallelRunner.runBounded(tasks, 4).get().isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsParallelismBelowOne() {
+        ParallelRunner.runBounded(Collections.<Supplier<CompletableFuture<Integer>>>emptyList(), 0);
+    }
+
+    @Test
+    public void splitsListsInChunks() {
+        List<List<Integer>> chunks = ParallelRunner.chunk(Arrays.asList(1, 2, 3, 4, 5), 2);
+        assertEquals(Arrays.asList(Arrays.asList(1, 2), Arrays.asList(3, 4), Collections.singletonList(5)), chunks);
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}